@@ -0,0 +1,25 @@
+package com.wu.monitor.config;
+
+import com.wu.monitor.service.BinaryPositionSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * 二进制实时位置推送端点，与STOMP端点 /ws-path 并存，客户端按需选择
+ */
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+public class BinaryWebSocketConfig implements WebSocketConfigurer {
+
+    private final BinaryPositionSocketHandler binaryPositionSocketHandler;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(binaryPositionSocketHandler, "/ws-path-binary")
+                .setAllowedOriginPatterns("*");
+    }
+}
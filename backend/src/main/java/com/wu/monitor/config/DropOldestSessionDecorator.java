@@ -0,0 +1,223 @@
+package com.wu.monitor.config;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 慢消费者隔离的会话包装
+ * 与 ConcurrentWebSocketSessionDecorator 相同，同一时间只有一个线程执行实际发送，其他线程只把消息放入缓冲区后返回，
+ * 慢会话不会占住共享的出站线程。不同之处在于缓冲区超过上限时丢弃最早的实时位置帧（目的地为
+ * /topic/pathData、/topic/pathData/{mapId} 或 /user/queue/pathData 的 MESSAGE 帧）而不是断开连接，
+ * 位置推送每帧都是最新数据，丢掉旧帧对显示没有影响；告警通知、围栏事件等不会被后续消息覆盖的帧
+ * 以及 CONNECTED、RECEIPT、ERROR 等控制帧不丢弃。
+ * 单条消息发送超时、或丢弃全部位置帧后仍超限时断开连接，客户端重连后重新获取状态。
+ */
+public class DropOldestSessionDecorator extends WebSocketSessionDecorator {
+
+    private static final String MESSAGE_FRAME = "MESSAGE\n";
+    private static final String DESTINATION_HEADER = "\ndestination:";
+
+    // 可丢弃的目的地：位置主题（含按地图的子主题）和按可视范围推送的会话队列
+    private static final String POSITION_TOPIC = "/topic/pathData";
+    private static final String POSITION_QUEUE = "/user/queue/pathData";
+
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+
+    private final Deque<WebSocketMessage<?>> buffer = new ArrayDeque<>();
+    private int bufferedBytes;
+
+    private final Lock flushLock = new ReentrantLock();
+    private final Lock closeLock = new ReentrantLock();
+    private volatile long sendStartTime;
+    private volatile boolean closing;
+
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private volatile String closeReason;
+
+    /**
+     * @param sendTimeLimit 单条消息发送超时（毫秒）
+     * @param bufferSizeLimit 缓冲区上限（字节）
+     */
+    public DropOldestSessionDecorator(WebSocketSession delegate, int sendTimeLimit, int bufferSizeLimit) {
+        super(delegate);
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (closing) {
+            return;
+        }
+        synchronized (buffer) {
+            buffer.add(message);
+            bufferedBytes += message.getPayloadLength();
+        }
+        do {
+            if (!tryFlush()) {
+                checkLimits();
+                break;
+            }
+        } while (hasBuffered() && !closing);
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        closing = true;
+        if (closeLock.tryLock()) {
+            try {
+                if (getDelegate().isOpen()) {
+                    super.close(status);
+                }
+            } finally {
+                closeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 会话发送统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("id", getId());
+        stats.put("remoteAddress", getRemoteAddress() != null ? getRemoteAddress().toString() : null);
+        synchronized (buffer) {
+            stats.put("bufferedMessages", buffer.size());
+            stats.put("bufferedBytes", bufferedBytes);
+        }
+        long start = sendStartTime;
+        stats.put("sendInProgressMs", start > 0 ? System.currentTimeMillis() - start : 0);
+        stats.put("sentMessages", sentMessages.get());
+        stats.put("droppedMessages", droppedMessages.get());
+        stats.put("droppedBytes", droppedBytes.get());
+        if (closeReason != null) {
+            stats.put("closeReason", closeReason);
+        }
+        return stats;
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    public String getCloseReason() {
+        return closeReason;
+    }
+
+    private boolean tryFlush() throws IOException {
+        if (!flushLock.tryLock()) {
+            return false;
+        }
+        try {
+            while (!closing) {
+                WebSocketMessage<?> message;
+                synchronized (buffer) {
+                    message = buffer.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    bufferedBytes -= message.getPayloadLength();
+                }
+                sendStartTime = System.currentTimeMillis();
+                getDelegate().sendMessage(message);
+                sendStartTime = 0;
+                sentMessages.incrementAndGet();
+            }
+        } finally {
+            sendStartTime = 0;
+            flushLock.unlock();
+        }
+        return true;
+    }
+
+    private void checkLimits() {
+        long start = sendStartTime;
+        if (start > 0 && System.currentTimeMillis() - start > sendTimeLimit) {
+            terminate("发送超时 " + sendTimeLimit + "ms");
+            return;
+        }
+        synchronized (buffer) {
+            if (bufferedBytes <= bufferSizeLimit) {
+                return;
+            }
+            Iterator<WebSocketMessage<?>> iterator = buffer.iterator();
+            while (bufferedBytes > bufferSizeLimit && iterator.hasNext()) {
+                WebSocketMessage<?> message = iterator.next();
+                if (isDroppable(message)) {
+                    iterator.remove();
+                    bufferedBytes -= message.getPayloadLength();
+                    droppedMessages.incrementAndGet();
+                    droppedBytes.addAndGet(message.getPayloadLength());
+                }
+            }
+            if (bufferedBytes <= bufferSizeLimit) {
+                return;
+            }
+        }
+        terminate("缓冲区超过 " + bufferSizeLimit + " 字节");
+    }
+
+    private void terminate(String reason) {
+        closeReason = reason;
+        synchronized (buffer) {
+            buffer.clear();
+            bufferedBytes = 0;
+        }
+        try {
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException ignored) {
+            // 连接可能已关闭
+        }
+    }
+
+    private boolean hasBuffered() {
+        synchronized (buffer) {
+            return !buffer.isEmpty();
+        }
+    }
+
+    /**
+     * 只有实时位置的 MESSAGE 帧可以丢弃
+     */
+    private static boolean isDroppable(WebSocketMessage<?> message) {
+        if (!(message instanceof TextMessage)) {
+            return false;
+        }
+        String payload = ((TextMessage) message).getPayload();
+        if (!payload.startsWith(MESSAGE_FRAME)) {
+            return false;
+        }
+        // 只在帧头内查找 destination 头
+        int headerEnd = payload.indexOf("\n\n");
+        int start = payload.indexOf(DESTINATION_HEADER, MESSAGE_FRAME.length() - 1);
+        if (start < 0 || (headerEnd >= 0 && start > headerEnd)) {
+            return false;
+        }
+        start += DESTINATION_HEADER.length();
+        int end = payload.indexOf('\n', start);
+        String destination = end >= 0 ? payload.substring(start, end) : payload.substring(start);
+        return destination.equals(POSITION_QUEUE) || destination.equals(POSITION_TOPIC)
+                || destination.startsWith(POSITION_TOPIC + "/");
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.wu.monitor.model.TrackingData;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
@@ -19,12 +20,7 @@ public class RedisConfig {
         template.setConnectionFactory(connectionFactory);
         
         // 配置Jackson序列化器
-        Jackson2JsonRedisSerializer<Object> serializer = new Jackson2JsonRedisSerializer<>(Object.class);
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
-        // 启用默认类型信息，解决LinkedHashMap转换问题
-        objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
-        serializer.setObjectMapper(objectMapper);
+        Jackson2JsonRedisSerializer<Object> serializer = createJsonSerializer();
         
         template.setValueSerializer(serializer);
         template.setHashValueSerializer(serializer);
@@ -35,4 +31,31 @@ public class RedisConfig {
         template.afterPropertiesSet();
         return template;
     }
-}
\ No newline at end of file
+    
+    /**
+     * 轨迹数据专用模板，用于 device:latest:* 和 device:history:* 两类key
+     * 值使用定长二进制格式，读取时兼容旧版JSON数据
+     */
+    @Bean
+    public RedisTemplate<String, TrackingData> trackingRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, TrackingData> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        
+        template.setValueSerializer(new TrackingDataRedisSerializer(createJsonSerializer()));
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setHashKeySerializer(new StringRedisSerializer());
+        
+        template.afterPropertiesSet();
+        return template;
+    }
+    
+    private Jackson2JsonRedisSerializer<Object> createJsonSerializer() {
+        Jackson2JsonRedisSerializer<Object> serializer = new Jackson2JsonRedisSerializer<>(Object.class);
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        // 启用默认类型信息，解决LinkedHashMap转换问题
+        objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
+        serializer.setObjectMapper(objectMapper);
+        return serializer;
+    }
+}
@@ -0,0 +1,49 @@
+package com.wu.monitor.config;
+
+import com.wu.monitor.model.TrackingData;
+import com.wu.monitor.util.TrackingDataCodec;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * 轨迹数据Redis序列化器
+ * 写入统一使用定长二进制格式，读取时兼容旧版带类型信息的JSON数据，便于平滑迁移
+ */
+public class TrackingDataRedisSerializer implements RedisSerializer<TrackingData> {
+
+    // 旧版JSON序列化器，仅用于读取迁移前写入的数据
+    private final RedisSerializer<Object> legacySerializer;
+
+    public TrackingDataRedisSerializer(RedisSerializer<Object> legacySerializer) {
+        this.legacySerializer = legacySerializer;
+    }
+
+    @Override
+    public byte[] serialize(TrackingData data) throws SerializationException {
+        if (data == null) {
+            return new byte[0];
+        }
+        return TrackingDataCodec.encode(data);
+    }
+
+    @Override
+    public TrackingData deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (TrackingDataCodec.isEncoded(bytes)) {
+            try {
+                return TrackingDataCodec.decode(bytes);
+            } catch (RuntimeException e) {
+                throw new SerializationException("轨迹数据二进制解码失败", e);
+            }
+        }
+
+        // 旧版JSON数据
+        Object legacy = legacySerializer.deserialize(bytes);
+        if (legacy == null || legacy instanceof TrackingData) {
+            return (TrackingData) legacy;
+        }
+        throw new SerializationException("无法识别的轨迹数据类型: " + legacy.getClass().getName());
+    }
+}
@@ -0,0 +1,48 @@
+package com.wu.monitor.config;
+
+import com.wu.monitor.service.WebSocketSessionMetrics;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+/**
+ * STOMP消息代理配置（替代 @EnableWebSocketMessageBroker）
+ * 其余配置仍由 {@link WebSocketConfig} 提供，这里只把会话包装替换为丢弃最旧消息的
+ * {@link DropOldestSessionDecorator}，并登记到 {@link WebSocketSessionMetrics}
+ */
+@Configuration
+@RequiredArgsConstructor
+public class WebSocketBrokerConfiguration extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    private final WebSocketSessionMetrics webSocketSessionMetrics;
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(AbstractSubscribableChannel clientInboundChannel,
+                                                        AbstractSubscribableChannel clientOutboundChannel) {
+        return new SubProtocolWebSocketHandler(clientInboundChannel, clientOutboundChannel) {
+            @Override
+            protected WebSocketSession decorateSession(WebSocketSession session) {
+                DropOldestSessionDecorator decorated =
+                    new DropOldestSessionDecorator(session, getSendTimeLimit(), getSendBufferSizeLimit());
+                webSocketSessionMetrics.register(decorated);
+                return decorated;
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                try {
+                    super.afterConnectionClosed(session, closeStatus);
+                } finally {
+                    webSocketSessionMetrics.unregister(session.getId());
+                }
+            }
+        };
+    }
+}
@@ -1,15 +1,51 @@
 package com.wu.monitor.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+/**
+ * STOMP端点及通道配置，消息代理由 {@link WebSocketBrokerConfiguration} 启用
+ */
 @Configuration
-@EnableWebSocketMessageBroker // 关键注解
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    // 入站通道（客户端发来的消息）线程池
+    @Value("${tracking.websocket.inbound.core-pool-size:4}")
+    private int inboundCorePoolSize;
+
+    @Value("${tracking.websocket.inbound.max-pool-size:8}")
+    private int inboundMaxPoolSize;
+
+    @Value("${tracking.websocket.inbound.queue-capacity:1000}")
+    private int inboundQueueCapacity;
+
+    // 出站通道（推送给客户端的消息）线程池
+    @Value("${tracking.websocket.outbound.core-pool-size:8}")
+    private int outboundCorePoolSize;
+
+    @Value("${tracking.websocket.outbound.max-pool-size:16}")
+    private int outboundMaxPoolSize;
+
+    @Value("${tracking.websocket.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    // 单条消息发送超时（毫秒），超时断开该会话
+    @Value("${tracking.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+
+    // 每个会话待发送缓冲上限（字节），超出时丢弃最早的推送消息
+    @Value("${tracking.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    // 客户端入站消息大小上限（字节）
+    @Value("${tracking.websocket.message-size-limit:65536}")
+    private int messageSizeLimit;
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // 必须使用.withSockJS()
@@ -20,7 +56,31 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/topic");
+        // /topic 为广播主题，/queue 用于按会话推送（/user/queue/...）
+        registry.enableSimpleBroker("/topic", "/queue");
         registry.setApplicationDestinationPrefixes("/app");
     }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor()
+                .corePoolSize(inboundCorePoolSize)
+                .maxPoolSize(inboundMaxPoolSize)
+                .queueCapacity(inboundQueueCapacity);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor()
+                .corePoolSize(outboundCorePoolSize)
+                .maxPoolSize(outboundMaxPoolSize)
+                .queueCapacity(outboundQueueCapacity);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setMessageSizeLimit(messageSizeLimit);
+    }
 }
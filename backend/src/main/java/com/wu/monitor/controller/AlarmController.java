@@ -7,6 +7,7 @@ import org.springframework.web.bind.annotation.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -78,6 +79,19 @@ public class AlarmController {
         return alarmService.getAlarmsByCondition(geofenceName, mapId, startDate, endDate, sortField, sortOrder);
     }
 
+    /**
+     * 获取标签在各围栏内的停留统计
+     * @param tag 标签MAC地址
+     * @return 每个围栏的进入次数和累计停留时长
+     */
+    @GetMapping("/dwell")
+    public Map<String, Object> getDwellStats(@RequestParam String tag) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("data", alarmService.getDwellStats(tag));
+        return result;
+    }
+
     /**
      * 根据ID获取报警记录
      * @param id 报警记录ID
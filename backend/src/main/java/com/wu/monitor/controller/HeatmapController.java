@@ -0,0 +1,80 @@
+package com.wu.monitor.controller;
+
+import com.wu.monitor.service.HeatmapService;
+import com.wu.monitor.util.HeatmapGrid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+@RestController
+@RequestMapping("/api/heatmap")
+@RequiredArgsConstructor
+@Slf4j
+public class HeatmapController {
+    
+    private final HeatmapService heatmapService;
+    
+    // 单次查询最长时间范围（天）
+    private static final int MAX_RANGE_DAYS = 366;
+    
+    /**
+     * 获取地图热力图，时间为UTC，按整小时合并，默认最近24小时
+     * format=png：每个单元格一个像素的PNG，可通过 tileX/tileY/tileSize（单元格）截取部分区域，
+     *             前端按 X-Heatmap-Cell-Size（像素）放大后叠加到地图图片上
+     * format=binary：大端二进制，列数(4) 行数(4) 单元格边长(4) 最大值(4) 非零单元格数(4)，之后每个单元格：序号(4) 值(4)
+     * metric：dwell（停留秒数，默认）或 count（定位点数）
+     */
+    @GetMapping("/{mapId}")
+    public ResponseEntity<byte[]> getHeatmap(
+            @PathVariable Integer mapId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(defaultValue = "dwell") String metric,
+            @RequestParam(defaultValue = "png") String format,
+            @RequestParam(defaultValue = "0") int tileX,
+            @RequestParam(defaultValue = "0") int tileY,
+            @RequestParam(required = false) Integer tileSize) {
+        
+        try {
+            HeatmapGrid.Metric heatmapMetric = HeatmapGrid.Metric.of(metric);
+            LocalDateTime end = endTime != null ? endTime : LocalDateTime.now(ZoneOffset.UTC);
+            LocalDateTime start = startTime != null ? startTime : end.minusHours(23);
+            if (start.isAfter(end) || start.isBefore(end.minusDays(MAX_RANGE_DAYS))) {
+                return ResponseEntity.badRequest().build();
+            }
+            
+            HeatmapGrid grid = heatmapService.query(mapId, start, end);
+            if (grid == null) {
+                return ResponseEntity.notFound().build();
+            }
+            
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header("X-Heatmap-Cols", String.valueOf(grid.getCols()))
+                .header("X-Heatmap-Rows", String.valueOf(grid.getRows()))
+                .header("X-Heatmap-Cell-Size", String.valueOf(grid.getCellSize()))
+                .header("X-Heatmap-Max", String.valueOf(grid.max(heatmapMetric)));
+            if ("binary".equalsIgnoreCase(format)) {
+                return response.contentType(MediaType.APPLICATION_OCTET_STREAM).body(grid.toBinary(heatmapMetric));
+            }
+            if (!"png".equalsIgnoreCase(format)) {
+                return ResponseEntity.badRequest().build();
+            }
+            int width = tileSize != null ? tileSize : grid.getCols();
+            int height = tileSize != null ? tileSize : grid.getRows();
+            return response.contentType(MediaType.IMAGE_PNG)
+                .body(grid.toPng(heatmapMetric, tileX, tileY, width, height));
+        } catch (IllegalArgumentException e) {
+            log.warn("热力图查询参数错误: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("获取热力图异常", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
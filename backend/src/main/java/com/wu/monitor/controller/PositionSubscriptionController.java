@@ -0,0 +1,36 @@
+package com.wu.monitor.controller;
+
+import com.wu.monitor.model.PositionViewport;
+import com.wu.monitor.service.PositionFanout;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Controller;
+
+/**
+ * 实时位置订阅设置（STOMP）
+ */
+@Controller
+@RequiredArgsConstructor
+@Slf4j
+public class PositionSubscriptionController {
+
+    private final PositionFanout positionFanout;
+
+    /**
+     * 注册当前会话的可视范围，之后订阅 /user/queue/pathData 只接收该地图范围内的点
+     * 发送到 /app/pathData/viewport，边界为空时取消
+     */
+    @MessageMapping("/pathData/viewport")
+    public void setViewport(PositionViewport request, SimpMessageHeaderAccessor accessor) {
+        PositionFanout.Viewport viewport = null;
+        if (request.getMinX() != null && request.getMinY() != null
+                && request.getMaxX() != null && request.getMaxY() != null) {
+            viewport = new PositionFanout.Viewport(request.getMinX(), request.getMinY(),
+                request.getMaxX(), request.getMaxY());
+        }
+        positionFanout.setViewport(accessor.getSessionId(), request.getMapId(), viewport);
+        log.debug("会话 {} 可视范围: {}", accessor.getSessionId(), request);
+    }
+}
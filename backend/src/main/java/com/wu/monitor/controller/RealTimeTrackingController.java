@@ -2,12 +2,14 @@ package com.wu.monitor.controller;
 
 import com.wu.monitor.model.TrackingData;
 import com.wu.monitor.service.RealTimeTrackingService;
+import com.wu.monitor.service.WebSocketSessionMetrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 @RestController
@@ -17,6 +19,7 @@ import java.util.concurrent.CompletableFuture;
 public class RealTimeTrackingController {
     
     private final RealTimeTrackingService trackingService;
+    private final WebSocketSessionMetrics webSocketSessionMetrics;
     
     /**
      * 接收单个轨迹数据 
@@ -120,4 +123,25 @@ public class RealTimeTrackingController {
             return ResponseEntity.internalServerError().build();
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * 获取轨迹处理管道运行统计
+     */
+    @GetMapping("/pipeline/stats")
+    public ResponseEntity<Map<String, Object>> getPipelineStats() {
+        try {
+            return ResponseEntity.ok(trackingService.getPipelineStats());
+        } catch (Exception e) {
+            log.error("获取轨迹处理管道统计异常", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    /**
+     * 获取STOMP会话发送统计（每个会话的缓冲深度、丢弃数）
+     */
+    @GetMapping("/websocket/sessions")
+    public ResponseEntity<Map<String, Object>> getWebSocketSessionStats() {
+        return ResponseEntity.ok(webSocketSessionMetrics.getStats());
+    }
+}
@@ -1,15 +1,25 @@
 package com.wu.monitor.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.wu.monitor.model.DeviceMinuteRollup;
+import com.wu.monitor.model.MapHourRollup;
 import com.wu.monitor.model.TrajectoryRecord;
 import com.wu.monitor.service.TrajectoryStorageService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/trajectory")
@@ -18,6 +28,13 @@ import java.util.List;
 public class TrajectoryStorageController {
     
     private final TrajectoryStorageService trajectoryStorageService;
+    private final ObjectMapper objectMapper;
+    
+    // NDJSON 响应类型
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    
+    // 游标分页单页最大条数
+    private static final int MAX_PAGE_SIZE = 10000;
     
     /**
      * 获取设备历史轨迹（用于回放）- 直接使用前端传入的时间，不做时区转换
@@ -45,4 +62,127 @@ public class TrajectoryStorageController {
             return ResponseEntity.internalServerError().build();
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 游标分页获取设备历史轨迹，按 (timestamp, id) 升序
+     * 首页不传cursor，之后传入上一页返回的nextCursor，直到hasMore为false
+     */
+    @GetMapping("/device/{deviceId}/history/page")
+    public ResponseEntity<Map<String, Object>> getDeviceTrajectoryPage(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) Integer mapId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "1000") int size) {
+        
+        try {
+            int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+            return ResponseEntity.ok(trajectoryStorageService.getDeviceTrajectoryPage(
+                deviceId, mapId, startTime, endTime, cursor, pageSize));
+        } catch (IllegalArgumentException e) {
+            log.warn("游标分页查询参数错误: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("游标分页获取设备轨迹异常", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    /**
+     * 流式获取设备历史轨迹（NDJSON，每行一条记录，按时间升序）
+     * 数据库逐行读取并直接写入响应，适合一次性加载整天的回放数据
+     */
+    @GetMapping("/device/{deviceId}/history/stream")
+    public ResponseEntity<StreamingResponseBody> streamDeviceTrajectory(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) Integer mapId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime) {
+        
+        log.info("流式查询轨迹: 设备ID={}, 地图ID={}, 开始时间={}, 结束时间={}", deviceId, mapId, startTime, endTime);
+        StreamingResponseBody body = out -> {
+            // 关闭每条记录后的flush，由输出缓冲区按块写出
+            try (SequenceWriter writer = objectMapper.writer()
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                    .withRootValueSeparator("\n")
+                    .writeValues(out)) {
+                trajectoryStorageService.streamDeviceTrajectory(deviceId, mapId, startTime, endTime, record -> {
+                    try {
+                        writer.write(record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                // 客户端中断连接
+                log.warn("流式输出轨迹中断: 设备ID={}, {}", deviceId, e.getMessage());
+            }
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+    
+    /**
+     * 获取降采样后的设备历史轨迹，长时间范围回放时限制返回点数
+     * method 可选 rdp（默认）、visvalingam、bucket
+     */
+    @GetMapping("/device/{deviceId}/history/playback")
+    public ResponseEntity<Map<String, Object>> getDeviceTrajectoryPlayback(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) Integer mapId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(defaultValue = "2000") int maxPoints,
+            @RequestParam(defaultValue = "rdp") String method) {
+        
+        try {
+            int limit = Math.max(2, Math.min(maxPoints, MAX_PAGE_SIZE));
+            return ResponseEntity.ok(trajectoryStorageService.getDeviceTrajectoryPlayback(
+                deviceId, mapId, startTime, endTime, limit, method));
+        } catch (IllegalArgumentException e) {
+            log.warn("轨迹回放查询参数错误: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("获取降采样轨迹异常", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    /**
+     * 获取设备按分钟的轨迹汇总，时间为UTC分钟起始时间
+     */
+    @GetMapping("/device/{deviceId}/rollup/minute")
+    public ResponseEntity<List<DeviceMinuteRollup>> getDeviceMinuteRollup(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) Integer mapId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(defaultValue = "1440") int limit) {
+        
+        try {
+            int rows = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+            return ResponseEntity.ok(trajectoryStorageService.getDeviceMinuteRollup(
+                deviceId, mapId, startTime, endTime, rows));
+        } catch (Exception e) {
+            log.error("获取设备分钟汇总异常", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    /**
+     * 获取地图按小时的轨迹汇总，不传mapId时返回所有地图
+     */
+    @GetMapping("/rollup/hour")
+    public ResponseEntity<List<MapHourRollup>> getMapHourRollup(
+            @RequestParam(required = false) Integer mapId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime) {
+        
+        try {
+            return ResponseEntity.ok(trajectoryStorageService.getMapHourRollup(mapId, startTime, endTime));
+        } catch (Exception e) {
+            log.error("获取地图小时汇总异常", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
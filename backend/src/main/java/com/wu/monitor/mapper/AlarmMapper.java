@@ -17,6 +17,44 @@ public interface AlarmMapper {
      */
     int insert(Alarm alarm);
 
+    /**
+     * 批量插入已分配ID的报警记录，ID已存在的记录会被忽略
+     * @param alarms 报警记录列表
+     * @return 实际插入的行数
+     */
+    int insertBatchIgnore(@Param("alarms") List<Alarm> alarms);
+
+    /**
+     * 创建ID序列表，已存在时不修改
+     */
+    void createIdSequenceTable();
+
+    /**
+     * 初始化报警ID序列，已存在时不修改；新建时从当前最大报警ID之后开始
+     * @return 受影响的行数
+     */
+    int initIdSequence();
+
+    /**
+     * 查询并锁定报警ID序列的下一个可分配ID，需要在事务中调用
+     * @return 下一个可分配的ID，序列不存在时返回null
+     */
+    Long selectNextIdForUpdate();
+
+    /**
+     * 更新报警ID序列的下一个可分配ID
+     * @param nextId 下一个可分配的ID
+     * @return 受影响的行数
+     */
+    int updateNextId(@Param("nextId") long nextId);
+
+    /**
+     * 根据ID列表查询报警记录
+     * @param ids 报警记录ID列表
+     * @return 报警记录列表
+     */
+    List<Alarm> selectByIds(@Param("ids") List<Long> ids);
+
     /**
      * 根据ID查询报警记录
      * @param id 报警记录ID
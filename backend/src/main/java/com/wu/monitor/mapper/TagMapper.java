@@ -1,6 +1,7 @@
 package com.wu.monitor.mapper;
 
 import com.wu.monitor.model.Tag;
+import com.wu.monitor.model.TagStatusUpdate;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
@@ -34,6 +35,12 @@ public interface TagMapper {
      */
     Tag selectTagByMacAddress(@Param("macAddress") String macAddress);
     
+    /**
+     * 查询所有已登记标签的MAC地址
+     * @return MAC地址列表
+     */
+    List<String> selectAllMacAddresses();
+    
     /**
      * 插入标签信息
      * @param tag 标签信息
@@ -112,10 +119,24 @@ public interface TagMapper {
                             @Param("mapId") Integer mapId,
                             @Param("lastSeen") LocalDateTime lastSeen);
     
+    /**
+     * 根据MAC地址批量更新标签状态和位置信息，状态统一设为在线
+     * @param updates 每个标签的最新状态
+     * @return 影响行数
+     */
+    int batchUpdateTagStatusByMac(@Param("updates") List<TagStatusUpdate> updates);
+    
     /**
      * 将长时间未更新的标签设置为离线状态
      * @param thresholdTime 阈值时间
      * @return 影响行数
      */
     int updateOfflineTagsByTime(@Param("thresholdTime") LocalDateTime thresholdTime);
+    
+    /**
+     * 将指定MAC地址的在线标签设置为离线状态
+     * @param macAddresses MAC地址列表
+     * @return 影响行数
+     */
+    int updateTagsOfflineByMac(@Param("macAddresses") List<String> macAddresses);
 } 
\ No newline at end of file
@@ -1,8 +1,11 @@
 package com.wu.monitor.mapper;
 
+import com.wu.monitor.model.DeviceMinuteRollup;
+import com.wu.monitor.model.MapHourRollup;
 import com.wu.monitor.model.TrajectoryRecord;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -28,9 +31,64 @@ public interface TrajectoryStorageMapper {
                                            @Param("limit") int limit);
     
     /**
-     * 创建轨迹存储分区（按天）
+     * 按 (timestamp, id) 游标查询设备历史轨迹，返回游标之后的记录
+     * @param afterTimestamp 上一页最后一条记录的时间，为空时从头查询
+     * @param afterId 上一页最后一条记录的ID
      */
-    void createPartition(@Param("date") LocalDate date);
+    List<TrajectoryRecord> selectByDeviceIdAfter(@Param("deviceId") byte[] deviceId,
+                                                 @Param("mapId") Integer mapId,
+                                                 @Param("startTime") LocalDateTime startTime,
+                                                 @Param("endTime") LocalDateTime endTime,
+                                                 @Param("afterTimestamp") LocalDateTime afterTimestamp,
+                                                 @Param("afterId") Long afterId,
+                                                 @Param("limit") int limit);
+    
+    /**
+     * 流式查询设备历史轨迹，按 (timestamp, id) 升序逐行读取，需在事务内遍历
+     */
+    Cursor<TrajectoryRecord> selectCursorByDeviceId(@Param("deviceId") byte[] deviceId,
+                                                    @Param("mapId") Integer mapId,
+                                                    @Param("startTime") LocalDateTime startTime,
+                                                    @Param("endTime") LocalDateTime endTime);
+    
+    /**
+     * 流式读取单个分区的全部轨迹，按 (device_id, timestamp, id) 升序，用于归档
+     * @param partitionName 分区名称（由程序生成）
+     */
+    Cursor<TrajectoryRecord> selectCursorByPartition(@Param("partitionName") String partitionName);
+    
+    /**
+     * 查询设备按分钟汇总，按时间升序
+     */
+    List<DeviceMinuteRollup> selectDeviceMinuteRollup(@Param("deviceId") byte[] deviceId,
+                                                      @Param("mapId") Integer mapId,
+                                                      @Param("startTime") LocalDateTime startTime,
+                                                      @Param("endTime") LocalDateTime endTime,
+                                                      @Param("limit") int limit);
+    
+    /**
+     * 查询地图按小时汇总，按时间升序
+     */
+    List<MapHourRollup> selectMapHourRollup(@Param("mapId") Integer mapId,
+                                            @Param("startTime") LocalDateTime startTime,
+                                            @Param("endTime") LocalDateTime endTime);
+    
+    /**
+     * 删除早于指定时间的分钟汇总（每次最多删除limit条）
+     * @return 删除的行数
+     */
+    int deleteMinuteRollupBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+    
+    /**
+     * 查询轨迹存储表的所有分区名称
+     */
+    List<String> selectPartitionNames();
+    
+    /**
+     * 拆分 p_future 分区，创建连续的按天分区
+     * @param dates 新分区日期（升序，均晚于已有的按天分区）
+     */
+    void reorganizeFuturePartition(@Param("dates") List<LocalDate> dates);
     
     /**
      * 删除轨迹存储分区（按天）
@@ -42,11 +100,6 @@ public interface TrajectoryStorageMapper {
      */
     LocalDate getOldestPartitionDate();
     
-    /**
-     * 检查轨迹存储分区是否存在
-     */
-    int checkPartitionExists(@Param("partitionName") String partitionName);
-    
     /**
      * 获取数据库磁盘使用信息
      */
@@ -0,0 +1,41 @@
+package com.wu.monitor.model;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 设备按分钟轨迹汇总
+ */
+@Data
+public class DeviceMinuteRollup {
+
+    @JsonIgnore  // 不直接序列化 byte[] 到 JSON
+    private byte[] deviceId;  // MAC地址，6字节二进制
+
+    private LocalDateTime bucket;  // 分钟起始时间
+    private Integer mapId;
+    private Integer pointCount;
+
+    private LocalDateTime firstTime;
+    private Float firstX;
+    private Float firstY;
+    private LocalDateTime lastTime;
+    private Float lastX;
+    private Float lastY;
+
+    // 包围盒
+    private Float minX;
+    private Float minY;
+    private Float maxX;
+    private Float maxY;
+
+    private Double distance;  // 移动距离（米）
+
+    @JsonGetter("deviceId")
+    public String getDeviceIdAsString() {
+        return TrajectoryRecord.macBytesToString(deviceId);
+    }
+}
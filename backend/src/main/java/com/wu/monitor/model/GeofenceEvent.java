@@ -0,0 +1,26 @@
+package com.wu.monitor.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 围栏进出事件，推送到 /topic/geofenceEvents
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GeofenceEvent {
+
+    // 事件类型
+    public static final String ENTER = "enter";
+    public static final String EXIT = "exit";
+    public static final String DWELL = "dwell";
+
+    private String type;
+    private String tag;
+    private Long geofenceId;
+    private Long mapId;
+    private Long time;  // 事件时间（毫秒）
+    private Long dwellMs;  // 本次停留时长，进入事件为0
+}
@@ -0,0 +1,25 @@
+package com.wu.monitor.model;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 地图按小时轨迹汇总
+ */
+@Data
+public class MapHourRollup {
+
+    private Integer mapId;
+    private LocalDateTime bucket;  // 小时起始时间
+    private Long pointCount;
+    private Integer deviceCount;  // 出现过的设备数
+
+    // 包围盒
+    private Float minX;
+    private Float minY;
+    private Float maxX;
+    private Float maxY;
+
+    private Double distance;  // 所有设备移动距离之和（米）
+}
@@ -0,0 +1,16 @@
+package com.wu.monitor.model;
+
+import lombok.Data;
+
+/**
+ * 实时位置订阅的可视范围，坐标与定位数据相同（米）
+ * 任一边界为空时表示取消可视范围
+ */
+@Data
+public class PositionViewport {
+    private Integer mapId;
+    private Double minX;
+    private Double minY;
+    private Double maxX;
+    private Double maxY;
+}
@@ -0,0 +1,19 @@
+package com.wu.monitor.model;
+
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 标签最新状态（批量更新标签表使用）
+ */
+@Data
+public class TagStatusUpdate {
+    private String macAddress;
+    private Integer rssi;
+    private Double positionX;
+    private Double positionY;
+    private Double positionZ;
+    private Integer batteryLevel;
+    private Integer mapId;
+    private LocalDateTime lastSeen;
+}
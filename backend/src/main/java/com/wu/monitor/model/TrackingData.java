@@ -55,4 +55,15 @@ public class TrackingData {
     public void setDeviceId(String deviceId) {
         this.deviceId = deviceId != null ? deviceId.toLowerCase() : null;
     }
+
+    // 复制另一条数据的全部字段（环形缓冲区复用槽位时使用）
+    public void copyFrom(TrackingData other) {
+        this.deviceId = other.deviceId;
+        this.x = other.x;
+        this.y = other.y;
+        this.rssi = other.rssi;
+        this.battery = other.battery;
+        this.mapId = other.mapId;
+        this.timestamp = other.timestamp;
+    }
 } 
\ No newline at end of file
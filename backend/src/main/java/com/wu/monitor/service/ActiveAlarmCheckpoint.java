@@ -0,0 +1,134 @@
+package com.wu.monitor.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 活跃告警检查点
+ * 把 (标签, 围栏) 到活跃告警的对应关系整体保存到Redis哈希 alarm:active 中，服务启动时读回，
+ * 重启后仍在围栏外的标签沿用原告警，不会重新创建告警和推送通知。
+ * 字段为 "标签|围栏ID"，值为 "告警ID|地图ID"。
+ * 多节点部署（tracking.cluster.mode=redis）时各节点的活跃告警互不相同，检查点按节点ID分开保存在
+ * alarm:active:{nodeId}，节点之间不会互相覆盖，重启后只恢复本节点的告警。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ActiveAlarmCheckpoint {
+
+    private static final String KEY_PREFIX = "alarm:active";
+    private static final String SEPARATOR = "|";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ClusterRelay clusterRelay;
+
+    private byte[] key;
+    private byte[] tempKey;
+
+    /**
+     * 单条活跃告警
+     */
+    public static class Entry {
+        private final String tag;
+        private final long geofenceId;
+        private final Long mapId;
+        private final long alarmId;
+
+        public Entry(String tag, long geofenceId, Long mapId, long alarmId) {
+            this.tag = tag;
+            this.geofenceId = geofenceId;
+            this.mapId = mapId;
+            this.alarmId = alarmId;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public long getGeofenceId() {
+            return geofenceId;
+        }
+
+        public Long getMapId() {
+            return mapId;
+        }
+
+        public long getAlarmId() {
+            return alarmId;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        String name = clusterRelay.isEnabled() ? KEY_PREFIX + ":" + clusterRelay.getNodeId() : KEY_PREFIX;
+        key = bytes(name);
+        tempKey = bytes(name + ":tmp");
+    }
+
+    /**
+     * 用当前全部活跃告警替换检查点，先写临时key再RENAME，读取方不会看到写了一半的数据
+     */
+    public void save(List<Entry> entries) {
+        Map<byte[], byte[]> hash = new HashMap<>(Math.max(16, entries.size() * 2));
+        for (Entry entry : entries) {
+            hash.put(bytes(entry.getTag() + SEPARATOR + entry.getGeofenceId()),
+                bytes(entry.getAlarmId() + SEPARATOR + (entry.getMapId() != null ? entry.getMapId() : "")));
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            if (hash.isEmpty()) {
+                connection.del(key);
+            } else {
+                connection.del(tempKey);
+                connection.hMSet(tempKey, hash);
+                connection.rename(tempKey, key);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 读取检查点，格式错误的字段忽略
+     */
+    public List<Entry> load() {
+        Map<byte[], byte[]> hash = redisTemplate.execute((RedisConnection connection) -> connection.hGetAll(key));
+        List<Entry> entries = new ArrayList<>();
+        if (hash == null) {
+            return entries;
+        }
+        for (Map.Entry<byte[], byte[]> item : hash.entrySet()) {
+            String field = new String(item.getKey(), StandardCharsets.UTF_8);
+            String value = new String(item.getValue(), StandardCharsets.UTF_8);
+            int fieldSplit = field.lastIndexOf(SEPARATOR);
+            int valueSplit = value.indexOf(SEPARATOR);
+            try {
+                if (fieldSplit <= 0 || valueSplit <= 0) {
+                    throw new NumberFormatException();
+                }
+                String mapId = value.substring(valueSplit + 1);
+                entries.add(new Entry(field.substring(0, fieldSplit),
+                    Long.parseLong(field.substring(fieldSplit + 1)),
+                    mapId.isEmpty() ? null : Long.valueOf(mapId),
+                    Long.parseLong(value.substring(0, valueSplit))));
+            } catch (NumberFormatException e) {
+                log.warn("忽略无效的活跃告警检查点: {} = {}", field, value);
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
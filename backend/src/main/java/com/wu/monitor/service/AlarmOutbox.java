@@ -0,0 +1,565 @@
+package com.wu.monitor.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wu.monitor.mapper.AlarmMapper;
+import com.wu.monitor.model.Alarm;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 报警发件箱
+ * 报警在提交时即分配ID并立即推送通知，数据库写入由后台线程以多行INSERT批量完成，
+ * 写入失败时按退避间隔重试；待写数据超过上限或服务停止时写入本地暂存文件，
+ * 待写队列回落到上限一半以下时由写入线程读回，启动时也会读回。
+ * 报警ID从数据库序列 id_sequence 按块预留，多个节点各自分配也不会冲突，
+ * 已推送通知和活跃告警状态中的ID与最终写入数据库的ID始终一致。
+ * 报警开启和关闭通知合并后以一帧消息推送。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AlarmOutbox {
+
+    // 报警通知主题
+    private static final String ALARM_TOPIC = "/topic/alarmNotification";
+
+    // 重试退避间隔上限（毫秒）
+    private static final long MAX_BACKOFF_MS = 10000;
+
+    private final AlarmMapper alarmMapper;
+    private final ClusterRelay clusterRelay;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    // 单条INSERT语句包含的最大报警数
+    @Value("${tracking.alarm.batch-size:200}")
+    private int batchSize;
+
+    // 批量写入和通知合并的间隔（毫秒）
+    @Value("${tracking.alarm.flush-ms:50}")
+    private long flushMs;
+
+    // 内存中待写报警上限，超出部分直接写入暂存文件
+    @Value("${tracking.alarm.max-pending:10000}")
+    private int maxPending;
+
+    // 本地暂存文件
+    @Value("${tracking.alarm.spool-file:${user.dir}/data/alarm-outbox.jsonl}")
+    private String spoolFile;
+
+    // 每次从数据库序列预留的ID数
+    @Value("${tracking.alarm.id-block-size:100}")
+    private int idBlockSize;
+
+    // 已预留的ID块：当前块 [nextId, blockEnd)，以及提前预留的下一块
+    private final Object idLock = new Object();
+    private long nextId;
+    private long blockEnd;
+    private long[] reservedBlock;
+    // ID序列表和序列行是否已创建
+    private volatile boolean idSequenceReady;
+
+    // 暂存文件中的报警数
+    private int spoolSize;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Alarm> pending = new ArrayDeque<>();
+    private List<Map<String, Object>> notifications = new ArrayList<>();
+
+    private volatile boolean running;
+    private Thread writerThread;
+    private Thread notifierThread;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong unspooled = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong notificationFrames = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        spoolSize = countSpool();
+        int recovered = drainSpool();
+        try {
+            ensureIdSequence();
+            prefetchIdBlock();
+        } catch (Exception e) {
+            log.error("初始化报警ID序列失败，首次分配ID时重试: {}", e.getMessage(), e);
+        }
+
+        running = true;
+        writerThread = new Thread(this::writeLoop, "alarm-outbox-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        notifierThread = new Thread(this::notifyLoop, "alarm-outbox-notifier");
+        notifierThread.setDaemon(true);
+        notifierThread.start();
+        log.info("初始化报警发件箱，ID块大小: {}，恢复暂存报警 {} 条", idBlockSize, recovered);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        writerThread.interrupt();
+        notifierThread.interrupt();
+        try {
+            writerThread.join(5000);
+            notifierThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 最后尝试写入一次，仍未写入的报警保存到暂存文件
+        List<Alarm> remaining;
+        synchronized (lock) {
+            remaining = new ArrayList<>(pending);
+            pending.clear();
+        }
+        if (!remaining.isEmpty()) {
+            List<Alarm> failed = insert(remaining);
+            if (!failed.isEmpty()) {
+                appendSpool(failed);
+            }
+        }
+        sendNotifications();
+    }
+
+    /**
+     * 分配一个新的报警ID，当前块用完且没有提前预留的块时同步从数据库预留
+     * @throws IllegalStateException 数据库不可用、无法预留ID时
+     */
+    public long nextId() {
+        synchronized (idLock) {
+            if (nextId >= blockEnd) {
+                long[] block = reservedBlock;
+                reservedBlock = null;
+                if (block == null) {
+                    try {
+                        block = reserveIdBlock();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("预留报警ID失败: " + e.getMessage(), e);
+                    }
+                }
+                nextId = block[0];
+                blockEnd = block[1];
+            }
+            return nextId++;
+        }
+    }
+
+    /**
+     * 提交报警，分配ID并加入待写队列和通知队列，不等待数据库写入
+     * @param alarm 报警记录
+     * @return 分配了ID的报警记录
+     */
+    public Alarm submit(Alarm alarm) {
+        if (alarm.getId() == null) {
+            alarm.setId(nextId());
+        }
+        submitted.incrementAndGet();
+        Map<String, Object> notification = buildOpenNotification(alarm);
+        Alarm overflow = null;
+        synchronized (lock) {
+            if (pending.size() >= maxPending) {
+                overflow = alarm;
+            } else {
+                pending.addLast(alarm);
+            }
+            notifications.add(notification);
+        }
+        if (overflow != null) {
+            appendSpool(Collections.singletonList(overflow));
+        }
+        return alarm;
+    }
+
+    /**
+     * 提交报警关闭通知
+     * @param alarmId 报警ID
+     */
+    public void close(long alarmId) {
+        Map<String, Object> notification = new HashMap<>();
+        notification.put("type", "geofenceAlarmClose");
+        notification.put("alarmId", alarmId);
+        synchronized (lock) {
+            notifications.add(notification);
+        }
+    }
+
+    /**
+     * 获取发件箱统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("pending", pending.size());
+            stats.put("pendingNotifications", notifications.size());
+        }
+        stats.put("submitted", submitted.get());
+        stats.put("persisted", persisted.get());
+        stats.put("failedBatches", failedBatches.get());
+        synchronized (this) {
+            stats.put("spoolSize", spoolSize);
+        }
+        stats.put("spooled", spooled.get());
+        stats.put("unspooled", unspooled.get());
+        stats.put("retried", retried.get());
+        stats.put("conflicts", conflicts.get());
+        stats.put("lost", lost.get());
+        stats.put("notificationFrames", notificationFrames.get());
+        return stats;
+    }
+
+    private void writeLoop() {
+        long backoff = 0;
+        while (running) {
+            try {
+                Thread.sleep(backoff > 0 ? backoff : flushMs);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            }
+            prefetchIdBlock();
+            drainSpool();
+            List<Alarm> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    continue;
+                }
+                int size = Math.min(batchSize, pending.size());
+                batch = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    batch.add(pending.pollFirst());
+                }
+            }
+            List<Alarm> failed = insert(batch);
+            if (failed.isEmpty()) {
+                backoff = 0;
+            } else {
+                // 未写入的报警放回队首按退避间隔重试
+                synchronized (lock) {
+                    for (int i = failed.size() - 1; i >= 0; i--) {
+                        pending.addFirst(failed.get(i));
+                    }
+                }
+                backoff = backoff == 0 ? flushMs * 2 : Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * 当前块已用过一半且没有提前预留的块时预留下一块，避免提交报警时同步访问数据库
+     */
+    private void prefetchIdBlock() {
+        synchronized (idLock) {
+            if (reservedBlock != null || blockEnd - nextId > idBlockSize / 2) {
+                return;
+            }
+        }
+        long[] block;
+        try {
+            block = reserveIdBlock();
+        } catch (Exception e) {
+            log.error("预留报警ID块失败: {}", e.getMessage());
+            return;
+        }
+        synchronized (idLock) {
+            if (reservedBlock == null) {
+                reservedBlock = block;
+            }
+        }
+    }
+
+    /**
+     * 从数据库序列预留一块ID，行锁保证多个节点预留的块不重叠
+     * @return [起始ID, 结束ID)
+     */
+    private long[] reserveIdBlock() {
+        ensureIdSequence();
+        long[] block = transactionTemplate.execute(status -> {
+            Long start = alarmMapper.selectNextIdForUpdate();
+            if (start == null) {
+                throw new IllegalStateException("报警ID序列不存在");
+            }
+            long end = start + Math.max(1, idBlockSize);
+            alarmMapper.updateNextId(end);
+            return new long[] {start, end};
+        });
+        log.debug("预留报警ID块 [{}, {})", block[0], block[1]);
+        return block;
+    }
+
+    /**
+     * 创建ID序列表和报警序列行，升级安装时数据库中没有执行过新的初始化脚本
+     */
+    private void ensureIdSequence() {
+        if (idSequenceReady) {
+            return;
+        }
+        alarmMapper.createIdSequenceTable();
+        alarmMapper.initIdSequence();
+        idSequenceReady = true;
+    }
+
+    private void notifyLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushMs);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            }
+            sendNotifications();
+        }
+    }
+
+    /**
+     * 将累积的通知合并为一帧推送
+     */
+    private void sendNotifications() {
+        List<Map<String, Object>> frame;
+        synchronized (lock) {
+            if (notifications.isEmpty()) {
+                return;
+            }
+            frame = notifications;
+            notifications = new ArrayList<>();
+        }
+        try {
+            clusterRelay.convertAndSend(ALARM_TOPIC, frame);
+            notificationFrames.incrementAndGet();
+        } catch (Exception e) {
+            log.error("发送告警通知失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 批量写入报警
+     * @return 未写入、需要重试的报警，全部写入时为空列表
+     */
+    private List<Alarm> insert(List<Alarm> batch) {
+        try {
+            int inserted = alarmMapper.insertBatchIgnore(batch);
+            persisted.addAndGet(inserted);
+            if (inserted == batch.size()) {
+                return Collections.emptyList();
+            }
+            return findUnstored(batch);
+        } catch (Exception e) {
+            failedBatches.incrementAndGet();
+            log.error("批量写入报警失败，{} 条报警稍后重试: {}", batch.size(), e.getMessage());
+            return batch;
+        }
+    }
+
+    /**
+     * 部分报警被忽略时逐条核对：已存在的相同报警是上次写入已提交但未收到响应，视为已写入；
+     * 不存在的报警因其他原因被忽略，返回重试；ID被其他报警占用说明有绕过ID序列的写入，
+     * 该ID已推送给客户端并记录在活跃告警中，无法更换，只记录错误。
+     */
+    private List<Alarm> findUnstored(List<Alarm> batch) {
+        List<Long> ids = new ArrayList<>(batch.size());
+        for (Alarm alarm : batch) {
+            ids.add(alarm.getId());
+        }
+        Map<Long, Alarm> stored = new HashMap<>();
+        for (Alarm alarm : alarmMapper.selectByIds(ids)) {
+            stored.put(alarm.getId(), alarm);
+        }
+        List<Alarm> unstored = new ArrayList<>();
+        for (Alarm alarm : batch) {
+            Alarm existing = stored.get(alarm.getId());
+            if (existing == null) {
+                unstored.add(alarm);
+            } else if (!isSameAlarm(existing, alarm)) {
+                conflicts.incrementAndGet();
+                lost.incrementAndGet();
+                log.error("报警ID {} 已被其他报警占用，丢弃报警: 标签={}, 围栏={}",
+                        alarm.getId(), alarm.getAlarmTag(), alarm.getGeofenceId());
+            }
+        }
+        if (!unstored.isEmpty()) {
+            retried.addAndGet(unstored.size());
+            log.warn("{} 条报警未能写入数据库，稍后重试，首条ID: {}", unstored.size(), unstored.get(0).getId());
+        }
+        return unstored;
+    }
+
+    private boolean isSameAlarm(Alarm a, Alarm b) {
+        return Objects.equals(a.getAlarmTag(), b.getAlarmTag())
+                && Objects.equals(a.getGeofenceId(), b.getGeofenceId());
+    }
+
+    private Map<String, Object> buildOpenNotification(Alarm alarm) {
+        Map<String, Object> notification = new HashMap<>();
+        notification.put("type", "geofenceAlarm");
+        notification.put("title", "围栏告警");
+        notification.put("message", String.format("标签 %s 位于围栏 %s 外部", alarm.getAlarmTag(), alarm.getGeofenceName()));
+        notification.put("alarmId", alarm.getId());
+        notification.put("alarmTag", alarm.getAlarmTag());
+        notification.put("geofenceId", alarm.getGeofenceId());
+        notification.put("geofenceName", alarm.getGeofenceName());
+        notification.put("mapId", alarm.getMapId());
+        notification.put("mapName", alarm.getMapName());
+
+        // 创建位置Map (Java 8兼容方式)
+        Map<String, Double> position = new HashMap<>();
+        position.put("x", alarm.getX());
+        position.put("y", alarm.getY());
+        notification.put("position", position);
+
+        notification.put("time", alarm.getTime());
+        return notification;
+    }
+
+    /**
+     * 追加写入暂存文件，每行一条JSON
+     */
+    private void appendSpool(Collection<Alarm> alarms) {
+        Path path = Paths.get(spoolFile);
+        synchronized (this) {
+            try {
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+                try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (Alarm alarm : alarms) {
+                        writer.write(objectMapper.writeValueAsString(alarm));
+                        writer.newLine();
+                    }
+                }
+                spoolSize += alarms.size();
+                spooled.addAndGet(alarms.size());
+                log.warn("{} 条报警已写入暂存文件: {}", alarms.size(), path);
+            } catch (IOException e) {
+                lost.addAndGet(alarms.size());
+                log.error("写入报警暂存文件失败，丢失 {} 条报警: {}", alarms.size(), e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 待写队列低于上限一半时从暂存文件读回报警，最多读回到上限一半，其余保留在文件中
+     * @return 读回的报警数
+     */
+    private int drainSpool() {
+        int room;
+        synchronized (lock) {
+            room = maxPending / 2 - pending.size();
+        }
+        synchronized (this) {
+            if (spoolSize == 0 || room <= 0) {
+                return 0;
+            }
+            Path path = Paths.get(spoolFile);
+            if (!Files.exists(path)) {
+                log.warn("报警暂存文件不存在，{} 条暂存报警已丢失: {}", spoolSize, path);
+                lost.addAndGet(spoolSize);
+                spoolSize = 0;
+                return 0;
+            }
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                log.error("读取报警暂存文件失败: {}", e.getMessage(), e);
+                return 0;
+            }
+            List<Alarm> alarms = new ArrayList<>();
+            Iterator<String> it = lines.iterator();
+            while (it.hasNext() && alarms.size() < room) {
+                String line = it.next();
+                it.remove();
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    Alarm alarm = objectMapper.readValue(line, Alarm.class);
+                    if (alarm.getId() != null) {
+                        alarms.add(alarm);
+                    } else {
+                        lost.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    lost.incrementAndGet();
+                    log.error("解析报警暂存记录失败: {}", e.getMessage());
+                }
+            }
+            try {
+                // 剩余记录写回文件；读回的报警进入待写队列，写入前如再次停止会重新写回暂存文件
+                if (lines.isEmpty()) {
+                    Files.delete(path);
+                } else {
+                    Path temp = Paths.get(spoolFile + ".tmp");
+                    Files.write(temp, lines, StandardCharsets.UTF_8);
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                // 文件未截断，不读回，避免重复写入后文件中的记录再次被读回
+                log.error("截断报警暂存文件失败: {}", e.getMessage());
+                return 0;
+            }
+            spoolSize = lines.size();
+            synchronized (lock) {
+                pending.addAll(alarms);
+            }
+            unspooled.addAndGet(alarms.size());
+            log.info("从暂存文件读回 {} 条报警，剩余 {} 条", alarms.size(), spoolSize);
+            return alarms.size();
+        }
+    }
+
+    /**
+     * 统计暂存文件中的记录数
+     */
+    private int countSpool() {
+        Path path = Paths.get(spoolFile);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("读取报警暂存文件失败: {}", e.getMessage(), e);
+        }
+        return count;
+    }
+}
@@ -57,4 +57,11 @@ public interface AlarmService {
      * @return 如果生成告警则返回告警对象，否则返回null
      */
     Alarm checkGeofenceIntrusion(TrackingData trackingData);
+    
+    /**
+     * 获取标签在各围栏内的停留统计（内存中累计，服务重启后清零）
+     * @param tag 标签MAC地址
+     * @return 每个围栏的 geofenceId、inside、visits、totalDwellMs、currentDwellMs、enteredAt
+     */
+    List<Map<String, Object>> getDwellStats(String tag);
 } 
\ No newline at end of file
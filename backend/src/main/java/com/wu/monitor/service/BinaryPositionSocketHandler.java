@@ -0,0 +1,263 @@
+package com.wu.monitor.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wu.monitor.model.TrackingData;
+import com.wu.monitor.util.PositionDeltaEncoder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 二进制实时位置推送（/ws-path-binary，原生WebSocket，不使用STOMP）
+ * 连接时通过查询参数 mapId 指定地图，之后可发送文本消息 {"mapId": 2} 切换地图。
+ * 每帧按 {@link PositionDeltaEncoder} 的格式编码为一条二进制消息，ID表和差值基准都按会话维护。
+ * 帧线程只负责编码并放入会话的发送队列，实际发送由独立的发送线程池完成，慢客户端不会阻塞帧线程和其他推送；
+ * 增量帧不能丢弃，发送队列超过上限或单条消息发送超时时断开连接，重连后从关键帧重新开始。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BinaryPositionSocketHandler extends BinaryWebSocketHandler implements PositionFanout.FrameListener {
+
+    private final PositionFanout positionFanout;
+    private final ObjectMapper objectMapper;
+
+    // 关键帧间隔（帧数）
+    @Value("${tracking.push.binary.keyframe-interval:100}")
+    private int keyframeInterval;
+
+    // 单条消息发送超时（毫秒）
+    @Value("${tracking.push.binary.send-time-limit-ms:5000}")
+    private int sendTimeLimitMs;
+
+    // 每个连接待发送数据上限（字节）
+    @Value("${tracking.push.binary.buffer-size-limit:524288}")
+    private int bufferSizeLimit;
+
+    // 发送线程数
+    @Value("${tracking.push.binary.send-threads:2}")
+    private int sendThreads;
+
+    private final Map<String, BinarySession> sessions = new ConcurrentHashMap<>();
+    private ExecutorService sendExecutor;
+    // 关闭连接可能要等正在进行的发送结束，单独的线程执行，不阻塞帧线程
+    private ExecutorService closeExecutor;
+
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong slowDisconnects = new AtomicLong();
+
+    /**
+     * 单个连接的状态，编码和发送队列在该对象上加锁；同一时间最多一个发送任务在执行
+     */
+    private static class BinarySession {
+        final WebSocketSession session;
+        final PositionDeltaEncoder encoder;
+        volatile Integer mapId;
+        final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        int queuedBytes;
+        // 是否已提交发送任务
+        boolean sending;
+        // 当前消息开始发送的时间，未在发送时为0
+        volatile long sendStartTime;
+        volatile boolean closed;
+
+        BinarySession(WebSocketSession session, PositionDeltaEncoder encoder, Integer mapId) {
+            this.session = session;
+            this.encoder = encoder;
+            this.mapId = mapId;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        sendExecutor = Executors.newFixedThreadPool(Math.max(1, sendThreads), r -> {
+            Thread thread = new Thread(r, "binary-push-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        closeExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "binary-push-close");
+            thread.setDaemon(true);
+            return thread;
+        });
+        positionFanout.addFrameListener(this);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sendExecutor.shutdownNow();
+        closeExecutor.shutdownNow();
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        Integer mapId = null;
+        if (session.getUri() != null) {
+            mapId = parseMapId(UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst("mapId"));
+        }
+        sessions.put(session.getId(), new BinarySession(session, new PositionDeltaEncoder(keyframeInterval), mapId));
+        log.debug("二进制位置连接建立: {}，地图: {}", session.getId(), mapId);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        BinarySession binarySession = sessions.get(session.getId());
+        if (binarySession == null) {
+            return;
+        }
+        try {
+            JsonNode node = objectMapper.readTree(message.getPayload());
+            binarySession.mapId = node.hasNonNull("mapId") ? parseMapId(node.get("mapId").asText()) : null;
+        } catch (Exception e) {
+            log.debug("无效的二进制位置连接消息: {}", message.getPayload());
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        BinarySession binarySession = sessions.remove(session.getId());
+        if (binarySession != null) {
+            synchronized (binarySession) {
+                binarySession.closed = true;
+                binarySession.queue.clear();
+                binarySession.queuedBytes = 0;
+            }
+        }
+    }
+
+    @Override
+    public void onFrame(int mapId, List<TrackingData> points) {
+        long now = System.currentTimeMillis();
+        for (BinarySession binarySession : sessions.values()) {
+            Integer sessionMapId = binarySession.mapId;
+            if (sessionMapId == null || sessionMapId != mapId) {
+                continue;
+            }
+            // 上一条消息仍未发送完且已超时，发送线程被该连接占住
+            long start = binarySession.sendStartTime;
+            if (start > 0 && now - start > sendTimeLimitMs) {
+                slowDisconnects.incrementAndGet();
+                disconnect(binarySession, "发送超时 " + sendTimeLimitMs + "ms");
+                continue;
+            }
+            boolean submit = false;
+            boolean overflow = false;
+            synchronized (binarySession) {
+                if (binarySession.closed) {
+                    continue;
+                }
+                byte[] frame = binarySession.encoder.encode(mapId, points);
+                if (frame == null) {
+                    continue;
+                }
+                binarySession.queue.addLast(frame);
+                binarySession.queuedBytes += frame.length;
+                if (binarySession.queuedBytes > bufferSizeLimit) {
+                    overflow = true;
+                } else if (!binarySession.sending) {
+                    binarySession.sending = true;
+                    submit = true;
+                }
+            }
+            if (overflow) {
+                slowDisconnects.incrementAndGet();
+                disconnect(binarySession, "发送队列超过 " + bufferSizeLimit + " 字节");
+            } else if (submit) {
+                sendExecutor.execute(() -> drain(binarySession));
+            }
+        }
+    }
+
+    /**
+     * 在发送线程中依次发送会话队列中的帧，队列为空时结束
+     */
+    private void drain(BinarySession binarySession) {
+        while (true) {
+            byte[] frame;
+            synchronized (binarySession) {
+                frame = binarySession.closed ? null : binarySession.queue.pollFirst();
+                if (frame == null) {
+                    binarySession.sending = false;
+                    return;
+                }
+                binarySession.queuedBytes -= frame.length;
+            }
+            try {
+                binarySession.sendStartTime = System.currentTimeMillis();
+                binarySession.session.sendMessage(new BinaryMessage(frame));
+                framesSent.incrementAndGet();
+                bytesSent.addAndGet(frame.length);
+            } catch (Exception e) {
+                // 发送失败后差值基准已不可靠，断开连接由客户端重连
+                sendFailures.incrementAndGet();
+                disconnect(binarySession, e.getMessage());
+            } finally {
+                binarySession.sendStartTime = 0;
+            }
+        }
+    }
+
+    private void disconnect(BinarySession binarySession, String reason) {
+        synchronized (binarySession) {
+            if (binarySession.closed) {
+                return;
+            }
+            binarySession.closed = true;
+            binarySession.queue.clear();
+            binarySession.queuedBytes = 0;
+        }
+        sessions.remove(binarySession.session.getId());
+        log.debug("断开二进制位置连接 {}: {}", binarySession.session.getId(), reason);
+        closeExecutor.execute(() -> {
+            try {
+                binarySession.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (Exception ignored) {
+                // 连接可能已关闭
+            }
+        });
+    }
+
+    /**
+     * 获取推送统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("framesSent", framesSent.get());
+        stats.put("bytesSent", bytesSent.get());
+        stats.put("sendFailures", sendFailures.get());
+        stats.put("slowDisconnects", slowDisconnects.get());
+        return stats;
+    }
+
+    private static Integer parseMapId(String value) {
+        try {
+            return value != null ? Integer.valueOf(value.trim()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.model.TrackingData;
+import com.wu.monitor.util.TrackingDataCodec;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 多节点推送中继
+ * local 模式（默认）只向本节点的WebSocket会话推送；redis 模式下各节点通过Redis发布订阅交换
+ * 本节点接收的位置帧和告警、围栏事件通知，每个节点再推送给自己的会话，后端可以在负载均衡后部署多个副本。
+ *
+ * 频道 tracking:relay:positions 消息格式：节点ID(UTF) 条数(4) 之后每条：长度(2) 轨迹数据二进制编码
+ * 频道 tracking:relay:messages 消息格式：节点ID(UTF) 目的地(UTF) 之后为已序列化的消息体（JSON）
+ * 节点收到自己发出的消息时忽略。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ClusterRelay {
+
+    private static final String POSITION_CHANNEL = "tracking:relay:positions";
+    private static final String MESSAGE_CHANNEL = "tracking:relay:messages";
+
+    private final RedisConnectionFactory redisConnectionFactory;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final SimpMessagingTemplate messagingTemplate;
+
+    // 推送模式：local 或 redis
+    @Value("${tracking.cluster.mode:local}")
+    private String mode;
+
+    // 节点ID，local 模式为空时随机生成；redis 模式必须配置且重启后保持不变，活跃告警检查点按节点ID保存
+    @Value("${tracking.cluster.node-id:}")
+    private String nodeId;
+
+    private RedisMessageListenerContainer container;
+    private ExecutorService listenerExecutor;
+
+    // 收到其他节点位置时的回调
+    private volatile Consumer<List<TrackingData>> positionHandler;
+
+    private final AtomicLong publishedPositions = new AtomicLong();
+    private final AtomicLong publishedMessages = new AtomicLong();
+    private final AtomicLong receivedPositions = new AtomicLong();
+    private final AtomicLong receivedMessages = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            if (nodeId == null || nodeId.isEmpty()) {
+                nodeId = UUID.randomUUID().toString().substring(0, 8);
+            }
+            return;
+        }
+        if (!"redis".equalsIgnoreCase(mode)) {
+            throw new IllegalStateException("不支持的推送模式: " + mode);
+        }
+        // 随机节点ID在重启后会变化，找不到重启前的活跃告警检查点
+        if (nodeId == null || nodeId.trim().isEmpty()) {
+            throw new IllegalStateException("redis 推送模式必须配置固定的 tracking.cluster.node-id");
+        }
+        nodeId = nodeId.trim();
+        // 单线程分发，保持同一频道消息的顺序
+        listenerExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.setTaskExecutor(listenerExecutor);
+        container.addMessageListener(this::onPositions, new ChannelTopic(POSITION_CHANNEL));
+        container.addMessageListener(this::onMessage, new ChannelTopic(MESSAGE_CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+        log.info("推送中继已启用，模式: redis，节点: {}", nodeId);
+    }
+
+    @PreDestroy
+    public void destroy() throws Exception {
+        if (container != null) {
+            container.destroy();
+        }
+        if (listenerExecutor != null) {
+            listenerExecutor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return !"local".equalsIgnoreCase(mode);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setPositionHandler(Consumer<List<TrackingData>> positionHandler) {
+        this.positionHandler = positionHandler;
+    }
+
+    /**
+     * 推送到本节点的会话，中继模式下同时转发给其他节点
+     */
+    public void convertAndSend(String destination, Object payload) {
+        org.springframework.messaging.Message<?> message = messagingTemplate.getMessageConverter().toMessage(payload, null);
+        messagingTemplate.send(destination, message);
+        if (!isEnabled() || !(message.getPayload() instanceof byte[])) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(nodeId);
+            out.writeUTF(destination);
+            out.write((byte[]) message.getPayload());
+            publish(MESSAGE_CHANNEL, bytes.toByteArray());
+            publishedMessages.incrementAndGet();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.error("转发推送消息失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 把本节点接收的位置转发给其他节点，local 模式下不做任何事
+     */
+    public void publishPositions(List<TrackingData> points) {
+        if (!isEnabled() || points.isEmpty()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + points.size() * 40);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(nodeId);
+            out.writeInt(points.size());
+            for (TrackingData data : points) {
+                byte[] encoded = TrackingDataCodec.encode(data);
+                out.writeShort(encoded.length);
+                out.write(encoded);
+            }
+            publish(POSITION_CHANNEL, bytes.toByteArray());
+            publishedPositions.addAndGet(points.size());
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.error("转发位置帧失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 获取中继统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", isEnabled() ? mode : "local");
+        stats.put("nodeId", nodeId);
+        stats.put("publishedPositions", publishedPositions.get());
+        stats.put("publishedMessages", publishedMessages.get());
+        stats.put("receivedPositions", receivedPositions.get());
+        stats.put("receivedMessages", receivedMessages.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+
+    private void publish(String channel, byte[] body) {
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisConnection connection) -> connection.publish(channelBytes, body));
+    }
+
+    private void onPositions(Message message, byte[] pattern) {
+        Consumer<List<TrackingData>> handler = positionHandler;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message.getBody()));
+            if (nodeId.equals(in.readUTF()) || handler == null) {
+                return;
+            }
+            int count = in.readInt();
+            List<TrackingData> points = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] encoded = new byte[in.readUnsignedShort()];
+                in.readFully(encoded);
+                points.add(TrackingDataCodec.decode(encoded));
+            }
+            receivedPositions.addAndGet(count);
+            handler.accept(points);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.error("处理其他节点位置帧失败: {}", e.getMessage());
+        }
+    }
+
+    private void onMessage(Message message, byte[] pattern) {
+        try {
+            byte[] body = message.getBody();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            if (nodeId.equals(in.readUTF())) {
+                return;
+            }
+            String destination = in.readUTF();
+            byte[] payload = new byte[in.available()];
+            in.readFully(payload);
+            receivedMessages.incrementAndGet();
+            messagingTemplate.send(destination, MessageBuilder.withPayload(payload)
+                .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+                .build());
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.error("处理其他节点推送消息失败: {}", e.getMessage());
+        }
+    }
+}
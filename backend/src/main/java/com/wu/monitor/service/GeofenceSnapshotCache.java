@@ -0,0 +1,232 @@
+package com.wu.monitor.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wu.monitor.mapper.GeofenceMapper;
+import com.wu.monitor.mapper.MapMapper;
+import com.wu.monitor.model.Geofence;
+import com.wu.monitor.model.MapEntity;
+import com.wu.monitor.util.GeofenceSpatialIndex;
+import com.wu.monitor.util.TransactionUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 围栏与地图快照缓存
+ * 启动时加载全部地图和启用的围栏，预先解析坐标、编译多边形、构建空间索引，生成不可变快照；
+ * 围栏或地图变更后（事务提交后）整体重建并原子替换快照，读取端无锁且不访问数据库。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class GeofenceSnapshotCache {
+
+    private final GeofenceMapper geofenceMapper;
+    private final MapMapper mapMapper;
+    private final ObjectMapper objectMapper;
+
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.<Long, MapFences>emptyMap());
+
+    /**
+     * 单个地图的坐标转换参数、启用围栏及空间索引，围栏序号与索引中的序号一致
+     */
+    public static class MapFences {
+        private final MapEntity map;
+        private final double originX;
+        private final double originY;
+        private final double scale;
+        private final List<Geofence> geofences;
+        private final GeofenceSpatialIndex index;
+
+        MapFences(MapEntity map, List<Geofence> geofences, GeofenceSpatialIndex index) {
+            this.map = map;
+            this.originX = map.getOriginX();
+            this.originY = map.getOriginY();
+            this.scale = map.getScale();
+            this.geofences = Collections.unmodifiableList(geofences);
+            this.index = index;
+        }
+
+        public MapEntity getMap() {
+            return map;
+        }
+
+        public List<Geofence> getGeofences() {
+            return geofences;
+        }
+
+        public GeofenceSpatialIndex getIndex() {
+            return index;
+        }
+
+        /**
+         * 将米制X坐标转换为像素X坐标
+         */
+        public double toPixelX(double meterX) {
+            return originX + meterX * scale;
+        }
+
+        /**
+         * 将米制Y坐标转换为像素Y坐标
+         * Y轴方向相反，图片坐标向下为正，物理坐标向上为正
+         */
+        public double toPixelY(double meterY) {
+            return originY - meterY * scale;
+        }
+
+        /**
+         * 将米制距离转换为像素距离
+         */
+        public double toPixelDistance(double meters) {
+            return meters * scale;
+        }
+    }
+
+    /**
+     * 不可变快照
+     */
+    private static class Snapshot {
+        final long version;
+        final Map<Long, MapFences> maps;
+
+        Snapshot(long version, Map<Long, MapFences> maps) {
+            this.version = version;
+            this.maps = maps;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    /**
+     * 获取地图的围栏快照
+     * @param mapId 地图ID
+     * @return 围栏快照，地图不存在或缺少坐标转换参数时返回null
+     */
+    public MapFences get(Long mapId) {
+        return snapshot.maps.get(mapId);
+    }
+
+    /**
+     * 当前快照版本，每次重建加一
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * 围栏或地图变更后刷新快照
+     * 在事务中调用时推迟到事务提交后执行，保证读取到已提交的数据
+     */
+    public void refresh() {
+        TransactionUtils.afterCommit(this::reload);
+    }
+
+    /**
+     * 从数据库重新加载并替换快照，加载失败时保留原快照
+     */
+    public synchronized void reload() {
+        try {
+            Map<Long, List<Geofence>> geofencesByMap = new HashMap<>();
+            for (Geofence geofence : geofenceMapper.selectAllGeofences(null, null, true)) {
+                if (geofence.getMapId() != null) {
+                    geofencesByMap.computeIfAbsent(geofence.getMapId(), k -> new ArrayList<>()).add(geofence);
+                }
+            }
+
+            Map<Long, MapFences> maps = new HashMap<>();
+            int fenceCount = 0;
+            for (MapEntity map : mapMapper.selectAllMaps(null)) {
+                if (map.getMapId() == null) {
+                    continue;
+                }
+                if (map.getOriginX() == null || map.getOriginY() == null || map.getScale() == null) {
+                    log.warn("地图缺少坐标转换参数，跳过围栏检测: mapId={}", map.getMapId());
+                    continue;
+                }
+                List<Geofence> geofences = new ArrayList<>();
+                List<double[]> polygons = new ArrayList<>();
+                List<Geofence> candidates = geofencesByMap.get(map.getMapId());
+                if (candidates != null) {
+                    for (Geofence geofence : candidates) {
+                        double[] polygon = compilePolygon(parseGeofencePoints(geofence));
+                        if (polygon == null) {
+                            continue; // 忽略无效的围栏
+                        }
+                        geofences.add(geofence);
+                        polygons.add(polygon);
+                    }
+                }
+                maps.put(map.getMapId(), new MapFences(map, geofences, new GeofenceSpatialIndex(polygons)));
+                fenceCount += geofences.size();
+            }
+
+            Snapshot next = new Snapshot(snapshot.version + 1, maps);
+            snapshot = next;
+            log.info("围栏快照已更新，版本: {}，地图: {} 个，启用围栏: {} 个", next.version, maps.size(), fenceCount);
+        } catch (Exception e) {
+            log.error("加载围栏快照失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 解析围栏坐标点
+     * @param geofence 围栏对象
+     * @return 坐标点列表
+     */
+    private List<Geofence.GeofencePoint> parseGeofencePoints(Geofence geofence) {
+        // 如果已经有解析好的点，直接返回
+        if (geofence.getPoints() != null && !geofence.getPoints().isEmpty()) {
+            return geofence.getPoints();
+        }
+
+        // 解析JSON坐标字符串
+        try {
+            if (geofence.getCoordinates() == null || geofence.getCoordinates().isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            List<Geofence.GeofencePoint> points = objectMapper.readValue(
+                geofence.getCoordinates(),
+                new TypeReference<List<Geofence.GeofencePoint>>() {}
+            );
+
+            geofence.setPoints(points);
+            return points;
+        } catch (Exception e) {
+            log.error("解析围栏坐标失败: id={}, {}", geofence.getId(), e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 将围栏坐标点编译为 x0, y0, x1, y1, ... 形式的数组
+     * @param points 坐标点列表
+     * @return 坐标数组，坐标点不足3个或存在空坐标时返回null
+     */
+    private double[] compilePolygon(List<Geofence.GeofencePoint> points) {
+        if (points == null || points.size() < 3) {
+            return null;
+        }
+        double[] polygon = new double[points.size() * 2];
+        for (int i = 0; i < points.size(); i++) {
+            Geofence.GeofencePoint point = points.get(i);
+            if (point == null || point.getX() == null || point.getY() == null) {
+                return null;
+            }
+            polygon[i * 2] = point.getX();
+            polygon[i * 2 + 1] = point.getY();
+        }
+        return polygon;
+    }
+}
@@ -0,0 +1,466 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.model.MapEntity;
+import com.wu.monitor.model.TrackingData;
+import com.wu.monitor.util.HeatmapGrid;
+import com.wu.monitor.util.LongObjectHashMap;
+import com.wu.monitor.util.MacAddressUtils;
+import com.wu.monitor.util.TimestampUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 地图热力图
+ * 存储阶段的每个定位点累加到 (地图, 小时) 的网格中：所在单元格点数加一，
+ * 与上一个点的时间差计入上一个点所在单元格的停留时长。网格按地图的原点和比例尺换算到地图像素坐标。
+ * 打开的网格定期写入小时快照文件，整天结束后再合并为天快照；查询任意时间范围只需合并若干网格，不扫描轨迹表。
+ * 文件目录结构：{dir}/{mapId}/yyyyMMddHH.heat 和 {dir}/{mapId}/yyyyMMdd.heat，时间按UTC。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class HeatmapService {
+
+    private static final String FILE_SUFFIX = ".heat";
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+    private final GeofenceSnapshotCache geofenceSnapshotCache;
+
+    // 是否统计热力图
+    @Value("${tracking.heatmap.enabled:true}")
+    private boolean enabled;
+
+    // 单元格边长（米）
+    @Value("${tracking.heatmap.cell-size:0.5}")
+    private double cellSizeMeters;
+
+    // 单个网格的最大单元格数，超出时按比例放大单元格
+    @Value("${tracking.heatmap.max-cells:4000000}")
+    private int maxCells;
+
+    // 相邻两点间隔超过该时间（秒）时不计入停留时长
+    @Value("${tracking.heatmap.max-gap-seconds:60}")
+    private long maxGapSeconds;
+
+    // 快照文件目录
+    @Value("${tracking.heatmap.dir:${user.dir}/data/heatmap}")
+    private String heatmapDir;
+
+    // 小时快照保留天数
+    @Value("${tracking.heatmap.hour-retention-days:30}")
+    private int hourRetentionDays;
+
+    // 天快照保留天数
+    @Value("${tracking.heatmap.day-retention-days:365}")
+    private int dayRetentionDays;
+
+    private final Object lock = new Object();
+    // 打开的网格，键为 (小时 << 32 | 地图ID)
+    private final LongObjectHashMap<OpenGrid> grids = new LongObjectHashMap<>();
+    private final LongObjectHashMap<DeviceState> devices = new LongObjectHashMap<>();
+    private long latestHour;
+    private LocalDate lastCompactedDay;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong outside = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+
+    private static class OpenGrid {
+        final int mapId;
+        final long hour;
+        final HeatmapGrid grid;
+        boolean dirty;
+
+        OpenGrid(int mapId, long hour, HeatmapGrid grid) {
+            this.mapId = mapId;
+            this.hour = hour;
+            this.grid = grid;
+        }
+    }
+
+    /**
+     * 设备上一个点所在的网格和单元格，用于计算停留时长
+     */
+    private static class DeviceState {
+        long millis;
+        int mapId;
+        long hour;
+        int cell;
+    }
+
+    /**
+     * 累加一个已登记标签的定位点
+     */
+    public void record(TrackingData data) {
+        if (!enabled || data.getMapId() == null || data.getX() == null || data.getY() == null) {
+            return;
+        }
+        long mac = MacAddressUtils.parse(data.getDeviceId());
+        long millis = TimestampUtils.parseEpochMillis(data.getTimestamp());
+        GeofenceSnapshotCache.MapFences map = geofenceSnapshotCache.get(data.getMapId().longValue());
+        if (mac == MacAddressUtils.INVALID || millis < 0 || map == null) {
+            return;
+        }
+        int mapId = data.getMapId();
+        double pixelX = map.toPixelX(data.getX());
+        double pixelY = map.toPixelY(data.getY());
+        long hour = Math.floorDiv(millis, 3600000L);
+        // 时间明显超前的数据会使所有打开的网格提前关闭，直接丢弃
+        if (hour > Math.floorDiv(System.currentTimeMillis(), 3600000L) + 1) {
+            late.incrementAndGet();
+            return;
+        }
+
+        long key = gridKey(hour, mapId);
+        boolean opened;
+        synchronized (lock) {
+            // 只保留当前和上一小时的网格，更早的数据已写入快照
+            if (hour < latestHour - 1) {
+                late.incrementAndGet();
+                return;
+            }
+            opened = grids.get(key) != null;
+        }
+        // 新打开的网格在锁外读取已有的小时快照
+        HeatmapGrid loaded = null;
+        if (!opened) {
+            loaded = openGrid(map.getMap(), mapId, hour);
+            if (loaded == null) {
+                return;
+            }
+        }
+
+        synchronized (lock) {
+            if (hour < latestHour - 1) {
+                late.incrementAndGet();
+                return;
+            }
+            OpenGrid open = grids.get(key);
+            if (open == null) {
+                if (loaded == null) {
+                    // 读取期间网格已关闭，按迟到数据处理
+                    late.incrementAndGet();
+                    return;
+                }
+                open = new OpenGrid(mapId, hour, loaded);
+                grids.put(key, open);
+            }
+            latestHour = Math.max(latestHour, hour);
+
+            DeviceState state = devices.get(mac);
+            if (state == null) {
+                state = new DeviceState();
+                state.cell = -1;
+                devices.put(mac, state);
+            } else if (state.cell >= 0 && state.mapId == mapId && millis > state.millis
+                    && millis - state.millis <= maxGapSeconds * 1000) {
+                OpenGrid previous = grids.get(gridKey(state.hour, state.mapId));
+                if (previous != null) {
+                    previous.grid.addSeconds(state.cell, (millis - state.millis) / 1000f);
+                    previous.dirty = true;
+                }
+            }
+
+            int cell = open.grid.cellIndex(pixelX, pixelY);
+            if (cell >= 0) {
+                open.grid.addCount(cell);
+                open.dirty = true;
+            } else {
+                outside.incrementAndGet();
+            }
+            state.millis = millis;
+            state.mapId = mapId;
+            state.hour = hour;
+            state.cell = cell;
+        }
+        accepted.incrementAndGet();
+    }
+
+    /**
+     * 合并时间范围内的热力图（按整小时，包含开始和结束时间所在的小时）
+     * @param mapId 地图ID
+     * @param startTime 开始时间（UTC）
+     * @param endTime 结束时间（UTC）
+     * @return 合并后的网格，地图不存在时返回null
+     */
+    public HeatmapGrid query(int mapId, LocalDateTime startTime, LocalDateTime endTime) {
+        GeofenceSnapshotCache.MapFences map = geofenceSnapshotCache.get((long) mapId);
+        HeatmapGrid result = map != null ? newGrid(map.getMap()) : null;
+        if (result == null) {
+            return null;
+        }
+        long startHour = Math.floorDiv(startTime.toEpochSecond(ZoneOffset.UTC), 3600);
+        long endHour = Math.floorDiv(endTime.toEpochSecond(ZoneOffset.UTC), 3600);
+        Path dir = Paths.get(heatmapDir, String.valueOf(mapId));
+        int skipped = 0;
+
+        for (long hour = startHour; hour <= endHour; ) {
+            LocalDate day = LocalDateTime.ofEpochSecond(hour * 3600, 0, ZoneOffset.UTC).toLocalDate();
+            long dayStart = day.toEpochDay() * 24;
+            // 整天都在范围内且已有天快照时直接合并天快照
+            if (hour == dayStart && dayStart + 23 <= endHour) {
+                HeatmapGrid dayGrid = read(dir.resolve(day.format(DateTimeFormatter.BASIC_ISO_DATE) + FILE_SUFFIX));
+                if (dayGrid != null) {
+                    skipped += result.merge(dayGrid) ? 0 : 1;
+                    hour += 24;
+                    continue;
+                }
+            }
+            HeatmapGrid hourGrid = openCopy(mapId, hour);
+            if (hourGrid == null) {
+                hourGrid = read(dir.resolve(hourName(hour)));
+            }
+            if (hourGrid != null && !result.merge(hourGrid)) {
+                skipped++;
+            }
+            hour++;
+        }
+        if (skipped > 0) {
+            log.warn("地图 {} 的 {} 个热力图快照与当前地图尺寸不一致，已忽略", mapId, skipped);
+        }
+        return result;
+    }
+
+    /**
+     * 定时写入有变化的网格，关闭已结束的小时，合并已结束的天
+     */
+    @Scheduled(fixedDelayString = "${tracking.heatmap.flush-ms:60000}",
+               initialDelayString = "${tracking.heatmap.flush-ms:60000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        List<OpenGrid> dirty = new ArrayList<>();
+        synchronized (lock) {
+            List<Long> closed = new ArrayList<>();
+            grids.forEach((key, open) -> {
+                if (open.dirty) {
+                    dirty.add(new OpenGrid(open.mapId, open.hour, open.grid.copy()));
+                    open.dirty = false;
+                } else if (open.hour < latestHour - 1) {
+                    closed.add(key);
+                }
+            });
+            for (long key : closed) {
+                grids.remove(key);
+            }
+        }
+        for (OpenGrid open : dirty) {
+            Path dir = Paths.get(heatmapDir, String.valueOf(open.mapId));
+            if (write(dir, hourName(open.hour), open.grid)) {
+                snapshots.incrementAndGet();
+            } else {
+                // 写入失败时重新标记，下次重试
+                synchronized (lock) {
+                    OpenGrid current = grids.get(gridKey(open.hour, open.mapId));
+                    if (current != null) {
+                        current.dirty = true;
+                    }
+                }
+            }
+        }
+
+        // 天结束两小时后该天的网格都已关闭并写入，之后再合并天快照
+        LocalDate completeBefore = LocalDateTime.now(ZoneOffset.UTC).minusHours(2).toLocalDate();
+        if (!completeBefore.equals(lastCompactedDay)) {
+            compact(completeBefore);
+            lastCompactedDay = completeBefore;
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    /**
+     * 获取热力图统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("openGrids", grids.size());
+            stats.put("devices", devices.size());
+        }
+        stats.put("accepted", accepted.get());
+        stats.put("outside", outside.get());
+        stats.put("late", late.get());
+        stats.put("snapshots", snapshots.get());
+        return stats;
+    }
+
+    /**
+     * 按地图尺寸和比例尺创建网格
+     * @return 地图缺少尺寸或比例尺时返回null
+     */
+    private HeatmapGrid newGrid(MapEntity map) {
+        if (map.getWidth() == null || map.getHeight() == null || map.getScale() == null
+                || map.getWidth() <= 0 || map.getHeight() <= 0 || map.getScale() <= 0) {
+            return null;
+        }
+        double cellPixels = Math.max(1, cellSizeMeters * map.getScale());
+        double cells = Math.ceil(map.getWidth() / cellPixels) * Math.ceil(map.getHeight() / cellPixels);
+        if (cells > maxCells) {
+            cellPixels *= Math.sqrt(cells / maxCells);
+        }
+        int cols = (int) Math.ceil(map.getWidth() / cellPixels);
+        int rows = (int) Math.ceil(map.getHeight() / cellPixels);
+        return new HeatmapGrid(cols, rows, (float) cellPixels);
+    }
+
+    /**
+     * 打开一小时的网格：已有该小时快照时（如重启前已写入）以快照为起点，否则为空网格，
+     * 避免下次写入时覆盖重启前的数据
+     * @return 地图缺少尺寸或比例尺时返回null
+     */
+    private HeatmapGrid openGrid(MapEntity map, int mapId, long hour) {
+        HeatmapGrid grid = newGrid(map);
+        if (grid == null) {
+            return null;
+        }
+        Path file = Paths.get(heatmapDir, String.valueOf(mapId), hourName(hour));
+        HeatmapGrid snapshot = read(file);
+        if (snapshot != null && !grid.merge(snapshot)) {
+            log.warn("热力图快照 {} 与当前地图尺寸不一致，该小时重新统计", file);
+        }
+        return grid;
+    }
+
+    private HeatmapGrid openCopy(int mapId, long hour) {
+        synchronized (lock) {
+            OpenGrid open = grids.get(gridKey(hour, mapId));
+            return open != null ? open.grid.copy() : null;
+        }
+    }
+
+    /**
+     * 将 completeBefore 之前的天的小时快照合并为天快照，并删除超过保留期限的快照
+     */
+    private void compact(LocalDate completeBefore) {
+        Path root = Paths.get(heatmapDir);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        LocalDate hourCutoff = completeBefore.minusDays(hourRetentionDays);
+        LocalDate dayCutoff = completeBefore.minusDays(dayRetentionDays);
+        try (DirectoryStream<Path> mapDirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : mapDirs) {
+                Map<LocalDate, List<Path>> hourFiles = new LinkedHashMap<>();
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + FILE_SUFFIX)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        String stamp = name.substring(0, name.length() - FILE_SUFFIX.length());
+                        try {
+                            if (stamp.length() == 10) {
+                                LocalDate day = LocalDateTime.parse(stamp, HOUR_FORMAT).toLocalDate();
+                                hourFiles.computeIfAbsent(day, d -> new ArrayList<>()).add(file);
+                            } else if (stamp.length() == 8
+                                    && LocalDate.parse(stamp, DateTimeFormatter.BASIC_ISO_DATE).isBefore(dayCutoff)) {
+                                Files.deleteIfExists(file);
+                            }
+                        } catch (DateTimeParseException e) {
+                            log.warn("无法识别的热力图快照: {}", file);
+                        }
+                    }
+                }
+                for (Map.Entry<LocalDate, List<Path>> entry : hourFiles.entrySet()) {
+                    LocalDate day = entry.getKey();
+                    if (!day.isBefore(completeBefore)) {
+                        continue;
+                    }
+                    String dayName = day.format(DateTimeFormatter.BASIC_ISO_DATE) + FILE_SUFFIX;
+                    if (!day.isBefore(dayCutoff) && !Files.exists(dir.resolve(dayName))) {
+                        mergeDay(dir, dayName, entry.getValue());
+                    }
+                    if (day.isBefore(hourCutoff)) {
+                        for (Path file : entry.getValue()) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("整理热力图快照失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void mergeDay(Path dir, String dayName, List<Path> hourFiles) {
+        HeatmapGrid merged = null;
+        for (Path file : hourFiles) {
+            HeatmapGrid grid = read(file);
+            if (grid == null) {
+                continue;
+            }
+            if (merged == null) {
+                merged = grid;
+            } else if (!merged.merge(grid)) {
+                // 当天地图尺寸变化过，不生成天快照，查询时使用小时快照
+                log.warn("热力图小时快照尺寸不一致，跳过合并: {}/{}", dir, dayName);
+                return;
+            }
+        }
+        if (merged != null && write(dir, dayName, merged)) {
+            log.info("已合并热力图天快照: {}/{}，小时快照 {} 个", dir.getFileName(), dayName, hourFiles.size());
+        }
+    }
+
+    private boolean write(Path dir, String name, HeatmapGrid grid) {
+        Path target = dir.resolve(name);
+        Path temp = dir.resolve(name + ".tmp");
+        try {
+            Files.createDirectories(dir);
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                grid.writeTo(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            log.error("写入热力图快照 {} 失败: {}", target, e.getMessage());
+            return false;
+        }
+    }
+
+    private HeatmapGrid read(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            return HeatmapGrid.readFrom(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("读取热力图快照 {} 失败: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String hourName(long hour) {
+        return LocalDateTime.ofEpochSecond(hour * 3600, 0, ZoneOffset.UTC).format(HOUR_FORMAT) + FILE_SUFFIX;
+    }
+
+    private static long gridKey(long hour, int mapId) {
+        return (hour << 32) | (mapId & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,438 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.model.TrackingData;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 实时位置推送
+ * 按地图分主题推送（/topic/pathData/{mapId}），只向有订阅者的主题发送；
+ * 会话注册可视范围后，订阅 /user/queue/pathData 只接收范围内的点，范围外的点不序列化也不发送。
+ * 旧的全站主题 /topic/pathData 仍然可用，没有订阅者时不再发送。
+ *
+ * 启用帧合并时（frame-ms > 0），每个标签在一帧内只保留最新位置，每帧按地图、可视范围各推送一条
+ * 消息，内容为该帧内位置的JSON数组，推送的消息数只取决于帧率而与上报频率无关。
+ *
+ * 多节点部署时（见 {@link ClusterRelay}），本节点接收的位置按帧转发给其他节点，其他节点转发来的位置
+ * 并入本节点的下一帧，各节点只推送给自己的会话。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PositionFanout {
+
+    // 全站主题（兼容旧客户端）
+    public static final String ALL_TOPIC = "/topic/pathData";
+    // 按地图的主题前缀
+    public static final String MAP_TOPIC_PREFIX = ALL_TOPIC + "/";
+    // 按可视范围推送的会话队列
+    public static final String VIEWPORT_QUEUE = "/queue/pathData";
+    private static final String VIEWPORT_DESTINATION = "/user" + VIEWPORT_QUEUE;
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ClusterRelay clusterRelay;
+
+    // 帧间隔（毫秒），0表示不合并、每个点立即单独推送
+    @Value("${tracking.push.frame-ms:50}")
+    private long frameMs;
+
+    // 当前帧内每个标签的最新位置，key为设备ID
+    private final Object frameLock = new Object();
+    private Map<String, TrackingData> pendingFrame = new HashMap<>();
+    // 其他节点转发来的位置，与本节点的分开存放，本节点只转发自己接收的位置
+    private Map<String, TrackingData> remoteFrame = new HashMap<>();
+    private ScheduledExecutorService frameExecutor;
+
+    // 位置主题的订阅数，key为订阅目的地
+    private final Map<String, Integer> topicSubscribers = new ConcurrentHashMap<>();
+
+    // 会话的位置订阅，key为会话ID，值为 订阅ID -> 目的地
+    private final Map<String, Map<String, String>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    // 已注册的可视范围，key为地图ID，值为 会话ID -> 范围
+    private final Map<Integer, Map<String, Viewport>> viewports = new ConcurrentHashMap<>();
+
+    // 其他推送通道（如二进制WebSocket），按地图接收每帧数据
+    private final List<FrameListener> frameListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong framedPoints = new AtomicLong();
+    private final AtomicLong remotePoints = new AtomicLong();
+
+    /**
+     * 可视范围，坐标与定位数据相同（米）
+     */
+    public static class Viewport {
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+
+        public Viewport(double minX, double minY, double maxX, double maxY) {
+            this.minX = Math.min(minX, maxX);
+            this.minY = Math.min(minY, maxY);
+            this.maxX = Math.max(minX, maxX);
+            this.maxY = Math.max(minY, maxY);
+        }
+
+        boolean contains(double x, double y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+    }
+
+    /**
+     * 帧监听器，每帧每个有数据的地图回调一次；逐条推送时每个点回调一次
+     * 不合并时可能被多个线程同时调用
+     */
+    public interface FrameListener {
+        void onFrame(int mapId, List<TrackingData> points);
+    }
+
+    public void addFrameListener(FrameListener listener) {
+        frameListeners.add(listener);
+    }
+
+    @PostConstruct
+    public void init() {
+        clusterRelay.setPositionHandler(this::publishRemote);
+        if (frameMs <= 0) {
+            log.info("实时位置逐条推送，不合并");
+            return;
+        }
+        frameExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "position-frame");
+            thread.setDaemon(true);
+            return thread;
+        });
+        frameExecutor.scheduleAtFixedRate(this::flushFrame, frameMs, frameMs, TimeUnit.MILLISECONDS);
+        log.info("实时位置按帧合并推送，帧间隔: {}ms", frameMs);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (frameExecutor != null) {
+            frameExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交一条定位数据；启用帧合并时复制到当前帧，调用返回后可以复用原对象
+     */
+    public void publish(TrackingData data) {
+        published.incrementAndGet();
+        String deviceId = data.getDeviceId();
+        if (frameExecutor == null || deviceId == null) {
+            publishNow(data);
+            clusterRelay.publishPositions(Collections.singletonList(data));
+            return;
+        }
+        synchronized (frameLock) {
+            TrackingData latest = pendingFrame.get(deviceId);
+            if (latest == null) {
+                latest = new TrackingData();
+                pendingFrame.put(deviceId, latest);
+            }
+            latest.copyFrom(data);
+        }
+    }
+
+    /**
+     * 其他节点转发来的位置，只推送给本节点的会话
+     */
+    private void publishRemote(List<TrackingData> points) {
+        remotePoints.addAndGet(points.size());
+        if (frameExecutor == null) {
+            for (TrackingData data : points) {
+                publishNow(data);
+            }
+            return;
+        }
+        synchronized (frameLock) {
+            for (TrackingData data : points) {
+                if (data.getDeviceId() != null) {
+                    remoteFrame.put(data.getDeviceId(), data);
+                }
+            }
+        }
+    }
+
+    /**
+     * 立即推送一条定位数据，只在至少有一个接收方时序列化一次
+     */
+    private void publishNow(TrackingData data) {
+        Integer mapId = data.getMapId();
+        if (mapId != null) {
+            notifyListeners(mapId, Collections.singletonList(data));
+        }
+        String mapTopic = mapId != null ? MAP_TOPIC_PREFIX + mapId : null;
+        Map<String, Viewport> views = mapId != null ? viewports.get(mapId) : null;
+        boolean toAll = topicSubscribers.containsKey(ALL_TOPIC);
+        boolean toMap = mapTopic != null && topicSubscribers.containsKey(mapTopic);
+        boolean toViews = views != null && !views.isEmpty() && data.getX() != null && data.getY() != null;
+        if (!toAll && !toMap && !toViews) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        Message<?> message = null;
+        if (toAll) {
+            message = toMessage(data);
+            messagingTemplate.send(ALL_TOPIC, message);
+            sent.incrementAndGet();
+        }
+        if (toMap) {
+            message = message != null ? message : toMessage(data);
+            messagingTemplate.send(mapTopic, message);
+            sent.incrementAndGet();
+        }
+        if (toViews) {
+            double x = data.getX();
+            double y = data.getY();
+            for (Map.Entry<String, Viewport> entry : views.entrySet()) {
+                if (!entry.getValue().contains(x, y)) {
+                    continue;
+                }
+                message = message != null ? message : toMessage(data);
+                sendToSession(entry.getKey(), message);
+            }
+        }
+    }
+
+    /**
+     * 推送当前帧：全站主题一条、每个有订阅的地图一条、每个可视范围内有点的会话一条
+     */
+    private void flushFrame() {
+        try {
+            Map<String, TrackingData> frame;
+            Map<String, TrackingData> remote;
+            synchronized (frameLock) {
+                if (pendingFrame.isEmpty() && remoteFrame.isEmpty()) {
+                    return;
+                }
+                frame = pendingFrame;
+                remote = remoteFrame;
+                pendingFrame = new HashMap<>(Math.max(16, frame.size() * 2));
+                remoteFrame = new HashMap<>(Math.max(16, remote.size() * 2));
+            }
+            if (!frame.isEmpty()) {
+                clusterRelay.publishPositions(new ArrayList<>(frame.values()));
+            }
+            // 同一标签正常只由一个节点接收，同时出现时以本节点的为准
+            for (Map.Entry<String, TrackingData> entry : remote.entrySet()) {
+                frame.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            frames.incrementAndGet();
+            framedPoints.addAndGet(frame.size());
+
+            Map<Integer, List<TrackingData>> byMap = new HashMap<>();
+            for (TrackingData data : frame.values()) {
+                if (data.getMapId() != null) {
+                    byMap.computeIfAbsent(data.getMapId(), id -> new ArrayList<>()).add(data);
+                }
+            }
+            if (topicSubscribers.containsKey(ALL_TOPIC)) {
+                send(ALL_TOPIC, new ArrayList<>(frame.values()));
+            }
+            for (Map.Entry<Integer, List<TrackingData>> entry : byMap.entrySet()) {
+                List<TrackingData> points = entry.getValue();
+                notifyListeners(entry.getKey(), points);
+                String mapTopic = MAP_TOPIC_PREFIX + entry.getKey();
+                if (topicSubscribers.containsKey(mapTopic)) {
+                    send(mapTopic, points);
+                }
+                Map<String, Viewport> views = viewports.get(entry.getKey());
+                if (views == null || views.isEmpty()) {
+                    continue;
+                }
+                for (Map.Entry<String, Viewport> view : views.entrySet()) {
+                    List<TrackingData> visible = visible(points, view.getValue());
+                    if (!visible.isEmpty()) {
+                        sendToSession(view.getKey(), messagingTemplate.getMessageConverter().toMessage(visible, null));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("推送实时位置帧失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void notifyListeners(int mapId, List<TrackingData> points) {
+        for (FrameListener listener : frameListeners) {
+            try {
+                listener.onFrame(mapId, points);
+            } catch (Exception e) {
+                log.error("实时位置帧监听器异常: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private static List<TrackingData> visible(List<TrackingData> points, Viewport viewport) {
+        List<TrackingData> visible = null;
+        for (TrackingData data : points) {
+            if (data.getX() != null && data.getY() != null && viewport.contains(data.getX(), data.getY())) {
+                if (visible == null) {
+                    visible = new ArrayList<>();
+                }
+                visible.add(data);
+            }
+        }
+        return visible != null ? visible : Collections.emptyList();
+    }
+
+    private void send(String destination, Object payload) {
+        messagingTemplate.send(destination, messagingTemplate.getMessageConverter().toMessage(payload, null));
+        sent.incrementAndGet();
+    }
+
+    private void sendToSession(String sessionId, Message<?> message) {
+        // 用户名等于会话ID时，用户目的地解析为该会话自己的队列
+        messagingTemplate.send("/user/" + sessionId + VIEWPORT_QUEUE, MessageBuilder.fromMessage(message)
+            .setHeader(SimpMessageHeaderAccessor.SESSION_ID_HEADER, sessionId)
+            .build());
+        sent.incrementAndGet();
+    }
+
+    /**
+     * 注册或更新会话的可视范围
+     * @param viewport 为空时取消
+     */
+    public void setViewport(String sessionId, Integer mapId, Viewport viewport) {
+        if (sessionId == null) {
+            return;
+        }
+        removeViewport(sessionId);
+        if (mapId != null && viewport != null) {
+            viewports.computeIfAbsent(mapId, id -> new ConcurrentHashMap<>()).put(sessionId, viewport);
+        }
+    }
+
+    /**
+     * 获取推送统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessionSubscriptions.size());
+        stats.put("topics", new HashMap<>(topicSubscribers));
+        int viewportCount = 0;
+        for (Map<String, Viewport> views : viewports.values()) {
+            viewportCount += views.size();
+        }
+        stats.put("viewports", viewportCount);
+        stats.put("published", published.get());
+        stats.put("sent", sent.get());
+        stats.put("skipped", skipped.get());
+        stats.put("frameMs", frameExecutor != null ? frameMs : 0);
+        stats.put("frames", frames.get());
+        stats.put("framedPoints", framedPoints.get());
+        stats.put("remotePoints", remotePoints.get());
+        synchronized (frameLock) {
+            stats.put("pendingFrame", pendingFrame.size());
+        }
+        return stats;
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = accessor(event);
+        String destination = accessor.getDestination();
+        if (accessor.getSessionId() == null || accessor.getSubscriptionId() == null || !isPositionDestination(destination)) {
+            return;
+        }
+        Map<String, String> subscriptions = sessionSubscriptions.computeIfAbsent(accessor.getSessionId(), id -> new HashMap<>());
+        synchronized (subscriptions) {
+            String previous = subscriptions.put(accessor.getSubscriptionId(), destination);
+            if (previous != null) {
+                decrement(previous);
+            }
+            topicSubscribers.merge(destination, 1, Integer::sum);
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = accessor(event);
+        Map<String, String> subscriptions = accessor.getSessionId() != null
+            ? sessionSubscriptions.get(accessor.getSessionId()) : null;
+        if (subscriptions == null) {
+            return;
+        }
+        String destination;
+        synchronized (subscriptions) {
+            destination = subscriptions.remove(accessor.getSubscriptionId());
+            if (destination != null) {
+                decrement(destination);
+            }
+        }
+        if (VIEWPORT_DESTINATION.equals(destination)) {
+            removeViewport(accessor.getSessionId());
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        removeViewport(sessionId);
+        Map<String, String> subscriptions = sessionSubscriptions.remove(sessionId);
+        if (subscriptions == null) {
+            return;
+        }
+        synchronized (subscriptions) {
+            for (String destination : subscriptions.values()) {
+                decrement(destination);
+            }
+            subscriptions.clear();
+        }
+    }
+
+    private void removeViewport(String sessionId) {
+        for (Map<String, Viewport> views : viewports.values()) {
+            views.remove(sessionId);
+        }
+    }
+
+    private void decrement(String destination) {
+        topicSubscribers.computeIfPresent(destination, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private Message<?> toMessage(TrackingData data) {
+        return messagingTemplate.getMessageConverter().toMessage(data, null);
+    }
+
+    private static boolean isPositionDestination(String destination) {
+        return destination != null && (destination.equals(ALL_TOPIC) || destination.startsWith(MAP_TOPIC_PREFIX)
+            || destination.equals(VIEWPORT_DESTINATION));
+    }
+
+    private static SimpMessageHeaderAccessor accessor(AbstractSubProtocolEvent event) {
+        return SimpMessageHeaderAccessor.wrap(event.getMessage());
+    }
+}
@@ -2,6 +2,7 @@ package com.wu.monitor.service;
 
 import com.wu.monitor.model.TrackingData;
 import java.util.List;
+import java.util.Map;
 
 public interface RealTimeTrackingService {
     // 接收新的轨迹数据
@@ -21,4 +22,7 @@ public interface RealTimeTrackingService {
     
     // 清除过期数据
     void cleanExpiredData(String deviceId);
+    
+    // 获取轨迹处理管道的运行统计（积压、溢出、丢弃计数）
+    Map<String, Object> getPipelineStats();
 }
\ No newline at end of file
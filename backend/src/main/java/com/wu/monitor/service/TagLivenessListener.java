@@ -0,0 +1,24 @@
+package com.wu.monitor.service;
+
+import java.util.List;
+
+/**
+ * 标签在线状态变化监听器
+ * 回调在标签在线状态跟踪线程中执行，实现方不应长时间阻塞
+ */
+public interface TagLivenessListener {
+
+    /**
+     * 标签由离线变为在线
+     * @param macAddresses 本次变为在线的标签MAC地址
+     */
+    default void onTagsOnline(List<String> macAddresses) {
+    }
+
+    /**
+     * 标签超时未上报，由在线变为离线
+     * @param macAddresses 本次变为离线的标签MAC地址
+     */
+    default void onTagsOffline(List<String> macAddresses) {
+    }
+}
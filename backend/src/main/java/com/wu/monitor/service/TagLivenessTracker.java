@@ -0,0 +1,258 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.mapper.TagMapper;
+import com.wu.monitor.model.Tag;
+import com.wu.monitor.model.TaskConfig;
+import com.wu.monitor.util.HierarchicalTimingWheel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 标签在线状态跟踪服务
+ * 实时数据到达时只记录最后活动时间；每个在线标签在分层时间轮中有一个超时定时项，
+ * 到期时若期间有新数据则按最后活动时间重新调度，否则判定离线。
+ * 状态变化批量通知给所有 {@link TagLivenessListener}，不再定时扫描整张标签表。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TagLivenessTracker {
+
+    private static final int OFFLINE = 0;
+    private static final int ONLINE = 1;
+    // 已加入上线队列，等待跟踪线程处理
+    private static final int PENDING = 2;
+
+    // 超时管理未启用或配置不可用时的默认超时时间
+    private static final long DEFAULT_TIMEOUT_MS = 30000;
+
+    private final TagMapper tagMapper;
+    private final TaskConfigService taskConfigService;
+    private final List<TagLivenessListener> listeners;
+
+    // 时间轮刻度（毫秒），离线判定的最大延迟
+    @Value("${tracking.liveness.tick-ms:100}")
+    private long tickMs;
+
+    private final ConcurrentHashMap<String, Liveness> tags = new ConcurrentHashMap<>();
+    private final Queue<Liveness> onlineQueue = new ConcurrentLinkedQueue<>();
+
+    private HierarchicalTimingWheel<Liveness> wheel;
+    private volatile boolean running;
+    private Thread thread;
+
+    private final AtomicLong onlineEvents = new AtomicLong();
+    private final AtomicLong offlineEvents = new AtomicLong();
+
+    /**
+     * 单个标签的在线状态
+     */
+    private static class Liveness extends HierarchicalTimingWheel.Node {
+        final String macAddress;
+        final AtomicInteger state = new AtomicInteger(OFFLINE);
+        volatile long lastSeen;
+
+        Liveness(String macAddress) {
+            this.macAddress = macAddress;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        long now = System.currentTimeMillis();
+        wheel = new HierarchicalTimingWheel<>(tickMs, 4, now);
+        seedOnlineTags(now);
+
+        running = true;
+        thread = new Thread(this::run, "tag-liveness");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("初始化标签在线状态跟踪，刻度: {}ms，监听器: {} 个", tickMs, listeners.size());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 记录标签活动，由实时数据处理调用
+     * 标签已在线时只写入最后活动时间
+     * @param macAddress 标签MAC地址
+     */
+    public void touch(String macAddress) {
+        if (macAddress == null) {
+            return;
+        }
+        Liveness liveness = tags.get(macAddress);
+        if (liveness == null) {
+            liveness = tags.computeIfAbsent(macAddress, Liveness::new);
+        }
+        liveness.lastSeen = System.currentTimeMillis();
+        if (liveness.state.get() == OFFLINE && liveness.state.compareAndSet(OFFLINE, PENDING)) {
+            onlineQueue.add(liveness);
+        }
+    }
+
+    /**
+     * 判断标签当前是否在线
+     */
+    public boolean isOnline(String macAddress) {
+        Liveness liveness = macAddress != null ? tags.get(macAddress) : null;
+        return liveness != null && liveness.state.get() != OFFLINE;
+    }
+
+    /**
+     * 获取在线状态跟踪统计
+     */
+    public Map<String, Object> getStats() {
+        int online = 0;
+        for (Liveness liveness : tags.values()) {
+            if (liveness.state.get() != OFFLINE) {
+                online++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tracked", tags.size());
+        stats.put("online", online);
+        stats.put("onlineEvents", onlineEvents.get());
+        stats.put("offlineEvents", offlineEvents.get());
+        return stats;
+    }
+
+    /**
+     * 启动时按数据库中的在线标签初始化，超时的标签会在第一个刻度判定离线
+     */
+    private void seedOnlineTags(long now) {
+        try {
+            List<Tag> onlineTags = tagMapper.selectAllTags(null, null, 1);
+            long timeout = currentTimeoutMs();
+            for (Tag tag : onlineTags) {
+                if (tag.getMacAddress() == null) {
+                    continue;
+                }
+                Liveness liveness = new Liveness(tag.getMacAddress().toLowerCase());
+                liveness.lastSeen = tag.getLastSeen() != null
+                        ? tag.getLastSeen().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                        : now;
+                liveness.state.set(ONLINE);
+                tags.put(liveness.macAddress, liveness);
+                wheel.schedule(liveness, liveness.lastSeen + timeout);
+            }
+            log.info("从数据库加载在线标签 {} 个", onlineTags.size());
+        } catch (Exception e) {
+            log.error("加载在线标签失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void run() {
+        List<String> online = new ArrayList<>();
+        List<String> offline = new ArrayList<>();
+        while (running) {
+            try {
+                Thread.sleep(tickMs);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            }
+            try {
+                long now = System.currentTimeMillis();
+                long timeout = currentTimeoutMs();
+
+                // 新上线的标签加入时间轮
+                Liveness liveness;
+                while ((liveness = onlineQueue.poll()) != null) {
+                    liveness.state.set(ONLINE);
+                    wheel.schedule(liveness, liveness.lastSeen + timeout);
+                    online.add(liveness.macAddress);
+                }
+
+                wheel.advance(now, expired -> {
+                    long lastSeen = expired.lastSeen;
+                    if (now - lastSeen < timeout) {
+                        // 期间有新数据，按最后活动时间重新调度
+                        wheel.schedule(expired, lastSeen + timeout);
+                        return;
+                    }
+                    if (!expired.state.compareAndSet(ONLINE, OFFLINE)) {
+                        return;
+                    }
+                    // 判定离线的同时可能有新数据到达，此时恢复在线而不产生状态变化
+                    if (expired.lastSeen != lastSeen && expired.state.compareAndSet(OFFLINE, ONLINE)) {
+                        wheel.schedule(expired, expired.lastSeen + timeout);
+                        return;
+                    }
+                    offline.add(expired.macAddress);
+                });
+
+                if (!online.isEmpty()) {
+                    onlineEvents.addAndGet(online.size());
+                    notifyListeners(online, true);
+                    online.clear();
+                }
+                if (!offline.isEmpty()) {
+                    offlineEvents.addAndGet(offline.size());
+                    log.info("{} 个标签超时离线", offline.size());
+                    notifyListeners(offline, false);
+                    offline.clear();
+                }
+            } catch (Exception e) {
+                log.error("标签在线状态跟踪异常: {}", e.getMessage(), e);
+                online.clear();
+                offline.clear();
+            }
+        }
+    }
+
+    private void notifyListeners(List<String> macAddresses, boolean online) {
+        List<String> snapshot = new ArrayList<>(macAddresses);
+        for (TagLivenessListener listener : listeners) {
+            try {
+                if (online) {
+                    listener.onTagsOnline(snapshot);
+                } else {
+                    listener.onTagsOffline(snapshot);
+                }
+            } catch (Exception e) {
+                log.error("标签在线状态监听器处理失败: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 从任务配置读取超时时间，超时管理未启用时使用默认的30秒
+     */
+    private long currentTimeoutMs() {
+        try {
+            TaskConfig config = taskConfigService.getTaskConfig();
+            if (config != null && config.getTimeoutTask() != null && config.getTimeoutTask().isEnabled()) {
+                return config.getTimeoutTask().getTimeoutMs();
+            }
+        } catch (Exception e) {
+            log.warn("获取超时配置失败，使用默认值: {}", e.getMessage());
+        }
+        return DEFAULT_TIMEOUT_MS;
+    }
+}
@@ -0,0 +1,119 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.mapper.TagMapper;
+import com.wu.monitor.util.LongHashSet;
+import com.wu.monitor.util.MacAddressUtils;
+import com.wu.monitor.util.TransactionUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 已登记标签注册表
+ * 在内存中保存所有已登记标签的MAC地址（6字节打包为long），实时数据判断标签是否登记时不再查询数据库。
+ * 标签增删改后整体重新加载并替换快照，读取端无锁。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TagRegistry {
+
+    private final TagMapper tagMapper;
+
+    private volatile Snapshot snapshot = new Snapshot(new LongHashSet(0), Collections.<String>emptySet());
+
+    /**
+     * 不可变快照
+     */
+    private static class Snapshot {
+        final LongHashSet macs;
+        // 无法按MAC格式解析的设备标识，按小写原文保存
+        final Set<String> others;
+
+        Snapshot(LongHashSet macs, Set<String> others) {
+            this.macs = macs;
+            this.others = others;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    /**
+     * 判断标签是否已登记
+     * @param macAddress MAC地址
+     * @return 是否已登记
+     */
+    public boolean isRegistered(String macAddress) {
+        if (macAddress == null) {
+            return false;
+        }
+        Snapshot current = snapshot;
+        long mac = MacAddressUtils.parse(macAddress);
+        if (mac != MacAddressUtils.INVALID) {
+            return current.macs.contains(mac);
+        }
+        return !current.others.isEmpty() && current.others.contains(macAddress.toLowerCase());
+    }
+
+    /**
+     * 已登记标签数量
+     */
+    public int size() {
+        Snapshot current = snapshot;
+        return current.macs.size() + current.others.size();
+    }
+
+    /**
+     * 标签数据变更后刷新注册表
+     * 在事务中调用时推迟到事务提交后执行，保证读取到已提交的数据
+     */
+    public void refresh() {
+        TransactionUtils.afterCommit(this::reload);
+    }
+
+    /**
+     * 定时全量重新加载，兼容直接修改数据库的情况 - 默认每60秒执行一次
+     */
+    @Scheduled(fixedDelayString = "${tracking.tag-registry.reload-ms:60000}",
+               initialDelayString = "${tracking.tag-registry.reload-ms:60000}")
+    public void scheduledReload() {
+        reload();
+    }
+
+    /**
+     * 从数据库重新加载全部MAC地址
+     */
+    public synchronized void reload() {
+        try {
+            List<String> addresses = tagMapper.selectAllMacAddresses();
+            LongHashSet macs = new LongHashSet(addresses.size());
+            Set<String> others = new HashSet<>();
+            for (String address : addresses) {
+                long mac = MacAddressUtils.parse(address);
+                if (mac != MacAddressUtils.INVALID) {
+                    macs.add(mac);
+                } else if (address != null) {
+                    others.add(address.toLowerCase());
+                }
+            }
+            int previous = size();
+            snapshot = new Snapshot(macs, others);
+            if (previous != size()) {
+                log.info("已登记标签注册表加载完成，共 {} 个标签", size());
+            }
+        } catch (Exception e) {
+            // 加载失败时保留原快照
+            log.error("加载已登记标签失败: {}", e.getMessage(), e);
+        }
+    }
+}
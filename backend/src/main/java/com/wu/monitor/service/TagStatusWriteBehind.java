@@ -0,0 +1,130 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.mapper.TagMapper;
+import com.wu.monitor.model.TagStatusUpdate;
+import com.wu.monitor.model.TrackingData;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 标签状态合并写入服务
+ * 每个标签只保留最新一次的位置、信号、电量、地图和最后可见时间，定时通过一条多行UPDATE写入标签表，
+ * 数据库写入量与标签数量相关，而不再与定位数据频率相关。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TagStatusWriteBehind {
+
+    private final TagMapper tagMapper;
+
+    // 单条UPDATE语句包含的最大标签数
+    @Value("${tracking.tag-status.batch-size:200}")
+    private int batchSize;
+
+    // MAC地址 -> 待写入的最新状态
+    private final ConcurrentHashMap<String, TagStatusUpdate> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushedStatements = new AtomicLong();
+    private final AtomicLong failedStatements = new AtomicLong();
+
+    /**
+     * 记录标签的最新状态，同一标签在下次写入前的多次更新会被合并
+     * @param data 跟踪数据
+     */
+    public void offer(TrackingData data) {
+        String macAddress = data.getDeviceId();
+        if (macAddress == null) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        pending.compute(macAddress, (key, update) -> {
+            if (update == null) {
+                update = new TagStatusUpdate();
+                update.setMacAddress(key);
+                update.setPositionZ(0.0); // 默认Z坐标为0
+            }
+            update.setRssi(data.getRssi());
+            update.setPositionX(data.getX());
+            update.setPositionY(data.getY());
+            update.setBatteryLevel(data.getBattery());
+            update.setMapId(data.getMapId());
+            update.setLastSeen(now);
+            return update;
+        });
+        offered.incrementAndGet();
+    }
+
+    /**
+     * 定时写入合并后的标签状态 - 默认每1秒执行一次
+     */
+    @Scheduled(fixedDelayString = "${tracking.tag-status.flush-ms:1000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<TagStatusUpdate> batch = new ArrayList<>(Math.min(pending.size(), batchSize));
+        for (String macAddress : pending.keySet()) {
+            // 逐个移除，移除之后到达的数据会进入新的条目，不会丢失
+            TagStatusUpdate update = pending.remove(macAddress);
+            if (update == null) {
+                continue;
+            }
+            batch.add(update);
+            if (batch.size() >= batchSize) {
+                write(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    /**
+     * 获取合并写入统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.size());
+        stats.put("offered", offered.get());
+        stats.put("flushedRows", flushedRows.get());
+        stats.put("flushedStatements", flushedStatements.get());
+        stats.put("failedStatements", failedStatements.get());
+        return stats;
+    }
+
+    private void write(List<TagStatusUpdate> batch) {
+        try {
+            tagMapper.batchUpdateTagStatusByMac(batch);
+            flushedStatements.incrementAndGet();
+            flushedRows.addAndGet(batch.size());
+        } catch (Exception e) {
+            failedStatements.incrementAndGet();
+            log.error("批量更新标签状态失败，{} 个标签将在下次重试: {}", batch.size(), e.getMessage());
+            // 放回待写队列，期间已有更新的标签以新数据为准
+            for (TagStatusUpdate update : batch) {
+                pending.putIfAbsent(update.getMacAddress(), update);
+            }
+        }
+    }
+}
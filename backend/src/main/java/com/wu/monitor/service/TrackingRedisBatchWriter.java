@@ -0,0 +1,245 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.model.TrackingData;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 轨迹数据Redis批量写入服务
+ * 写入端先把数据序列化后暂存，后台线程在达到批量大小或等待时间后一次性通过管道提交，
+ * 同一批次内同一设备的最新位置只写一次、历史记录合并为一次LPUSH和LTRIM、活跃设备合并为一次SADD。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TrackingRedisBatchWriter {
+
+    // Redis key 前缀
+    private static final String DEVICE_LATEST_PREFIX = "device:latest:";
+    private static final String DEVICE_HISTORY_PREFIX = "device:history:";
+    private static final String ACTIVE_DEVICES_KEY = "active:devices";
+
+    // 数据过期时间（秒）
+    private static final long DATA_EXPIRE_TIME = 3600; // 1小时
+
+    // 每个设备保留的历史记录条数
+    private static final int HISTORY_SIZE = 500;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final RedisTemplate<String, TrackingData> trackingRedisTemplate;
+
+    // 单批次最大条数，达到后立即提交
+    @Value("${tracking.redis.max-batch-size:500}")
+    private int maxBatchSize;
+
+    // 批次最长等待时间（毫秒），第一条数据进入后超过该时间即提交
+    @Value("${tracking.redis.max-linger-ms:5}")
+    private long maxLingerMs;
+
+    // 暂存数据上限，Redis持续不可用时写入端最多等待1秒，之后丢弃
+    @Value("${tracking.redis.max-pending:50000}")
+    private int maxPending;
+
+    private final Object lock = new Object();
+    private List<PendingPoint> pending = new ArrayList<>();
+    private long firstPendingAt;
+    private volatile boolean running;
+    private Thread flushThread;
+
+    private final AtomicLong flushedBatches = new AtomicLong();
+    private final AtomicLong flushedPoints = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong droppedPoints = new AtomicLong();
+
+    /**
+     * 暂存的单条数据，值在写入时即完成序列化，不持有调用方的数据对象
+     */
+    private static class PendingPoint {
+        final String deviceId;
+        final byte[] value;
+
+        PendingPoint(String deviceId, byte[] value) {
+            this.deviceId = deviceId;
+            this.value = value;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        running = true;
+        flushThread = new Thread(this::flushLoop, "tracking-redis-writer");
+        flushThread.setDaemon(true);
+        flushThread.start();
+        log.info("初始化Redis批量写入，批量大小: {}，最长等待: {}ms", maxBatchSize, maxLingerMs);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        try {
+            flushThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 提交一条轨迹数据，数据会立即序列化，调用返回后可以复用原对象
+     * @param data 轨迹数据
+     * @return 是否已进入待写队列
+     */
+    @SuppressWarnings("unchecked")
+    public boolean write(TrackingData data) {
+        // 轨迹数据使用专用模板的二进制序列化器
+        RedisSerializer<TrackingData> valueSerializer = (RedisSerializer<TrackingData>) trackingRedisTemplate.getValueSerializer();
+        PendingPoint point = new PendingPoint(data.getDeviceId(), valueSerializer.serialize(data));
+
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (pending.size() >= maxPending) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !running) {
+                    droppedPoints.incrementAndGet();
+                    return false;
+                }
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedPoints.incrementAndGet();
+                    return false;
+                }
+            }
+            if (pending.isEmpty()) {
+                firstPendingAt = System.nanoTime();
+            }
+            pending.add(point);
+            if (pending.size() == 1 || pending.size() >= maxBatchSize) {
+                lock.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取批量写入统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("pending", pending.size());
+        }
+        stats.put("flushedBatches", flushedBatches.get());
+        stats.put("flushedPoints", flushedPoints.get());
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("dropped", droppedPoints.get());
+        return stats;
+    }
+
+    private void flushLoop() {
+        long lingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMs);
+        while (true) {
+            List<PendingPoint> batch;
+            synchronized (lock) {
+                try {
+                    while (true) {
+                        if (pending.isEmpty()) {
+                            if (!running) {
+                                return;
+                            }
+                            lock.wait(100);
+                            continue;
+                        }
+                        long waitNanos = lingerNanos - (System.nanoTime() - firstPendingAt);
+                        if (pending.size() >= maxBatchSize || waitNanos <= 0 || !running) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (pending.size() <= maxBatchSize) {
+                    batch = pending;
+                    pending = new ArrayList<>(Math.max(16, batch.size()));
+                } else {
+                    batch = new ArrayList<>(pending.subList(0, maxBatchSize));
+                    pending = new ArrayList<>(pending.subList(maxBatchSize, pending.size()));
+                    firstPendingAt = System.nanoTime();
+                }
+                lock.notifyAll();
+            }
+            flush(batch);
+        }
+    }
+
+    /**
+     * 通过一次管道提交整批数据
+     */
+    private void flush(List<PendingPoint> batch) {
+        // 按设备归并，保持每个设备内的到达顺序
+        Map<String, List<byte[]>> byDevice = new LinkedHashMap<>();
+        for (PendingPoint point : batch) {
+            byDevice.computeIfAbsent(point.deviceId, k -> new ArrayList<>()).add(point.value);
+        }
+
+        try {
+            // 活跃设备集合的成员与其他读取方一致，使用通用模板的序列化器
+            @SuppressWarnings("unchecked")
+            RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[][] members = new byte[byDevice.size()][];
+                int i = 0;
+                for (Map.Entry<String, List<byte[]>> entry : byDevice.entrySet()) {
+                    String deviceId = entry.getKey();
+                    List<byte[]> values = entry.getValue();
+                    writeDevice(connection, deviceId, values);
+                    members[i++] = valueSerializer.serialize(deviceId);
+                }
+                connection.setCommands().sAdd(key(ACTIVE_DEVICES_KEY), members);
+                return null;
+            });
+            flushedBatches.incrementAndGet();
+            flushedPoints.addAndGet(batch.size());
+        } catch (Exception e) {
+            failedBatches.incrementAndGet();
+            log.error("批量写入Redis失败，丢弃 {} 条数据: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private void writeDevice(RedisConnection connection, String deviceId, List<byte[]> values) {
+        byte[] latestKey = key(DEVICE_LATEST_PREFIX + deviceId);
+        byte[] historyKey = key(DEVICE_HISTORY_PREFIX + deviceId);
+
+        // 最新位置只需写入本批次最后一条
+        connection.stringCommands().setEx(latestKey, DATA_EXPIRE_TIME, values.get(values.size() - 1));
+
+        // 按到达顺序依次压入，最后到达的数据位于列表头部
+        connection.listCommands().lPush(historyKey, values.toArray(new byte[0][]));
+        connection.listCommands().lTrim(historyKey, 0, HISTORY_SIZE - 1);
+    }
+
+    private byte[] key(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,228 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.mapper.TrajectoryStorageMapper;
+import com.wu.monitor.model.TrajectoryRecord;
+import com.wu.monitor.util.MacAddressUtils;
+import com.wu.monitor.util.TrajectorySegmentReader;
+import com.wu.monitor.util.TrajectorySegmentWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 轨迹冷数据归档
+ * 过期的按天分区在删除前导出为一个列式压缩段文件（trajectory-yyyyMMdd.seg），
+ * 查询时以内存映射方式读取，与数据库中的数据一起通过原有的轨迹接口返回。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TrajectoryArchiveService {
+
+    private static final String FILE_PREFIX = "trajectory-";
+    private static final String FILE_SUFFIX = ".seg";
+
+    private final TrajectoryStorageMapper trajectoryStorageMapper;
+    private final TrajectoryPartitionManager trajectoryPartitionManager;
+
+    // 是否在删除分区前归档
+    @Value("${tracking.trajectory.archive.enabled:true}")
+    private boolean enabled;
+
+    // 归档文件目录
+    @Value("${tracking.trajectory.archive.dir:${user.dir}/data/trajectory-archive}")
+    private String archiveDir;
+
+    // 已归档的日期（UTC）及对应文件
+    private final ConcurrentNavigableMap<LocalDate, Path> segments = new ConcurrentSkipListMap<>();
+
+    // 已打开的段文件，按需映射
+    private final Map<LocalDate, TrajectorySegmentReader> readers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Path dir = Paths.get(archiveDir);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    LocalDate date = LocalDate.parse(
+                        name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()),
+                        DateTimeFormatter.BASIC_ISO_DATE);
+                    segments.put(date, file);
+                } catch (DateTimeParseException e) {
+                    log.warn("无法识别的轨迹归档文件: {}", file);
+                }
+            }
+            log.info("已加载轨迹归档文件 {} 个，目录: {}", segments.size(), dir);
+        } catch (IOException e) {
+            log.error("扫描轨迹归档目录失败: {}", e.getMessage(), e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isArchived(LocalDate date) {
+        return segments.containsKey(date);
+    }
+
+    /**
+     * 最新的归档日期，没有归档时返回null
+     */
+    public LocalDate getLatestArchivedDate() {
+        Map.Entry<LocalDate, Path> last = segments.lastEntry();
+        return last != null ? last.getKey() : null;
+    }
+
+    /**
+     * 归档目录是否与指定路径位于同一文件系统，目录尚未创建时按最近的已存在上级目录判断
+     */
+    public boolean isOnSameFileStore(Path path) {
+        try {
+            Path dir = Paths.get(archiveDir).toAbsolutePath();
+            while (dir != null && !Files.exists(dir)) {
+                dir = dir.getParent();
+            }
+            return dir != null && Files.getFileStore(dir).equals(Files.getFileStore(path));
+        } catch (IOException e) {
+            log.warn("无法判断归档目录所在文件系统: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 将一个按天分区导出为段文件，已归档时直接返回
+     * @param date 分区日期（UTC）
+     * @return 是否归档成功，失败时不应删除该分区
+     */
+    @Transactional(readOnly = true)
+    public boolean archivePartition(LocalDate date) {
+        if (segments.containsKey(date)) {
+            return true;
+        }
+        Path dir = Paths.get(archiveDir);
+        Path target = dir.resolve(FILE_PREFIX + date.format(DateTimeFormatter.BASIC_ISO_DATE) + FILE_SUFFIX);
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        String partitionName = "p" + date.format(DateTimeFormatter.BASIC_ISO_DATE);
+        long startMs = System.currentTimeMillis();
+        try {
+            Files.createDirectories(dir);
+            long points;
+            int devices;
+            // 游标按 (设备, 时间, ID) 顺序逐行读取，写入时只在内存中保留当前设备的编码块
+            try (Cursor<TrajectoryRecord> records = trajectoryStorageMapper.selectCursorByPartition(partitionName);
+                 TrajectorySegmentWriter writer = new TrajectorySegmentWriter(temp)) {
+                for (TrajectoryRecord record : records) {
+                    long mac = MacAddressUtils.fromBytes(record.getDeviceId());
+                    if (mac == MacAddressUtils.INVALID || record.getTimestamp() == null) {
+                        continue;
+                    }
+                    writer.append(mac,
+                        record.getId() != null ? record.getId() : 0,
+                        record.getMapId() != null ? record.getMapId() : TrajectorySegmentWriter.NO_MAP,
+                        record.getTimestamp().toEpochSecond(ZoneOffset.UTC),
+                        record.getX() != null ? record.getX() : Float.NaN,
+                        record.getY() != null ? record.getY() : Float.NaN);
+                }
+                points = writer.getPointCount();
+                devices = writer.getDeviceCount();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            segments.put(date, target);
+            log.info("已归档轨迹分区 {}: 设备 {} 个，轨迹点 {} 条，文件 {} 字节，耗时 {}ms",
+                partitionName, devices, points, Files.size(target), System.currentTimeMillis() - startMs);
+            return true;
+        } catch (Exception e) {
+            log.error("归档轨迹分区 {} 失败: {}", partitionName, e.getMessage(), e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 临时文件会在下次归档时覆盖
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 按时间顺序遍历归档中设备的轨迹点
+     * @param deviceId 设备MAC地址
+     * @param mapId 地图ID，为空时不过滤
+     * @param startTime 开始时间（UTC），为空时不限制
+     * @param endTime 结束时间（UTC），为空时不限制
+     * @param visitor 回调，返回false时停止遍历
+     * @return 是否遍历完成（回调未要求停止）
+     */
+    public boolean forEach(String deviceId, Integer mapId, LocalDateTime startTime, LocalDateTime endTime,
+                           TrajectorySegmentReader.PointVisitor visitor) {
+        if (segments.isEmpty()) {
+            return true;
+        }
+        long mac = MacAddressUtils.parse(deviceId);
+        if (mac == MacAddressUtils.INVALID) {
+            return true;
+        }
+        long fromSecond = startTime != null ? startTime.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE;
+        long toSecond = endTime != null ? endTime.toEpochSecond(ZoneOffset.UTC) : Long.MAX_VALUE;
+        ConcurrentNavigableMap<LocalDate, Path> range = segments;
+        if (startTime != null) {
+            range = range.tailMap(startTime.toLocalDate(), true);
+        }
+        if (endTime != null) {
+            range = range.headMap(endTime.toLocalDate(), true);
+        }
+
+        TrajectorySegmentReader.PointVisitor filter = mapId == null ? visitor
+            : (id, pointMapId, second, x, y) -> pointMapId != mapId || visitor.visit(id, pointMapId, second, x, y);
+        for (Map.Entry<LocalDate, Path> entry : range.entrySet()) {
+            // 归档后分区删除失败时数据仍在数据库中，以数据库为准避免重复
+            if (trajectoryPartitionManager.hasPartition(entry.getKey())) {
+                continue;
+            }
+            TrajectorySegmentReader reader = getReader(entry.getKey(), entry.getValue());
+            if (reader.getPointCount() == 0
+                    || reader.getMaxSecond() < fromSecond || reader.getMinSecond() > toSecond) {
+                continue;
+            }
+            if (!reader.forEach(mac, fromSecond, toSecond, filter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private TrajectorySegmentReader getReader(LocalDate date, Path file) {
+        return readers.computeIfAbsent(date, d -> {
+            try {
+                return new TrajectorySegmentReader(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,141 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.mapper.TrajectoryStorageMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * 轨迹表分区管理
+ * 在内存中缓存已有的按天分区，定时提前创建之后若干天的分区。
+ * 新分区通过 REORGANIZE PARTITION 从 p_future 中拆分，不再运行时删除并重建 p_future；
+ * 写入轨迹数据时不查询分区元数据，尚未创建分区的数据先落入 p_future，拆分时自动归入对应分区。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TrajectoryPartitionManager {
+
+    private static final String FUTURE_PARTITION = "p_future";
+
+    private final TrajectoryStorageMapper trajectoryStorageMapper;
+
+    // 提前创建的分区天数（含当天）
+    @Value("${tracking.trajectory.partition.days-ahead:7}")
+    private int daysAhead;
+
+    // 已有的按天分区日期，只读快照
+    private volatile NavigableSet<LocalDate> partitions = Collections.emptyNavigableSet();
+
+    @PostConstruct
+    public void init() {
+        maintain();
+    }
+
+    /**
+     * 定时检查并提前创建分区 - 默认每小时执行一次
+     */
+    @Scheduled(fixedDelayString = "${tracking.trajectory.partition.check-ms:3600000}",
+               initialDelayString = "${tracking.trajectory.partition.check-ms:3600000}")
+    public void scheduledMaintain() {
+        maintain();
+    }
+
+    /**
+     * 判断日期是否已有对应的按天分区（仅查询内存缓存）
+     * @param date 日期（与轨迹表时间戳一致，按UTC）
+     * @return 是否已有分区
+     */
+    public boolean hasPartition(LocalDate date) {
+        return partitions.contains(date);
+    }
+
+    /**
+     * 从缓存中移除一个分区，删除或归档分区后立即调用，查询随即改读归档文件
+     */
+    public synchronized void removePartition(LocalDate date) {
+        if (!partitions.contains(date)) {
+            return;
+        }
+        NavigableSet<LocalDate> next = new TreeSet<>(partitions);
+        next.remove(date);
+        partitions = Collections.unmodifiableNavigableSet(next);
+    }
+
+    /**
+     * 重新加载分区列表，与数据库中的分区重新同步
+     */
+    public synchronized void reload() {
+        try {
+            loadPartitions();
+        } catch (Exception e) {
+            log.error("加载轨迹分区失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 加载分区列表并创建缺少的未来分区
+     */
+    public synchronized void maintain() {
+        try {
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            LocalDate end = today.plusDays(Math.max(1, daysAhead) - 1);
+
+            // 缓存中的分区已覆盖到目标日期时不查询数据库
+            NavigableSet<LocalDate> known = partitions;
+            if (!known.isEmpty() && !known.last().isBefore(end)) {
+                return;
+            }
+
+            // 范围分区只能在已有分区之后追加，从最后一个分区的次日开始；
+            // 停机等原因漏建的日期也逐日拆分，这些日期写入 p_future 的数据各自归入当天分区，按天归档和删除
+            NavigableSet<LocalDate> existing = loadPartitions();
+            LocalDate start = existing.isEmpty() ? today : existing.last().plusDays(1);
+
+            List<LocalDate> dates = new ArrayList<>();
+            for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+                dates.add(date);
+            }
+            if (dates.isEmpty()) {
+                return;
+            }
+
+            trajectoryStorageMapper.reorganizeFuturePartition(dates);
+            NavigableSet<LocalDate> next = new TreeSet<>(existing);
+            next.addAll(dates);
+            partitions = Collections.unmodifiableNavigableSet(next);
+            log.info("已创建轨迹分区: {} 至 {}，共 {} 个", dates.get(0), dates.get(dates.size() - 1), dates.size());
+        } catch (Exception e) {
+            log.error("维护轨迹分区失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private NavigableSet<LocalDate> loadPartitions() {
+        NavigableSet<LocalDate> existing = new TreeSet<>();
+        for (String name : trajectoryStorageMapper.selectPartitionNames()) {
+            if (name == null || FUTURE_PARTITION.equals(name) || name.length() != 9) {
+                continue;
+            }
+            try {
+                existing.add(LocalDate.parse(name.substring(1), DateTimeFormatter.BASIC_ISO_DATE));
+            } catch (DateTimeParseException e) {
+                log.warn("无法识别的轨迹分区名称: {}", name);
+            }
+        }
+        partitions = Collections.unmodifiableNavigableSet(existing);
+        return existing;
+    }
+}
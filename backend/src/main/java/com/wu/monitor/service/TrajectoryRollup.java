@@ -0,0 +1,372 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.util.LongObjectHashMap;
+import com.wu.monitor.util.MacAddressUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 轨迹汇总增量维护
+ * 由轨迹写入线程在每批数据写入成功后调用：先在内存中按 设备/分钟/地图 和 地图/小时 累加，
+ * 再以 INSERT ... ON DUPLICATE KEY UPDATE 合并到汇总表，查询统计时不再扫描轨迹分区。
+ * 只由单个写入线程调用，非线程安全。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TrajectoryRollup {
+
+    private static final String MINUTE_UPSERT_SQL =
+        "INSERT INTO trajectory_rollup_minute (device_id, bucket, map_id, point_count, first_time, first_x, first_y, "
+            + "last_time, last_x, last_y, min_x, min_y, max_x, max_y, distance) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE "
+            // 按列顺序求值，先更新坐标再更新时间
+            + "first_x = IF(VALUES(first_time) < first_time, VALUES(first_x), first_x), "
+            + "first_y = IF(VALUES(first_time) < first_time, VALUES(first_y), first_y), "
+            + "first_time = LEAST(first_time, VALUES(first_time)), "
+            + "last_x = IF(VALUES(last_time) >= last_time, VALUES(last_x), last_x), "
+            + "last_y = IF(VALUES(last_time) >= last_time, VALUES(last_y), last_y), "
+            + "last_time = GREATEST(last_time, VALUES(last_time)), "
+            + "point_count = point_count + VALUES(point_count), "
+            + "min_x = LEAST(min_x, VALUES(min_x)), min_y = LEAST(min_y, VALUES(min_y)), "
+            + "max_x = GREATEST(max_x, VALUES(max_x)), max_y = GREATEST(max_y, VALUES(max_y)), "
+            + "distance = distance + VALUES(distance)";
+
+    private static final String HOUR_UPSERT_SQL =
+        "INSERT INTO trajectory_rollup_map_hour (map_id, bucket, point_count, device_count, "
+            + "min_x, min_y, max_x, max_y, distance) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE "
+            + "point_count = point_count + VALUES(point_count), "
+            + "device_count = GREATEST(device_count, VALUES(device_count)), "
+            + "min_x = LEAST(min_x, VALUES(min_x)), min_y = LEAST(min_y, VALUES(min_y)), "
+            + "max_x = GREATEST(max_x, VALUES(max_x)), max_y = GREATEST(max_y, VALUES(max_y)), "
+            + "distance = distance + VALUES(distance)";
+
+    // 地图ID为空的标记，与 TrajectoryWriteBehind 一致
+    private static final int NO_MAP = Integer.MIN_VALUE;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // 是否维护轨迹汇总表
+    @Value("${tracking.trajectory.rollup.enabled:true}")
+    private boolean enabled;
+
+    // 相邻两点间隔超过该时间（秒）时不计入移动距离
+    @Value("${tracking.trajectory.rollup.max-gap-seconds:60}")
+    private long maxGapSeconds;
+
+    // 写入失败时最多保留的待写入汇总行数（分钟汇总+小时汇总），超出后丢弃全部待写入增量
+    @Value("${tracking.trajectory.rollup.max-pending:100000}")
+    private int maxPending;
+
+    // 设备上一个点，用于跨批次计算移动距离
+    private final LongObjectHashMap<LastPoint> lastPoints = new LongObjectHashMap<>();
+    // 设备当前所在的分钟汇总
+    private final LongObjectHashMap<MinuteAgg> openMinutes = new LongObjectHashMap<>();
+    // 待写入的分钟汇总（含各设备当前所在的分钟）
+    private final List<MinuteAgg> pendingMinutes = new ArrayList<>();
+    // 地图小时汇总，键为 (小时 << 32 | 地图ID)，保留最近的小时以统计设备数
+    private final LongObjectHashMap<HourAgg> hours = new LongObjectHashMap<>();
+    private long latestHour;
+
+    private final AtomicLong minuteRows = new AtomicLong();
+    private final AtomicLong hourRows = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong droppedRows = new AtomicLong();
+
+    private static class LastPoint {
+        int mapId;
+        long second;
+        float x;
+        float y;
+    }
+
+    private static class MinuteAgg {
+        long mac;
+        long minute;
+        int mapId;
+        int count;
+        long firstSecond;
+        float firstX;
+        float firstY;
+        long lastSecond;
+        float lastX;
+        float lastY;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        double distance;
+    }
+
+    private static class HourAgg {
+        int mapId;
+        long hour;
+        // 本小时出现过的设备，跨批次保留
+        final Set<Long> devices = new HashSet<>();
+        // 以下为尚未写入的增量
+        long count;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        double distance;
+        boolean dirty;
+
+        void reset() {
+            count = 0;
+            minX = Float.MAX_VALUE;
+            minY = Float.MAX_VALUE;
+            maxX = -Float.MAX_VALUE;
+            maxY = -Float.MAX_VALUE;
+            distance = 0;
+            dirty = false;
+        }
+    }
+
+    /**
+     * 累加已写入轨迹表的一段数据 [from, to)，没有地图或坐标的点不参与汇总
+     */
+    public void accumulate(long[] macs, int[] mapIds, long[] seconds, float[] xs, float[] ys, int from, int to) {
+        if (!enabled) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            float x = xs[i];
+            float y = ys[i];
+            if (mapIds[i] == NO_MAP || Float.isNaN(x) || Float.isNaN(y)) {
+                continue;
+            }
+            accumulate(macs[i], mapIds[i], seconds[i], x, y);
+        }
+    }
+
+    private void accumulate(long mac, int mapId, long second, float x, float y) {
+        long minute = Math.floorDiv(second, 60);
+        long hour = Math.floorDiv(second, 3600);
+
+        // 同一地图内时间连续的两点之间计入移动距离
+        double distance = 0;
+        LastPoint last = lastPoints.get(mac);
+        if (last == null) {
+            last = new LastPoint();
+            lastPoints.put(mac, last);
+        } else if (last.mapId == mapId && second > last.second && second - last.second <= maxGapSeconds) {
+            double dx = x - last.x;
+            double dy = y - last.y;
+            distance = Math.sqrt(dx * dx + dy * dy);
+        }
+        last.mapId = mapId;
+        last.second = second;
+        last.x = x;
+        last.y = y;
+
+        MinuteAgg agg = openMinutes.get(mac);
+        boolean newMinute = agg == null || agg.minute != minute || agg.mapId != mapId;
+        if (newMinute) {
+            agg = new MinuteAgg();
+            agg.mac = mac;
+            agg.minute = minute;
+            agg.mapId = mapId;
+            agg.firstSecond = second;
+            agg.firstX = x;
+            agg.firstY = y;
+            openMinutes.put(mac, agg);
+            pendingMinutes.add(agg);
+        }
+        if (second < agg.firstSecond) {
+            agg.firstSecond = second;
+            agg.firstX = x;
+            agg.firstY = y;
+        }
+        if (second >= agg.lastSecond) {
+            agg.lastSecond = second;
+            agg.lastX = x;
+            agg.lastY = y;
+        }
+        agg.count++;
+        agg.minX = Math.min(agg.minX, x);
+        agg.minY = Math.min(agg.minY, y);
+        agg.maxX = Math.max(agg.maxX, x);
+        agg.maxY = Math.max(agg.maxY, y);
+        agg.distance += distance;
+
+        long hourKey = (hour << 32) | (mapId & 0xFFFFFFFFL);
+        HourAgg hourAgg = hours.get(hourKey);
+        if (hourAgg == null) {
+            hourAgg = new HourAgg();
+            hourAgg.mapId = mapId;
+            hourAgg.hour = hour;
+            hours.put(hourKey, hourAgg);
+        }
+        // 每个设备每分钟只在新开汇总时加入设备集合，减少装箱
+        if (newMinute) {
+            hourAgg.devices.add(mac);
+        }
+        hourAgg.count++;
+        hourAgg.minX = Math.min(hourAgg.minX, x);
+        hourAgg.minY = Math.min(hourAgg.minY, y);
+        hourAgg.maxX = Math.max(hourAgg.maxX, x);
+        hourAgg.maxY = Math.max(hourAgg.maxY, y);
+        hourAgg.distance += distance;
+        hourAgg.dirty = true;
+        latestHour = Math.max(latestHour, hour);
+    }
+
+    /**
+     * 将累加的增量合并到汇总表，失败时保留增量下次重试，超过上限时丢弃
+     * @return 是否写入成功
+     */
+    public boolean flush() {
+        if (!enabled || (pendingMinutes.isEmpty() && hours.isEmpty())) {
+            return true;
+        }
+        List<HourAgg> dirtyHours = new ArrayList<>();
+        hours.forEach((key, agg) -> {
+            if (agg.dirty) {
+                dirtyHours.add(agg);
+            }
+        });
+        try {
+            // 同一事务中写入，失败时整体回滚，重试不会重复累加
+            transactionTemplate.executeWithoutResult(status -> {
+                upsertMinutes(pendingMinutes);
+                upsertHours(dirtyHours);
+            });
+        } catch (Exception e) {
+            failedFlushes.incrementAndGet();
+            int pending = pendingMinutes.size() + dirtyHours.size();
+            if (pending > maxPending) {
+                // 数据库长时间不可用时不再无限累积，丢弃本轮增量，汇总表中这段时间的统计会偏少
+                droppedRows.addAndGet(pending);
+                log.error("写入轨迹汇总失败，待写入汇总 {} 条超过上限 {}，已丢弃: {}", pending, maxPending, e.getMessage());
+                clearPending(dirtyHours);
+            } else {
+                log.error("写入轨迹汇总失败，待重试分钟汇总 {} 条: {}", pendingMinutes.size(), e.getMessage());
+            }
+            return false;
+        }
+        minuteRows.addAndGet(pendingMinutes.size());
+        hourRows.addAndGet(dirtyHours.size());
+        clearPending(dirtyHours);
+        return true;
+    }
+
+    /**
+     * 获取汇总统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("minuteRows", minuteRows.get());
+        stats.put("hourRows", hourRows.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        stats.put("droppedRows", droppedRows.get());
+        return stats;
+    }
+
+    private void upsertMinutes(List<MinuteAgg> aggs) {
+        if (aggs.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(MINUTE_UPSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                MinuteAgg agg = aggs.get(i);
+                ps.setBytes(1, MacAddressUtils.toBytes(agg.mac));
+                ps.setObject(2, toDateTime(agg.minute * 60));
+                ps.setInt(3, agg.mapId);
+                ps.setInt(4, agg.count);
+                ps.setObject(5, toDateTime(agg.firstSecond));
+                ps.setFloat(6, agg.firstX);
+                ps.setFloat(7, agg.firstY);
+                ps.setObject(8, toDateTime(agg.lastSecond));
+                ps.setFloat(9, agg.lastX);
+                ps.setFloat(10, agg.lastY);
+                ps.setFloat(11, agg.minX);
+                ps.setFloat(12, agg.minY);
+                ps.setFloat(13, agg.maxX);
+                ps.setFloat(14, agg.maxY);
+                ps.setDouble(15, agg.distance);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return aggs.size();
+            }
+        });
+    }
+
+    private void upsertHours(List<HourAgg> aggs) {
+        if (aggs.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(HOUR_UPSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                HourAgg agg = aggs.get(i);
+                ps.setInt(1, agg.mapId);
+                ps.setObject(2, toDateTime(agg.hour * 3600));
+                ps.setLong(3, agg.count);
+                ps.setInt(4, agg.devices.size());
+                ps.setFloat(5, agg.minX);
+                ps.setFloat(6, agg.minY);
+                ps.setFloat(7, agg.maxX);
+                ps.setFloat(8, agg.maxY);
+                ps.setDouble(9, agg.distance);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return aggs.size();
+            }
+        });
+    }
+
+    private void clearPending(List<HourAgg> dirtyHours) {
+        pendingMinutes.clear();
+        openMinutes.clear();
+        for (HourAgg agg : dirtyHours) {
+            agg.reset();
+        }
+        evictHours();
+    }
+
+    /**
+     * 移除早于上一小时且已写入的小时汇总，迟到的数据重新开始统计设备数
+     */
+    private void evictHours() {
+        List<Long> expired = new ArrayList<>();
+        hours.forEach((key, agg) -> {
+            if (!agg.dirty && agg.hour < latestHour - 1) {
+                expired.add(key);
+            }
+        });
+        for (long key : expired) {
+            hours.remove(key);
+        }
+    }
+
+    private static LocalDateTime toDateTime(long second) {
+        return LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC);
+    }
+}
@@ -1,14 +1,15 @@
 package com.wu.monitor.service;
 
+import com.wu.monitor.model.DeviceMinuteRollup;
+import com.wu.monitor.model.MapHourRollup;
 import com.wu.monitor.model.TrajectoryRecord;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface TrajectoryStorageService {
     
-
-    void processAndStore();
-    
     /**
      * 查询设备历史轨迹
      */
@@ -19,7 +20,55 @@ public interface TrajectoryStorageService {
                                              int page, int size);
     
     /**
-     * 确保分区存在
+     * 按 (timestamp, id) 游标分页查询设备历史轨迹
+     * @param cursor 上一页返回的 nextCursor，为空时查询第一页
+     * @return records、hasMore、nextCursor
+     */
+    Map<String, Object> getDeviceTrajectoryPage(String deviceId,
+                                                Integer mapId,
+                                                LocalDateTime startTime,
+                                                LocalDateTime endTime,
+                                                String cursor,
+                                                int size);
+    
+    /**
+     * 流式读取设备历史轨迹，按时间升序逐条交给consumer处理
+     * @return 记录数
+     */
+    long streamDeviceTrajectory(String deviceId,
+                                Integer mapId,
+                                LocalDateTime startTime,
+                                LocalDateTime endTime,
+                                Consumer<TrajectoryRecord> consumer);
+    
+    /**
+     * 获取降采样后的设备历史轨迹，用于长时间范围回放
+     * @param maxPoints 最多返回的点数
+     * @param method 降采样方法：rdp、visvalingam、bucket
+     * @return records、method、totalPoints、returnedPoints
+     */
+    Map<String, Object> getDeviceTrajectoryPlayback(String deviceId,
+                                                    Integer mapId,
+                                                    LocalDateTime startTime,
+                                                    LocalDateTime endTime,
+                                                    int maxPoints,
+                                                    String method);
+    
+    /**
+     * 查询设备按分钟的轨迹汇总（首末位置、点数、包围盒、移动距离）
+     * @param limit 最多返回的条数
+     */
+    List<DeviceMinuteRollup> getDeviceMinuteRollup(String deviceId,
+                                                   Integer mapId,
+                                                   LocalDateTime startTime,
+                                                   LocalDateTime endTime,
+                                                   int limit);
+    
+    /**
+     * 查询地图按小时的轨迹汇总（点数、设备数、包围盒、移动距离）
+     * @param mapId 地图ID，为空时查询所有地图
      */
-    void ensurePartitionExists(LocalDateTime timestamp);
-} 
\ No newline at end of file
+    List<MapHourRollup> getMapHourRollup(Integer mapId,
+                                         LocalDateTime startTime,
+                                         LocalDateTime endTime);
+}
@@ -0,0 +1,375 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.model.TaskConfig;
+import com.wu.monitor.model.TrackingData;
+import com.wu.monitor.util.LongObjectHashMap;
+import com.wu.monitor.util.MacAddressUtils;
+import com.wu.monitor.util.TimestampUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 轨迹数据写入服务
+ * 已登记标签的每个定位点按采样和去重策略筛选后写入列式缓冲区，后台线程定期将整个缓冲区
+ * 以JDBC批量INSERT写入轨迹表（连接参数 rewriteBatchedStatements=true 时驱动会改写为多行INSERT）。
+ * 数据库不可用时保留未写入的数据并退避重试，缓冲区满时丢弃新数据并计数。
+ * 按天分区由 TrajectoryPartitionManager 提前创建，写入过程不查询分区元数据。
+ * 每批写入成功后在同一线程中累加轨迹汇总（TrajectoryRollup）。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TrajectoryWriteBehind {
+
+    private static final String INSERT_SQL =
+        "INSERT INTO trajectory_data (device_id, map_id, timestamp, x, y) VALUES (?, ?, ?, ?, ?)";
+
+    // 地图ID为空的标记
+    private static final int NO_MAP = Integer.MIN_VALUE;
+
+    // 写入失败时的最长重试间隔（毫秒）
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TaskConfigService taskConfigService;
+    private final TrajectoryRollup trajectoryRollup;
+
+    // 单次JDBC批量提交的最大条数
+    @Value("${tracking.trajectory.batch-size:2000}")
+    private int batchSize;
+
+    // 内存中待写入的最大条数
+    @Value("${tracking.trajectory.max-pending:200000}")
+    private int maxPending;
+
+    // 同一设备两个存储点的最小时间间隔（毫秒），0表示不抽样
+    @Value("${tracking.trajectory.min-interval-ms:0}")
+    private long minIntervalMs;
+
+    // 同一设备位移小于该距离（米）的点视为静止，0表示不按距离过滤
+    @Value("${tracking.trajectory.min-distance:0}")
+    private double minDistance;
+
+    // 静止设备至少每隔该时间（毫秒）存储一个点
+    @Value("${tracking.trajectory.keepalive-ms:10000}")
+    private long keepaliveMs;
+
+    // 丢弃时间戳不晚于上一个存储点的重复数据
+    @Value("${tracking.trajectory.dedup:true}")
+    private boolean dedup;
+
+    private final Object lock = new Object();
+    private Columns active;
+    private Columns flushing;
+    private final LongObjectHashMap<DeviceState> devices = new LongObjectHashMap<>();
+    private volatile boolean running;
+    private Thread writerThread;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong sampledOut = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong writtenRows = new AtomicLong();
+    private final AtomicLong writtenBatches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    /**
+     * 列式缓冲区，每列一个基本类型数组，写入时不为每个点创建对象
+     */
+    private static class Columns {
+        long[] macs;
+        int[] mapIds;
+        long[] seconds;
+        float[] xs;
+        float[] ys;
+        int size;
+        // 已成功写入数据库的条数，重试时从此处继续
+        int written;
+
+        Columns(int capacity) {
+            macs = new long[capacity];
+            mapIds = new int[capacity];
+            seconds = new long[capacity];
+            xs = new float[capacity];
+            ys = new float[capacity];
+        }
+
+        void add(long mac, int mapId, long second, float x, float y) {
+            if (size == macs.length) {
+                int capacity = size * 2;
+                macs = Arrays.copyOf(macs, capacity);
+                mapIds = Arrays.copyOf(mapIds, capacity);
+                seconds = Arrays.copyOf(seconds, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+            }
+            macs[size] = mac;
+            mapIds[size] = mapId;
+            seconds[size] = second;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+            written = 0;
+        }
+    }
+
+    /**
+     * 设备上一个存储点，用于采样和去重
+     */
+    private static class DeviceState {
+        long millis;
+        int mapId;
+        float x;
+        float y;
+    }
+
+    @PostConstruct
+    public void init() {
+        active = new Columns(1024);
+        flushing = new Columns(1024);
+        running = true;
+        writerThread = new Thread(this::writeLoop, "trajectory-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("初始化轨迹数据写入，批量大小: {}，最小间隔: {}ms，最小位移: {}m", batchSize, minIntervalMs, minDistance);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        try {
+            writerThread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 提交一个已登记标签的定位点，按采样和去重策略决定是否存储
+     * @param data 跟踪数据
+     * @return 是否进入待写缓冲区
+     */
+    public boolean offer(TrackingData data) {
+        if (!isStorageEnabled()) {
+            return false;
+        }
+        long mac = MacAddressUtils.parse(data.getDeviceId());
+        long millis = TimestampUtils.parseEpochMillis(data.getTimestamp());
+        if (mac == MacAddressUtils.INVALID || millis < 0) {
+            invalid.incrementAndGet();
+            return false;
+        }
+        int mapId = data.getMapId() != null ? data.getMapId() : NO_MAP;
+        float x = data.getX() != null ? data.getX().floatValue() : Float.NaN;
+        float y = data.getY() != null ? data.getY().floatValue() : Float.NaN;
+
+        synchronized (lock) {
+            DeviceState state = devices.get(mac);
+            if (state != null && !shouldKeep(state, millis, mapId, x, y)) {
+                return false;
+            }
+            if (active.size >= maxPending) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (state == null) {
+                state = new DeviceState();
+                devices.put(mac, state);
+            }
+            state.millis = millis;
+            state.mapId = mapId;
+            state.x = x;
+            state.y = y;
+            active.add(mac, mapId, millis / 1000, x, y);
+            if (active.size == batchSize) {
+                lock.notifyAll();
+            }
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 获取写入统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("pending", active.size + flushing.size - flushing.written);
+            stats.put("devices", devices.size());
+        }
+        stats.put("accepted", accepted.get());
+        stats.put("sampledOut", sampledOut.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("invalid", invalid.get());
+        stats.put("dropped", dropped.get());
+        stats.put("writtenRows", writtenRows.get());
+        stats.put("writtenBatches", writtenBatches.get());
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("rollup", trajectoryRollup.getStats());
+        return stats;
+    }
+
+    /**
+     * 采样与去重判断，调用方持有锁
+     */
+    private boolean shouldKeep(DeviceState state, long millis, int mapId, float x, float y) {
+        long elapsed = millis - state.millis;
+        if (dedup && elapsed <= 0) {
+            duplicates.incrementAndGet();
+            return false;
+        }
+        // 切换地图的点总是保留
+        if (mapId != state.mapId) {
+            return true;
+        }
+        if (minIntervalMs > 0 && elapsed < minIntervalMs) {
+            sampledOut.incrementAndGet();
+            return false;
+        }
+        if (minDistance > 0 && elapsed < keepaliveMs) {
+            double dx = x - state.x;
+            double dy = y - state.y;
+            if (dx * dx + dy * dy < minDistance * minDistance) {
+                sampledOut.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isStorageEnabled() {
+        TaskConfig.StorageTask config = taskConfigService.getStorageTaskConfig();
+        return config == null || config.isEnabled();
+    }
+
+    private long flushIntervalMs() {
+        TaskConfig.StorageTask config = taskConfigService.getStorageTaskConfig();
+        long interval = config != null ? config.getIntervalMs() : 5000;
+        return Math.max(100, interval);
+    }
+
+    private void writeLoop() {
+        long backoff = 0;
+        while (true) {
+            synchronized (lock) {
+                try {
+                    long deadline = System.currentTimeMillis() + (backoff > 0 ? backoff : flushIntervalMs());
+                    while (running) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0 || (backoff == 0 && active.size >= batchSize)) {
+                            break;
+                        }
+                        lock.wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // 上一轮全部写完后才交换缓冲区，失败时继续重试剩余部分
+                if (flushing.written == flushing.size) {
+                    Columns swap = flushing;
+                    swap.clear();
+                    flushing = active;
+                    active = swap;
+                }
+            }
+
+            boolean ok = write(flushing);
+            if (ok) {
+                // 汇总写入失败不影响轨迹写入，增量保留到下一轮
+                trajectoryRollup.flush();
+                backoff = 0;
+            } else {
+                backoff = backoff == 0 ? 1000 : Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+
+            if (!running) {
+                synchronized (lock) {
+                    if (ok && active.size == 0) {
+                        return;
+                    }
+                }
+                if (!ok) {
+                    log.error("停止时轨迹数据写入失败，丢弃 {} 条数据", flushing.size - flushing.written + active.size);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 分批写入缓冲区中尚未写入的数据
+     * @return 是否全部写入成功
+     */
+    private boolean write(Columns columns) {
+        while (columns.written < columns.size) {
+            int from = columns.written;
+            int count = Math.min(batchSize, columns.size - from);
+            try {
+                jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        int row = from + i;
+                        ps.setBytes(1, MacAddressUtils.toBytes(columns.macs[row]));
+                        if (columns.mapIds[row] != NO_MAP) {
+                            ps.setInt(2, columns.mapIds[row]);
+                        } else {
+                            ps.setNull(2, Types.INTEGER);
+                        }
+                        ps.setObject(3, LocalDateTime.ofEpochSecond(columns.seconds[row], 0, ZoneOffset.UTC));
+                        setFloat(ps, 4, columns.xs[row]);
+                        setFloat(ps, 5, columns.ys[row]);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return count;
+                    }
+                });
+                trajectoryRollup.accumulate(columns.macs, columns.mapIds, columns.seconds, columns.xs, columns.ys,
+                    from, from + count);
+                columns.written += count;
+                writtenRows.addAndGet(count);
+                writtenBatches.incrementAndGet();
+            } catch (Exception e) {
+                failedBatches.incrementAndGet();
+                log.error("批量写入轨迹数据失败，待重试 {} 条: {}", columns.size - from, e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void setFloat(PreparedStatement ps, int index, float value) throws SQLException {
+        if (Float.isNaN(value)) {
+            ps.setNull(index, Types.FLOAT);
+        } else {
+            ps.setFloat(index, value);
+        }
+    }
+}
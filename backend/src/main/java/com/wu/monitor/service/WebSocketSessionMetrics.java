@@ -0,0 +1,67 @@
+package com.wu.monitor.service;
+
+import com.wu.monitor.config.DropOldestSessionDecorator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * STOMP会话发送统计，记录每个会话的缓冲深度和丢弃数，已关闭会话的丢弃数累计到总数中
+ */
+@Service
+@Slf4j
+public class WebSocketSessionMetrics {
+
+    private final Map<String, DropOldestSessionDecorator> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong closedDroppedMessages = new AtomicLong();
+    private final AtomicLong closedDroppedBytes = new AtomicLong();
+    private final AtomicLong terminatedSessions = new AtomicLong();
+
+    public void register(DropOldestSessionDecorator session) {
+        sessions.put(session.getId(), session);
+    }
+
+    public void unregister(String sessionId) {
+        DropOldestSessionDecorator session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        closedDroppedMessages.addAndGet(session.getDroppedMessages());
+        closedDroppedBytes.addAndGet(session.getDroppedBytes());
+        if (session.getCloseReason() != null) {
+            terminatedSessions.incrementAndGet();
+            log.warn("慢消费者会话 {} 已断开: {}，丢弃消息 {} 条", sessionId, session.getCloseReason(),
+                session.getDroppedMessages());
+        }
+    }
+
+    /**
+     * 获取会话发送统计，会话按缓冲字节数从大到小排列
+     */
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> details = new ArrayList<>();
+        long droppedMessages = closedDroppedMessages.get();
+        long droppedBytes = closedDroppedBytes.get();
+        for (DropOldestSessionDecorator session : sessions.values()) {
+            droppedMessages += session.getDroppedMessages();
+            droppedBytes += session.getDroppedBytes();
+            details.add(session.getStats());
+        }
+        details.sort((a, b) -> Integer.compare((Integer) b.get("bufferedBytes"), (Integer) a.get("bufferedBytes")));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", details.size());
+        stats.put("droppedMessages", droppedMessages);
+        stats.put("droppedBytes", droppedBytes);
+        stats.put("terminatedSessions", terminatedSessions.get());
+        stats.put("details", details);
+        return stats;
+    }
+}
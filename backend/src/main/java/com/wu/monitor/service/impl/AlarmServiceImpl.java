@@ -1,119 +1,253 @@
 package com.wu.monitor.service.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wu.monitor.mapper.AlarmMapper;
-import com.wu.monitor.mapper.GeofenceMapper;
-import com.wu.monitor.mapper.MapMapper;
 import com.wu.monitor.model.Alarm;
 import com.wu.monitor.model.Geofence;
+import com.wu.monitor.model.GeofenceEvent;
 import com.wu.monitor.model.MapEntity;
 import com.wu.monitor.model.TrackingData;
 import com.wu.monitor.model.TaskConfig;
+import com.wu.monitor.service.ActiveAlarmCheckpoint;
+import com.wu.monitor.service.AlarmOutbox;
 import com.wu.monitor.service.AlarmService;
+import com.wu.monitor.service.ClusterRelay;
+import com.wu.monitor.service.GeofenceSnapshotCache;
+import com.wu.monitor.service.TagLivenessListener;
 import com.wu.monitor.service.TaskConfigService;
+import com.wu.monitor.util.GeofenceSpatialIndex;
+import com.wu.monitor.util.LongObjectHashMap;
+import com.wu.monitor.util.MacAddressUtils;
 import com.wu.monitor.util.TimestampUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * 报警服务实现类
+ * 每个 (标签, 围栏) 维护一个带去抖的状态机：点需要连续若干次、持续一定时间落在另一侧，
+ * 并且与边界的距离超过滞回距离，才确认进入或离开，边界附近的抖动不会反复创建和关闭告警。
+ * 确认离开时创建告警、确认进入时关闭告警，同时推送进入、离开、停留事件并在内存中累计停留时长。
+ * 活跃告警定期保存到Redis检查点，重启后恢复为围栏外状态，避免重新创建告警。
  */
 @Service
-public class AlarmServiceImpl implements AlarmService {
+public class AlarmServiceImpl implements AlarmService, TagLivenessListener {
 
     private static final Logger logger = LoggerFactory.getLogger(AlarmServiceImpl.class);
     
-    // 类级别的锁，用于同步所有围栏检测
-    private static final ReentrantLock ALARM_LOCK = new ReentrantLock();
-
     @Autowired
     private AlarmMapper alarmMapper;
     
     @Autowired
-    private GeofenceMapper geofenceMapper;
+    private GeofenceSnapshotCache geofenceSnapshotCache;
     
     @Autowired
-    private MapMapper mapMapper;
+    private AlarmOutbox alarmOutbox;
     
     @Autowired
-    private ObjectMapper objectMapper;
+    private TaskConfigService taskConfigService;
     
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private ClusterRelay clusterRelay;
     
     @Autowired
-    private TaskConfigService taskConfigService;
+    private ActiveAlarmCheckpoint activeAlarmCheckpoint;
     
-    // 围栏缓存，避免频繁查询数据库
-    private Map<Long, List<Geofence>> geofenceCache = new HashMap<>();
+    // 确认状态变化需要的连续点数
+    @Value("${tracking.geofence.confirm-samples:2}")
+    private int confirmSamples;
     
-    // 地图缓存，避免频繁查询数据库
-    private Map<Long, MapEntity> mapCache = new HashMap<>();
+    // 确认状态变化需要在新状态持续的最短时间（毫秒）
+    @Value("${tracking.geofence.confirm-ms:1000}")
+    private long confirmMs;
     
-    // 活跃告警缓存，key格式: deviceId-geofenceId, value: 告警ID
-    // 使用ConcurrentHashMap提高并发性能
-    private static final Map<String, Long> activeAlarms = new ConcurrentHashMap<>();
+    // 滞回距离（米），距边界小于该距离的点不改变状态
+    @Value("${tracking.geofence.hysteresis:0.3}")
+    private double hysteresisMeters;
     
-    // 记录标签最后活动时间，key为标签ID，value为最后活动时间
-    private static final Map<String, Long> lastActivityTime = new ConcurrentHashMap<>();
+    // 连续停留超过该时间（毫秒）时推送一次停留事件，0表示不推送
+    @Value("${tracking.geofence.dwell-event-ms:300000}")
+    private long dwellEventMs;
     
-    // 围栏边界缓存，key为geofenceId，value为围栏边界信息
-    private Map<Long, GeofenceBounds> geofenceBoundsCache = new HashMap<>();
+    // 围栏事件推送主题
+    private static final String EVENT_TOPIC = "/topic/geofenceEvents";
     
-    // 上次清理缓存的时间
-    private long lastCacheCleanTime = System.currentTimeMillis();
+    // 告警状态分段数（2的幂），设备按MAC地址分配到各段，每段独立加锁
+    private static final int ALARM_STRIPES = 64;
     
-    // 缓存清理间隔（30秒）
-    private static final long CACHE_CLEAN_INTERVAL = 30 * 1000;
+    // 告警正在创建的标记
+    private static final long PENDING_ALARM = -1L;
     
-    // 标签超时时间（毫秒）- 将从配置中获取
-    private long tagTimeout = 30000; // 默认30秒
+    // 没有活跃告警
+    private static final long NO_ALARM = 0L;
     
-    // 告警过期时间（毫秒）
-    private static final long ALARM_EXPIRY_TIME = 5 * 60 * 1000; // 5分钟
+    // 围栏状态
+    private static final byte UNKNOWN = 0;
+    private static final byte INSIDE = 1;
+    private static final byte OUTSIDE = 2;
+    
+    // 活跃告警状态，按设备分段；锁内只修改内存状态，数据库写入和消息推送都在锁外执行
+    private final AlarmStripe[] alarmStripes = createAlarmStripes();
+    
+    // 活跃告警有变化、需要保存检查点
+    private final AtomicBoolean checkpointDirty = new AtomicBoolean();
     
     /**
-     * 围栏边界信息，用于快速边界框检测
+     * 单个 (标签, 围栏) 的状态机
      */
-    private static class GeofenceBounds {
-        double minX;
-        double minY;
-        double maxX;
-        double maxY;
+    private static class FenceState {
+        final Long mapId;
+        // 已确认的状态
+        byte state = UNKNOWN;
+        // 待确认的状态及其连续点数和开始时间
+        byte candidate = UNKNOWN;
+        int candidateSamples;
+        long candidateSince;
+        // 已确认状态的开始时间，即首次观察到该状态的点的时间
+        long changedAt;
+        // 本次进入时间，是否已推送停留事件
+        long enteredAt;
+        boolean dwellNotified;
+        // 累计停留时长（不含当前这次）和进入次数
+        long totalDwellMs;
+        int visits;
+        // 活跃告警ID，创建中为PENDING_ALARM，没有为NO_ALARM
+        long alarmId = NO_ALARM;
         
-        public GeofenceBounds(List<Geofence.GeofencePoint> points) {
-            this.minX = Double.MAX_VALUE;
-            this.minY = Double.MAX_VALUE;
-            this.maxX = Double.MIN_VALUE;
-            this.maxY = Double.MIN_VALUE;
-            
-            // 计算边界
-            for (Geofence.GeofencePoint point : points) {
-                if (point.getX() < minX) minX = point.getX();
-                if (point.getY() < minY) minY = point.getY();
-                if (point.getX() > maxX) maxX = point.getX();
-                if (point.getY() > maxY) maxY = point.getY();
-            }
+        FenceState(Long mapId) {
+            this.mapId = mapId;
+        }
+    }
+    
+    /**
+     * 锁外待创建的告警，时间为状态变化时间
+     */
+    private static class AlarmRequest {
+        final Geofence geofence;
+        final long time;
+        
+        AlarmRequest(Geofence geofence, long time) {
+            this.geofence = geofence;
+            this.time = time;
         }
+    }
+    
+    /**
+     * 单个设备的围栏状态，key为围栏ID
+     */
+    private static class DeviceAlarmState {
+        final String deviceId;
+        final LongObjectHashMap<FenceState> fences = new LongObjectHashMap<>();
+        // 最后一个点的时间（毫秒）
+        long lastSeen;
         
-        /**
-         * 检查点是否在边界框内
-         */
-        public boolean containsPoint(double x, double y) {
-            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        DeviceAlarmState(String deviceId) {
+            this.deviceId = deviceId;
         }
     }
     
+    /**
+     * 告警状态分段，设备以MAC地址打包的long为key；无法按MAC解析的设备标识单独存放
+     */
+    private static class AlarmStripe {
+        final LongObjectHashMap<DeviceAlarmState> devices = new LongObjectHashMap<>();
+        final Map<String, DeviceAlarmState> others = new HashMap<>();
+        
+        DeviceAlarmState get(String deviceId, long mac) {
+            return mac != MacAddressUtils.INVALID ? devices.get(mac) : others.get(deviceId);
+        }
+        
+        void forEach(Consumer<DeviceAlarmState> action) {
+            devices.forEach((mac, device) -> action.accept(device));
+            others.values().forEach(action);
+        }
+        
+        DeviceAlarmState getOrCreate(String deviceId, long mac) {
+            DeviceAlarmState device = get(deviceId, mac);
+            if (device == null) {
+                device = new DeviceAlarmState(deviceId);
+                if (mac != MacAddressUtils.INVALID) {
+                    devices.put(mac, device);
+                } else {
+                    others.put(deviceId, device);
+                }
+            }
+            return device;
+        }
+    }
+    
+    /**
+     * 从检查点恢复活跃告警，恢复的围栏状态为已确认在围栏外
+     * Redis不可用时从空状态开始
+     */
+    @PostConstruct
+    public void restoreActiveAlarms() {
+        long startMs = System.currentTimeMillis();
+        List<ActiveAlarmCheckpoint.Entry> entries;
+        try {
+            entries = activeAlarmCheckpoint.load();
+        } catch (Exception e) {
+            logger.warn("读取活跃告警检查点失败，从空状态开始: {}", e.getMessage());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (ActiveAlarmCheckpoint.Entry entry : entries) {
+            String tag = entry.getTag();
+            long mac = MacAddressUtils.parse(tag);
+            AlarmStripe stripe = stripeFor(tag, mac);
+            synchronized (stripe) {
+                DeviceAlarmState device = stripe.getOrCreate(tag, mac);
+                device.lastSeen = Math.max(device.lastSeen, now);
+                FenceState state = new FenceState(entry.getMapId());
+                state.state = OUTSIDE;
+                state.alarmId = entry.getAlarmId();
+                device.fences.put(entry.getGeofenceId(), state);
+            }
+        }
+        logger.info("已从检查点恢复活跃告警 {} 条，耗时 {}ms", entries.size(), System.currentTimeMillis() - startMs);
+    }
+    
+    /**
+     * 活跃告警有变化时整体保存检查点
+     */
+    @Scheduled(fixedDelayString = "${tracking.alarm.checkpoint-ms:1000}")
+    public void checkpointActiveAlarms() {
+        if (!checkpointDirty.getAndSet(false)) {
+            return;
+        }
+        List<ActiveAlarmCheckpoint.Entry> entries = new ArrayList<>();
+        for (AlarmStripe stripe : alarmStripes) {
+            synchronized (stripe) {
+                stripe.forEach(device -> device.fences.forEach((geofenceId, state) -> {
+                    if (state.alarmId != NO_ALARM && state.alarmId != PENDING_ALARM) {
+                        entries.add(new ActiveAlarmCheckpoint.Entry(device.deviceId, geofenceId, state.mapId,
+                            state.alarmId));
+                    }
+                }));
+            }
+        }
+        try {
+            activeAlarmCheckpoint.save(entries);
+        } catch (Exception e) {
+            checkpointDirty.set(true);
+            logger.error("保存活跃告警检查点失败: {}", e.getMessage());
+        }
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        checkpointActiveAlarms();
+    }
+    
     @Override
     public Map<String, Object> addAlarm(Alarm alarm) {
         Map<String, Object> result = new HashMap<>();
@@ -123,6 +257,8 @@ public class AlarmServiceImpl implements AlarmService {
                 alarm.setTime(new Date());
             }
             
+            // 与异步写入的报警共用ID分配，避免ID冲突
+            alarm.setId(alarmOutbox.nextId());
             int rows = alarmMapper.insert(alarm);
             result.put("success", rows > 0);
             result.put("message", rows > 0 ? "添加报警记录成功" : "添加报警记录失败");
@@ -202,239 +338,321 @@ public class AlarmServiceImpl implements AlarmService {
             return null;
         }
         
-        // 清理缓存(如果需要)
-        cleanCacheIfNeeded();
-        
         // 获取地图ID
         Long mapId = trackingData.getMapId().longValue();
         
-        // 获取该地图下所有启用的围栏
-        List<Geofence> geofences = getGeofencesForMap(mapId);
-        if (geofences.isEmpty()) {
-            return null;
-        }
-        
-        // 获取地图信息，用于坐标转换
-        MapEntity mapInfo = getMapInfo(mapId);
-        if (mapInfo == null) {
-            logger.warn("未找到地图信息，地图ID: {}", mapId);
+        // 从快照获取该地图的坐标转换参数及所有启用的围栏
+        GeofenceSnapshotCache.MapFences mapFences = geofenceSnapshotCache.get(mapId);
+        if (mapFences == null || mapFences.getGeofences().isEmpty()) {
             return null;
         }
+        MapEntity mapInfo = mapFences.getMap();
         
         // 将传感器米制坐标转换为像素坐标
-        double pixelX = meterToPixelX(trackingData.getX(), mapInfo);
-        double pixelY = meterToPixelY(trackingData.getY(), mapInfo);
+        double pixelX = mapFences.toPixelX(trackingData.getX());
+        double pixelY = mapFences.toPixelY(trackingData.getY());
         String deviceId = trackingData.getDeviceId();
+        long mac = MacAddressUtils.parse(deviceId);
+        AlarmStripe stripe = stripeFor(deviceId, mac);
         
-        // 更新标签最后活动时间
-        lastActivityTime.put(deviceId, System.currentTimeMillis());
-        
-        // 使用类级别锁，确保整个围栏检测过程的原子性
         try {
-            ALARM_LOCK.lock();
+            List<Geofence> geofences = mapFences.getGeofences();
+            GeofenceSpatialIndex index = mapFences.getIndex();
             
-            // 检查每个围栏
-            for (Geofence geofence : geofences) {
-                Long geofenceId = geofence.getId();
-                String alarmKey = deviceId + "-" + geofenceId;
-                
-                // 解析围栏坐标点
-                List<Geofence.GeofencePoint> points = parseGeofencePoints(geofence);
-                if (points == null || points.size() < 3) {
-                    continue; // 忽略无效的围栏
-                }
-                
-                // 获取或计算围栏边界
-                GeofenceBounds bounds = getGeofenceBounds(geofence.getId(), points);
-                
-                boolean isInside;
-                
-                // 首先进行边界框快速检查
-                if (!bounds.containsPoint(pixelX, pixelY)) {
-                    isInside = false; // 在边界框外，肯定不在多边形内
-                } else {
-                    // 点在边界框内，进行精确的多边形检查
-                    isInside = isPointInPolygon(pixelX, pixelY, points);
-                }
+            // 只有点所在网格内的候选围栏可能包含该点，其余围栏直接判定为在围栏外
+            int[] candidates = index.candidates(pixelX, pixelY);
+            int next = 0;
+            
+            long millis = TimestampUtils.parseEpochMillis(trackingData.getTimestamp());
+            if (millis < 0) {
+                millis = System.currentTimeMillis();
+            }
+            double hysteresis = mapFences.toPixelDistance(hysteresisMeters);
+            
+            // 锁内只推进状态机，记录需要创建和关闭的告警及需要推送的事件
+            List<AlarmRequest> toCreate = null;
+            List<Long> toClose = null;
+            List<GeofenceEvent> events = null;
+            synchronized (stripe) {
+                DeviceAlarmState device = stripe.getOrCreate(deviceId, mac);
+                device.lastSeen = Math.max(device.lastSeen, millis);
                 
-                // 根据点是否在围栏内决定是创建还是关闭告警
-                if (!isInside) {
-                    // 点在围栏外，检查是否需要创建告警
-                    if (!activeAlarms.containsKey(alarmKey)) {
-                        // 创建新告警
-                        Alarm alarm = createAlarmFromTracking(trackingData, geofence, mapInfo);
-                        if (alarm != null && alarm.getId() != null) {
-                            activeAlarms.put(alarmKey, alarm.getId());
-                            return alarm;
+                // 检查每个围栏
+                for (int i = 0; i < geofences.size(); i++) {
+                    boolean isInside = false;
+                    if (next < candidates.length && candidates[next] == i) {
+                        next++;
+                        isInside = index.contains(i, pixelX, pixelY);
+                    }
+                    
+                    Geofence geofence = geofences.get(i);
+                    long geofenceId = geofence.getId();
+                    FenceState state = device.fences.get(geofenceId);
+                    if (state == null) {
+                        state = new FenceState(mapId);
+                        device.fences.put(geofenceId, state);
+                    }
+                    
+                    byte observed = isInside ? INSIDE : OUTSIDE;
+                    if (observed == state.state) {
+                        state.candidate = UNKNOWN;
+                        // 上次告警创建失败时重试
+                        if (state.state == OUTSIDE && state.alarmId == NO_ALARM) {
+                            state.alarmId = PENDING_ALARM;
+                            if (toCreate == null) {
+                                toCreate = new ArrayList<>();
+                            }
+                            // 从检查点恢复的状态没有变化时间，取当前点的时间
+                            toCreate.add(new AlarmRequest(geofence, state.changedAt > 0 ? state.changedAt : millis));
+                        } else if (state.state == INSIDE && dwellEventMs > 0 && !state.dwellNotified
+                                && millis - state.enteredAt >= dwellEventMs) {
+                            state.dwellNotified = true;
+                            events = addEvent(events, GeofenceEvent.DWELL, deviceId, geofence, millis,
+                                millis - state.enteredAt);
                         }
+                        continue;
                     }
-                } else {
-                    // 点在围栏内，如果有活跃告警则关闭
-                    if (activeAlarms.containsKey(alarmKey)) {
-                        Long alarmId = activeAlarms.get(alarmKey);
-                        closeAlarm(alarmId);
-                        activeAlarms.remove(alarmKey);
+                    // 已确认状态后，边界附近的点不计入状态变化
+                    if (state.state != UNKNOWN && hysteresis > 0
+                            && index.distanceToEdge(i, pixelX, pixelY) < hysteresis) {
+                        continue;
+                    }
+                    if (state.candidate != observed) {
+                        state.candidate = observed;
+                        state.candidateSamples = 0;
+                        state.candidateSince = millis;
+                    }
+                    state.candidateSamples++;
+                    if (state.candidateSamples < confirmSamples || millis - state.candidateSince < confirmMs) {
+                        continue;
+                    }
+                    
+                    // 确认状态变化，变化时间取待确认状态的开始时间
+                    byte previous = state.state;
+                    long changedAt = state.candidateSince;
+                    state.state = observed;
+                    state.changedAt = changedAt;
+                    state.candidate = UNKNOWN;
+                    if (observed == INSIDE) {
+                        state.enteredAt = changedAt;
+                        state.dwellNotified = false;
+                        state.visits++;
+                        events = addEvent(events, GeofenceEvent.ENTER, deviceId, geofence, changedAt, 0);
+                        if (state.alarmId != NO_ALARM && state.alarmId != PENDING_ALARM) {
+                            if (toClose == null) {
+                                toClose = new ArrayList<>();
+                            }
+                            toClose.add(state.alarmId);
+                        }
+                        // 创建中的告警在写入完成后发现标记已清除，会自行关闭
+                        state.alarmId = NO_ALARM;
+                    } else {
+                        if (previous == INSIDE) {
+                            long dwell = Math.max(0, changedAt - state.enteredAt);
+                            state.totalDwellMs += dwell;
+                            events = addEvent(events, GeofenceEvent.EXIT, deviceId, geofence, changedAt, dwell);
+                        }
+                        if (state.alarmId == NO_ALARM) {
+                            state.alarmId = PENDING_ALARM;
+                            if (toCreate == null) {
+                                toCreate = new ArrayList<>();
+                            }
+                            toCreate.add(new AlarmRequest(geofence, changedAt));
+                        }
                     }
                 }
             }
             
-            // 所有围栏检查通过，没有新的告警
-            return null;
+            if (events != null) {
+                publishEvents(events);
+            }
+            
+            if (toClose != null) {
+                checkpointDirty.set(true);
+                for (Long alarmId : toClose) {
+                    closeAlarm(alarmId);
+                }
+            }
+            
+            Alarm created = null;
+            if (toCreate != null) {
+                for (AlarmRequest request : toCreate) {
+                    // 创建新告警
+                    Geofence geofence = request.geofence;
+                    Alarm alarm = createAlarmFromTracking(trackingData, geofence, mapInfo, request.time);
+                    boolean success = alarm != null && alarm.getId() != null;
+                    if (!completeAlarmCreation(stripe, deviceId, mac, geofence.getId(), success ? alarm.getId() : null)
+                            && success) {
+                        // 创建期间标签已离线、状态已清除，立即关闭
+                        closeAlarm(alarm.getId());
+                    } else if (success && created == null) {
+                        created = alarm;
+                    }
+                }
+            }
+            
+            return created;
         } catch (Exception e) {
             logger.error("检查围栏入侵异常: {}", e.getMessage());
             return null;
-        } finally {
-            ALARM_LOCK.unlock();
         }
     }
     
     /**
-     * 定时检查标签活动状态，关闭长时间未活动标签的告警
-     * 每5秒执行一次
+     * 告警写入完成后更新创建中的状态
+     * @param alarmId 告警ID，创建失败时为null，此时清除创建中标记以便下次重新创建
+     * @return 创建中标记是否仍然存在
      */
-    @Scheduled(fixedRate = 5000)
-    public void checkInactiveTags() {
+    private boolean completeAlarmCreation(AlarmStripe stripe, String deviceId, long mac, long geofenceId, Long alarmId) {
+        synchronized (stripe) {
+            DeviceAlarmState device = stripe.get(deviceId, mac);
+            FenceState state = device != null ? device.fences.get(geofenceId) : null;
+            if (state == null || state.alarmId != PENDING_ALARM) {
+                return false;
+            }
+            // 创建失败时清除标记，仍在围栏外时下一个点重新创建
+            state.alarmId = alarmId != null ? alarmId : NO_ALARM;
+            if (alarmId != null) {
+                checkpointDirty.set(true);
+            }
+            return true;
+        }
+    }
+    
+    private AlarmStripe stripeFor(String deviceId, long mac) {
+        int hash;
+        if (mac != MacAddressUtils.INVALID) {
+            long h = mac * 0x9E3779B97F4A7C15L;
+            hash = (int) (h ^ (h >>> 32));
+        } else {
+            hash = deviceId != null ? deviceId.hashCode() : 0;
+        }
+        return alarmStripes[(hash ^ (hash >>> 16)) & (ALARM_STRIPES - 1)];
+    }
+    
+    private static AlarmStripe[] createAlarmStripes() {
+        AlarmStripe[] stripes = new AlarmStripe[ALARM_STRIPES];
+        for (int i = 0; i < ALARM_STRIPES; i++) {
+            stripes[i] = new AlarmStripe();
+        }
+        return stripes;
+    }
+    
+    /**
+     * 标签超时离线时关闭其所有告警
+     * 超时管理未启用时保留告警
+     */
+    @Override
+    public void onTagsOffline(List<String> macAddresses) {
         try {
-            ALARM_LOCK.lock();
-            
-            long currentTime = System.currentTimeMillis();
-            Set<String> inactiveTags = new HashSet<>();
-            
-            // 从配置中获取超时时间
-            updateTimeoutFromConfig();
-            
-            // 找出超过配置时间未活动的标签
-            for (Map.Entry<String, Long> entry : lastActivityTime.entrySet()) {
-                String tagId = entry.getKey();
-                long lastActive = entry.getValue();
-                
-                if (currentTime - lastActive > tagTimeout) {
-                    inactiveTags.add(tagId);
-                }
+            if (!isTimeoutEnabled()) {
+                return;
             }
-            
-            // 关闭这些标签的所有告警
-            if (!inactiveTags.isEmpty()) {
-                Set<String> keysToRemove = new HashSet<>();
-                
-                for (String alarmKey : activeAlarms.keySet()) {
-                    // alarmKey格式为 "deviceId-geofenceId"
-                    String[] parts = alarmKey.split("-", 2);
-                    if (parts.length == 2) {
-                        String tagId = parts[0];
-                        if (inactiveTags.contains(tagId)) {
-                            Long alarmId = activeAlarms.get(alarmKey);
-                            closeAlarm(alarmId);
-                            keysToRemove.add(alarmKey);
-                            logger.info("关闭不活跃标签的告警: 标签={}, 告警ID={}", tagId, alarmId);
-                        }
+            for (String tagId : macAddresses) {
+                long mac = MacAddressUtils.parse(tagId);
+                AlarmStripe stripe = stripeFor(tagId, mac);
+                List<Long> alarmIds = new ArrayList<>();
+                List<GeofenceEvent> events = new ArrayList<>();
+                synchronized (stripe) {
+                    DeviceAlarmState device = stripe.get(tagId, mac);
+                    if (device == null) {
+                        continue;
                     }
+                    // 围栏内的标签按最后一个点的时间离开，累计停留时长保留，状态重新开始确认
+                    long lastSeen = device.lastSeen;
+                    device.fences.forEach((geofenceId, state) -> {
+                        if (state.state == INSIDE) {
+                            long dwell = Math.max(0, lastSeen - state.enteredAt);
+                            state.totalDwellMs += dwell;
+                            events.add(new GeofenceEvent(GeofenceEvent.EXIT, tagId, geofenceId, state.mapId, lastSeen, dwell));
+                        }
+                        // 创建中的告警在写入完成后发现标记已清除，会自行关闭
+                        if (state.alarmId != NO_ALARM && state.alarmId != PENDING_ALARM) {
+                            alarmIds.add(state.alarmId);
+                        }
+                        state.alarmId = NO_ALARM;
+                        state.state = UNKNOWN;
+                        state.candidate = UNKNOWN;
+                    });
                 }
-                
-                // 从活跃告警中移除已关闭的告警
-                for (String key : keysToRemove) {
-                    activeAlarms.remove(key);
+                if (!events.isEmpty()) {
+                    publishEvents(events);
                 }
-                
-                // 清理不活跃标签的最后活动时间记录
-                for (String tagId : inactiveTags) {
-                    lastActivityTime.remove(tagId);
+                if (!alarmIds.isEmpty()) {
+                    checkpointDirty.set(true);
+                }
+                for (Long alarmId : alarmIds) {
+                    closeAlarm(alarmId);
+                    logger.info("关闭不活跃标签的告警: 标签={}, 告警ID={}", tagId, alarmId);
                 }
             }
         } catch (Exception e) {
-            logger.error("检查不活跃标签异常: {}", e.getMessage());
-        } finally {
-            ALARM_LOCK.unlock();
+            logger.error("关闭离线标签告警异常: {}", e.getMessage());
         }
     }
     
-    /**
-     * 关闭告警（标记已解决）
-     * @param alarmId 告警ID
-     */
-    private void closeAlarm(Long alarmId) {
-        try {
-            // 发送告警关闭通知
-            Map<String, Object> notification = new HashMap<>();
-            notification.put("type", "geofenceAlarmClose");
-            notification.put("alarmId", alarmId);
-            
-            // 发送WebSocket消息
-            messagingTemplate.convertAndSend("/topic/alarmNotification", notification);
-            
-            logger.info("关闭围栏告警: ID={}", alarmId);
-        } catch (Exception e) {
-            logger.error("关闭告警失败: {}", e.getMessage());
+    @Override
+    public List<Map<String, Object>> getDwellStats(String tag) {
+        long mac = MacAddressUtils.parse(tag);
+        AlarmStripe stripe = stripeFor(tag, mac);
+        List<Map<String, Object>> result = new ArrayList<>();
+        synchronized (stripe) {
+            DeviceAlarmState device = stripe.get(tag, mac);
+            if (device == null) {
+                return result;
+            }
+            long lastSeen = device.lastSeen;
+            device.fences.forEach((geofenceId, state) -> {
+                boolean inside = state.state == INSIDE;
+                if (state.visits == 0 && !inside) {
+                    return;
+                }
+                long current = inside ? Math.max(0, lastSeen - state.enteredAt) : 0;
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("geofenceId", geofenceId);
+                item.put("inside", inside);
+                item.put("visits", state.visits);
+                item.put("totalDwellMs", state.totalDwellMs + current);
+                item.put("currentDwellMs", current);
+                item.put("enteredAt", inside ? state.enteredAt : null);
+                result.add(item);
+            });
         }
+        return result;
     }
     
-    /**
-     * 获取或计算围栏边界
-     * @param geofenceId 围栏ID
-     * @param points 围栏点列表
-     * @return 围栏边界
-     */
-    private GeofenceBounds getGeofenceBounds(Long geofenceId, List<Geofence.GeofencePoint> points) {
-        // 先查找缓存
-        if (geofenceBoundsCache.containsKey(geofenceId)) {
-            return geofenceBoundsCache.get(geofenceId);
+    private static List<GeofenceEvent> addEvent(List<GeofenceEvent> events, String type, String tag,
+                                                Geofence geofence, long time, long dwellMs) {
+        if (events == null) {
+            events = new ArrayList<>(2);
         }
-        
-        // 计算边界框
-        GeofenceBounds bounds = new GeofenceBounds(points);
-        
-        // 更新缓存
-        geofenceBoundsCache.put(geofenceId, bounds);
-        
-        return bounds;
+        events.add(new GeofenceEvent(type, tag, geofence.getId(), geofence.getMapId(), time, dwellMs));
+        return events;
     }
     
-    /**
-     * 检查点是否在多边形内（射线法）
-     * @param x 点的X坐标
-     * @param y 点的Y坐标
-     * @param polygon 多边形坐标点列表
-     * @return 是否在多边形内
-     */
-    private boolean isPointInPolygon(double x, double y, List<Geofence.GeofencePoint> polygon) {
-        boolean inside = false;
-        int i, j;
-        
-        for (i = 0, j = polygon.size() - 1; i < polygon.size(); j = i++) {
-            double xi = polygon.get(i).getX();
-            double yi = polygon.get(i).getY();
-            double xj = polygon.get(j).getX();
-            double yj = polygon.get(j).getY();
-            
-            boolean intersect = ((yi > y) != (yj > y)) && 
-                               (x < (xj - xi) * (y - yi) / (yj - yi) + xi);
-            if (intersect) {
-                inside = !inside;
+    private void publishEvents(List<GeofenceEvent> events) {
+        try {
+            for (GeofenceEvent event : events) {
+                clusterRelay.convertAndSend(EVENT_TOPIC, event);
             }
+        } catch (Exception e) {
+            logger.error("推送围栏事件失败: {}", e.getMessage());
         }
-        
-        return inside;
-    }
-    
-    /**
-     * 将米制坐标转换为像素X坐标
-     * @param meterX X坐标(米)
-     * @param mapInfo 地图信息
-     * @return 像素X坐标
-     */
-    private double meterToPixelX(double meterX, MapEntity mapInfo) {
-        return mapInfo.getOriginX() + meterX * mapInfo.getScale();
     }
     
     /**
-     * 将米制坐标转换为像素Y坐标
-     * @param meterY Y坐标(米)
-     * @param mapInfo 地图信息
-     * @return 像素Y坐标
+     * 关闭告警（标记已解决）
+     * @param alarmId 告警ID
      */
-    private double meterToPixelY(double meterY, MapEntity mapInfo) {
-        // Y轴方向相反，图片坐标向下为正，物理坐标向上为正
-        return mapInfo.getOriginY() - meterY * mapInfo.getScale();
+    private void closeAlarm(Long alarmId) {
+        try {
+            // 通过发件箱合并推送告警关闭通知
+            alarmOutbox.close(alarmId);
+            
+            logger.info("关闭围栏告警: ID={}", alarmId);
+        } catch (Exception e) {
+            logger.error("关闭告警失败: {}", e.getMessage());
+        }
     }
     
     /**
@@ -442,9 +660,10 @@ public class AlarmServiceImpl implements AlarmService {
      * @param trackingData 跟踪数据
      * @param geofence 围栏信息
      * @param mapInfo 地图信息
+     * @param time 报警时间（毫秒时间戳），取确认离开围栏前首次观察到在围栏外的时间
      * @return 报警对象
      */
-    private Alarm createAlarmFromTracking(TrackingData trackingData, Geofence geofence, MapEntity mapInfo) {
+    private Alarm createAlarmFromTracking(TrackingData trackingData, Geofence geofence, MapEntity mapInfo, long time) {
         Alarm alarm = new Alarm();
         
         // 设置基本信息
@@ -456,192 +675,34 @@ public class AlarmServiceImpl implements AlarmService {
         alarm.setX(trackingData.getX());
         alarm.setY(trackingData.getY());
         
-        // 设置时间，如果有时间戳则使用，否则使用当前时间
-        if (trackingData.getTimestamp() != null) {
-            try {
-                java.time.LocalDateTime localDateTime = TimestampUtils.parseTimestamp(trackingData.getTimestamp());
-                alarm.setTime(java.util.Date.from(localDateTime.atZone(java.time.ZoneId.systemDefault()).toInstant()));
-            } catch (Exception e) {
-                alarm.setTime(new Date());
-            }
-        } else {
-            alarm.setTime(new Date());
-        }
+        // 使用状态变化时间，而不是确认变化的点的时间，去抖延迟不计入报警时间
+        alarm.setTime(new Date(time));
         
-        // 保存报警记录到数据库，并仅在成功时记录日志
+        // 分配ID后交给发件箱异步写入数据库并推送通知
         try {
-            int result = alarmMapper.insert(alarm);
-            if (result > 0) {
-                // 只有成功插入数据库才记录日志
-                logger.info("围栏告警已保存: 标签={}, 围栏={}, 地图={}, 坐标=({},{})", 
-                          alarm.getAlarmTag(), alarm.getGeofenceName(), alarm.getMapName(),
-                          alarm.getX(), alarm.getY());
-                
-                // 通过WebSocket向前端发送告警通知
-                sendAlarmNotification(alarm);
-            }
-        } catch (Exception e) {
-            logger.error("保存围栏告警失败: {}", e.getMessage());
+            alarmOutbox.submit(alarm);
+        } catch (IllegalStateException e) {
+            // 无法分配ID，清除创建中标记，仍在围栏外时下一个点重新创建
+            logger.error("提交围栏告警失败: 标签={}, 围栏={}, {}", alarm.getAlarmTag(), alarm.getGeofenceName(), e.getMessage());
             return null;
         }
+        logger.info("围栏告警已提交: ID={}, 标签={}, 围栏={}, 地图={}, 坐标=({},{})", 
+                  alarm.getId(), alarm.getAlarmTag(), alarm.getGeofenceName(), alarm.getMapName(),
+                  alarm.getX(), alarm.getY());
         
         return alarm;
     }
     
     /**
-     * 通过WebSocket向前端发送告警通知
-     * @param alarm 告警对象
-     */
-    private void sendAlarmNotification(Alarm alarm) {
-        try {
-            // 创建通知消息对象
-            Map<String, Object> notification = new HashMap<>();
-            notification.put("type", "geofenceAlarm");
-            notification.put("title", "围栏告警");
-            notification.put("message", String.format("标签 %s 位于围栏 %s 外部", alarm.getAlarmTag(), alarm.getGeofenceName()));
-            notification.put("alarmId", alarm.getId());
-            notification.put("alarmTag", alarm.getAlarmTag());
-            notification.put("geofenceId", alarm.getGeofenceId());
-            notification.put("geofenceName", alarm.getGeofenceName());
-            notification.put("mapId", alarm.getMapId());
-            notification.put("mapName", alarm.getMapName());
-            
-            // 创建位置Map (Java 8兼容方式)
-            Map<String, Double> position = new HashMap<>();
-            position.put("x", alarm.getX());
-            position.put("y", alarm.getY());
-            notification.put("position", position);
-            
-            notification.put("time", alarm.getTime());
-            
-            // 发送WebSocket消息到特定主题
-            messagingTemplate.convertAndSend("/topic/alarmNotification", notification);
-            logger.info("已发送围栏告警通知: 标签={}, 围栏={}", alarm.getAlarmTag(), alarm.getGeofenceName());
-        } catch (Exception e) {
-            logger.error("发送告警通知失败: {}", e.getMessage());
-        }
-    }
-    
-    /**
-     * 从配置中更新超时时间
+     * 超时管理是否启用
      */
-    private void updateTimeoutFromConfig() {
+    private boolean isTimeoutEnabled() {
         try {
             TaskConfig config = taskConfigService.getTaskConfig();
-            if (config != null && config.getTimeoutTask() != null) {
-                if (config.getTimeoutTask().isEnabled()) {
-                    tagTimeout = config.getTimeoutTask().getTimeoutMs();
-                } else {
-                    // 如果禁用超时管理，设置一个很大的值
-                    tagTimeout = Long.MAX_VALUE;
-                }
-            }
+            return config == null || config.getTimeoutTask() == null || config.getTimeoutTask().isEnabled();
         } catch (Exception e) {
             logger.warn("获取超时配置失败，使用默认值: {}", e.getMessage());
-            // 使用默认值
-            tagTimeout = 30000;
-        }
-    }
-    
-    /**
-     * 获取地图对应的所有启用围栏
-     * @param mapId 地图ID
-     * @return 围栏列表
-     */
-    private List<Geofence> getGeofencesForMap(Long mapId) {
-        // 先查找缓存
-        if (geofenceCache.containsKey(mapId)) {
-            return geofenceCache.get(mapId);
-        }
-        
-        // 查询数据库
-        try {
-            List<Geofence> geofences = geofenceMapper.selectByMapIdAndEnabled(mapId, true);
-            // 更新缓存
-            geofenceCache.put(mapId, geofences);
-            return geofences;
-        } catch (Exception e) {
-            logger.error("获取地图围栏失败: {}", e.getMessage());
-            return Collections.emptyList();
-        }
-    }
-    
-    /**
-     * 获取地图信息
-     * @param mapId 地图ID
-     * @return 地图信息
-     */
-    private MapEntity getMapInfo(Long mapId) {
-        // 先查找缓存
-        if (mapCache.containsKey(mapId)) {
-            return mapCache.get(mapId);
-        }
-        
-        // 查询数据库
-        try {
-            MapEntity map = mapMapper.selectMapByMapId(mapId);
-            if (map != null) {
-                mapCache.put(mapId, map);
-            }
-            return map;
-        } catch (Exception e) {
-            logger.error("获取地图信息失败: {}", e.getMessage());
-            return null;
-        }
-    }
-    
-    /**
-     * 解析围栏坐标点
-     * @param geofence 围栏对象
-     * @return 坐标点列表
-     */
-    private List<Geofence.GeofencePoint> parseGeofencePoints(Geofence geofence) {
-        // 如果已经有解析好的点，直接返回
-        if (geofence.getPoints() != null && !geofence.getPoints().isEmpty()) {
-            return geofence.getPoints();
-        }
-        
-        // 解析JSON坐标字符串
-        try {
-            if (geofence.getCoordinates() == null || geofence.getCoordinates().isEmpty()) {
-                return Collections.emptyList();
-            }
-            
-            List<Geofence.GeofencePoint> points = objectMapper.readValue(
-                geofence.getCoordinates(), 
-                new TypeReference<List<Geofence.GeofencePoint>>() {}
-            );
-            
-            // 缓存解析结果
-            geofence.setPoints(points);
-            return points;
-        } catch (JsonProcessingException e) {
-            logger.error("解析围栏坐标失败: {}", e.getMessage());
-            return Collections.emptyList();
-        }
-    }
-    
-    /**
-     * 定期清理缓存，避免内存占用过多
-     */
-    private void cleanCacheIfNeeded() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastCacheCleanTime > CACHE_CLEAN_INTERVAL) {
-            try {
-                ALARM_LOCK.lock();
-                
-                // 清理地图和围栏缓存
-                geofenceCache.clear();
-                mapCache.clear();
-                geofenceBoundsCache.clear();
-                
-                // 不清理activeAlarms以维护告警状态
-                // 在实际应用中，可能需要查询数据库检查哪些告警已解决
-                
-                lastCacheCleanTime = currentTime;
-            } finally {
-                ALARM_LOCK.unlock();
-            }
+            return true;
         }
     }
-} 
\ No newline at end of file
+}
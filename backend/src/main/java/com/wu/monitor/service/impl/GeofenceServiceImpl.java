@@ -7,6 +7,7 @@ import com.wu.monitor.exception.ResourceNotFoundException;
 import com.wu.monitor.mapper.GeofenceMapper;
 import com.wu.monitor.model.Geofence;
 import com.wu.monitor.service.GeofenceService;
+import com.wu.monitor.service.GeofenceSnapshotCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -28,6 +29,9 @@ public class GeofenceServiceImpl implements GeofenceService {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private GeofenceSnapshotCache geofenceSnapshotCache;
+
     @Override
     public List<Geofence> getAllGeofences(String name, Long mapId, Boolean enabled) {
         log.info("查询电子围栏列表: name={}, mapId={}, enabled={}", name, mapId, enabled);
@@ -101,6 +105,7 @@ public class GeofenceServiceImpl implements GeofenceService {
             throw new RuntimeException("创建电子围栏失败");
         }
         
+        geofenceSnapshotCache.refresh();
         log.info("成功创建电子围栏: id={}, name={}", geofence.getId(), geofence.getName());
         return getGeofenceById(geofence.getId());
     }
@@ -132,6 +137,7 @@ public class GeofenceServiceImpl implements GeofenceService {
             throw new RuntimeException("更新电子围栏失败");
         }
         
+        geofenceSnapshotCache.refresh();
         log.info("成功更新电子围栏: id={}, name={}", geofence.getId(), geofence.getName());
         return getGeofenceById(geofence.getId());
     }
@@ -152,6 +158,7 @@ public class GeofenceServiceImpl implements GeofenceService {
             throw new RuntimeException("更新围栏状态失败");
         }
         
+        geofenceSnapshotCache.refresh();
         log.info("成功切换围栏启用状态: id={}, enabled={}", id, enabled);
         return getGeofenceById(id);
     }
@@ -172,6 +179,7 @@ public class GeofenceServiceImpl implements GeofenceService {
             throw new RuntimeException("删除电子围栏失败");
         }
         
+        geofenceSnapshotCache.refresh();
         log.info("成功删除电子围栏: id={}", id);
     }
 
@@ -185,6 +193,7 @@ public class GeofenceServiceImpl implements GeofenceService {
         }
         
         geofenceMapper.batchDeleteGeofences(ids);
+        geofenceSnapshotCache.refresh();
         log.info("成功批量删除电子围栏: count={}", ids.size());
     }
 
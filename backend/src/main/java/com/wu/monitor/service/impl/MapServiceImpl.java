@@ -2,6 +2,7 @@ package com.wu.monitor.service.impl;
 
 import com.wu.monitor.mapper.MapMapper;
 import com.wu.monitor.model.MapEntity;
+import com.wu.monitor.service.GeofenceSnapshotCache;
 import com.wu.monitor.service.MapService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,6 +24,9 @@ public class MapServiceImpl implements MapService {
     @Autowired
     private MapMapper mapMapper;
     
+    @Autowired
+    private GeofenceSnapshotCache geofenceSnapshotCache;
+    
     @Override
     public List<MapEntity> getAllMaps(String name) {
         return mapMapper.selectAllMaps(name);
@@ -61,6 +65,7 @@ public class MapServiceImpl implements MapService {
             
             // 保存到数据库
             mapMapper.insertMap(map);
+            geofenceSnapshotCache.refresh();
             return map;
         } catch (Exception e) {
             throw new RuntimeException("保存地图文件失败", e);
@@ -105,6 +110,7 @@ public class MapServiceImpl implements MapService {
         }
         
         mapMapper.updateMap(map);
+        geofenceSnapshotCache.refresh();
         return mapMapper.selectMapByMapId(mapId);
     }
     
@@ -116,6 +122,7 @@ public class MapServiceImpl implements MapService {
             new File(Paths.get(uploadPath, map.getImagePath()).toString()).delete();
         }
         mapMapper.deleteMapByMapId(mapId);
+        geofenceSnapshotCache.refresh();
     }
     
     @Override
@@ -130,6 +137,7 @@ public class MapServiceImpl implements MapService {
         
         // 批量删除数据库记录
         mapMapper.batchDeleteMapsByMapIds(mapIds);
+        geofenceSnapshotCache.refresh();
     }
     
     private String getFileExtension(String filename) {
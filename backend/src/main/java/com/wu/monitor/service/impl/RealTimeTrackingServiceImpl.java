@@ -1,25 +1,33 @@
 package com.wu.monitor.service.impl;
 
 import com.wu.monitor.model.TrackingData;
-import com.wu.monitor.mapper.TagMapper;
+import com.wu.monitor.service.AlarmOutbox;
+import com.wu.monitor.service.BinaryPositionSocketHandler;
+import com.wu.monitor.service.ClusterRelay;
 import com.wu.monitor.service.AlarmService;
+import com.wu.monitor.service.HeatmapService;
+import com.wu.monitor.service.PositionFanout;
 import com.wu.monitor.service.RealTimeTrackingService;
-import com.wu.monitor.service.TagService;
+import com.wu.monitor.service.TagLivenessTracker;
+import com.wu.monitor.service.TagRegistry;
+import com.wu.monitor.service.TagStatusWriteBehind;
+import com.wu.monitor.service.TrackingRedisBatchWriter;
+import com.wu.monitor.service.TrajectoryWriteBehind;
+import com.wu.monitor.util.TrackingRingBuffer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.data.redis.serializer.SerializationException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
@@ -27,32 +35,65 @@ import java.util.concurrent.TimeUnit;
 public class RealTimeTrackingServiceImpl implements RealTimeTrackingService {
     
     private final RedisTemplate<String, Object> redisTemplate;
-    private final SimpMessagingTemplate messagingTemplate;
-    private final TagService tagService;
-    private final TagMapper tagMapper;
+    private final RedisTemplate<String, TrackingData> trackingRedisTemplate;
+    private final PositionFanout positionFanout;
+    private final BinaryPositionSocketHandler binaryPositionSocketHandler;
+    private final TagRegistry tagRegistry;
     private final AlarmService alarmService; // 添加AlarmService依赖
+    private final TrackingRedisBatchWriter redisBatchWriter;
+    private final TagStatusWriteBehind tagStatusWriteBehind;
+    private final TagLivenessTracker tagLivenessTracker;
+    private final AlarmOutbox alarmOutbox;
+    private final TrajectoryWriteBehind trajectoryWriteBehind;
+    private final HeatmapService heatmapService;
+    private final ClusterRelay clusterRelay;
     
     // Redis key 前缀
     private static final String DEVICE_LATEST_PREFIX = "device:latest:";
     private static final String DEVICE_HISTORY_PREFIX = "device:history:";
     private static final String ACTIVE_DEVICES_KEY = "active:devices";
     
-    // 数据过期时间（秒）
-    private static final long DATA_EXPIRE_TIME = 3600; // 1小时
+    // 环形缓冲区槽位数
+    @Value("${tracking.pipeline.buffer-size:16384}")
+    private int bufferSize;
     
-    // 创建固定大小的线程池，处理批量数据
-    private ExecutorService executorService;
+    // 缓冲区满时写入端最长等待时间（毫秒）
+    @Value("${tracking.pipeline.publish-timeout-ms:50}")
+    private long publishTimeoutMs;
     
-    // 批处理大小
-    private static final int BATCH_SIZE = 50;
+    // 每个处理阶段的通道数，0表示使用可用处理器数量
+    @Value("${tracking.pipeline.lanes:0}")
+    private int laneCount;
+    
+    // 轨迹处理环形缓冲区
+    private TrackingRingBuffer ringBuffer;
     
     @PostConstruct
     public void init() {
-        // 创建一个适合处理高并发的线程池
-        // 线程数设置为可用处理器数量的2倍，以处理IO密集型任务
-        int processors = Runtime.getRuntime().availableProcessors();
-        executorService = Executors.newFixedThreadPool(processors * 2);
-        log.info("初始化线程池，线程数量: {}", processors * 2);
+        // 预分配槽位的环形缓冲区，替代无界队列的线程池
+        // 存储阶段先判断标签是否登记并写入Redis，标签更新和围栏检测两个阶段在其之后并行消费
+        // 每个阶段按设备ID哈希分通道，同一标签的数据始终在同一线程内按到达顺序处理
+        int lanes = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        ringBuffer = new TrackingRingBuffer(bufferSize, publishTimeoutMs);
+        TrackingRingBuffer.Stage persistStage = ringBuffer.addStage("persist", (slot, sequence, endOfBatch) -> persist(slot), lanes);
+        ringBuffer.addStage("tag", (slot, sequence, endOfBatch) -> {
+            if (slot.isRegistered()) {
+                tagLivenessTracker.touch(slot.getData().getDeviceId());
+                updateTagFromTrackingData(slot.getData());
+            }
+        }, lanes, persistStage);
+        ringBuffer.addStage("geofence", (slot, sequence, endOfBatch) -> {
+            if (slot.isRegistered() && slot.getData().getMapId() != null) {
+                alarmService.checkGeofenceIntrusion(slot.getData());
+            }
+        }, lanes, persistStage);
+        ringBuffer.start();
+        log.info("初始化轨迹处理环形缓冲区，槽位数量: {}，每阶段通道数: {}", ringBuffer.getStats().get("bufferSize"), lanes);
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        ringBuffer.shutdown(5000);
     }
     
     @Override
@@ -63,47 +104,13 @@ public class RealTimeTrackingServiceImpl implements RealTimeTrackingService {
                 return;
             }
             
-            String deviceId = trackingData.getDeviceId();
-                 // 先立即推送到前端，减少实时显示延迟
-        messagingTemplate.convertAndSend("/topic/pathData", trackingData);
-        
-        // 异步处理存储操作，避免阻塞实时推送
-        CompletableFuture.runAsync(() -> {
-            try {
-                // 检查标签是否已登记，如果未登记则不存储但不影响前端显示
-                if (!isTagRegistered(deviceId)) {
-                    log.debug("标签 {} 未在标签管理中登记，跳过存储操作", deviceId);
-                    return;
-                }
-                
-                // 保存最新位置
-                redisTemplate.opsForValue().set(
-                    DEVICE_LATEST_PREFIX + deviceId, 
-                    trackingData,
-                    DATA_EXPIRE_TIME,
-                    TimeUnit.SECONDS
-                );
-                
-                // 保存到历史记录
-                redisTemplate.opsForList().leftPush(DEVICE_HISTORY_PREFIX + deviceId, trackingData);
-                redisTemplate.opsForList().trim(DEVICE_HISTORY_PREFIX + deviceId, 0, 499); // 保留最近500条记录
-                
-                // 添加到活跃设备集合
-                redisTemplate.opsForSet().add(ACTIVE_DEVICES_KEY, deviceId);
-                
-                // 根据MAC地址更新标签状态和位置信息
-                updateTagFromTrackingData(trackingData);
-                
-                // 检查围栏告警 - 添加围栏检测逻辑
-                if (trackingData.getMapId() != null) {
-                    // 不再需要额外的同步，AlarmServiceImpl内部已经有锁机制
-                    alarmService.checkGeofenceIntrusion(trackingData);
-                }
-                
-            } catch (Exception e) {
-                log.error("异步处理存储操作异常: {}", e.getMessage(), e);
+            // 先立即按地图推送到前端，减少实时显示延迟
+            positionFanout.publish(trackingData);
+            
+            // 写入环形缓冲区，由各处理阶段异步完成存储，缓冲区满时丢弃并计数
+            if (!ringBuffer.publish(trackingData)) {
+                log.debug("轨迹处理缓冲区已满，丢弃数据: {}", trackingData.getDeviceId());
             }
-        }, executorService);
         } catch (Exception e) {
             log.error("处理单条轨迹数据异常", e);
         }
@@ -118,43 +125,58 @@ public class RealTimeTrackingServiceImpl implements RealTimeTrackingService {
         
         log.info("接收批量数据: {} 条", trackingDataList.size());
         
-        // 分批处理大量数据
-        int totalSize = trackingDataList.size();
-        int batchCount = (totalSize + BATCH_SIZE - 1) / BATCH_SIZE; // 向上取整
-        
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        
-        for (int i = 0; i < batchCount; i++) {
-            final int startIdx = i * BATCH_SIZE;
-            final int endIdx = Math.min(startIdx + BATCH_SIZE, totalSize);
-            List<TrackingData> batch = trackingDataList.subList(startIdx, endIdx);
-            
-            // 异步处理每个批次
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                processBatch(batch);
-            }, executorService);
-            
-            futures.add(future);
+        List<TrackingData> validList = new ArrayList<>(trackingDataList.size());
+        for (TrackingData trackingData : trackingDataList) {
+            if (trackingData != null && trackingData.getTimestamp() != null) {
+                positionFanout.publish(trackingData);
+                validList.add(trackingData);
+            }
         }
         
-        // 等待所有批次处理完成
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-            .exceptionally(ex -> {
-                log.error("批量处理发生异常", ex);
-                return null;
-            });
+        int published = ringBuffer.publishAll(validList);
+        if (published < validList.size()) {
+            log.warn("轨迹处理缓冲区已满，批量数据丢弃 {} 条", validList.size() - published);
+        }
     }
     
-    private void processBatch(List<TrackingData> batch) {
-        try {
-            for (TrackingData trackingData : batch) {
-                if (trackingData != null && trackingData.getTimestamp() != null) {
-                    receiveTrackingData(trackingData);
-                }
-            }
-        } catch (Exception e) {
-            log.error("处理批量数据异常", e);
+    @Override
+    public Map<String, Object> getPipelineStats() {
+        Map<String, Object> stats = ringBuffer.getStats();
+        stats.put("redisWriter", redisBatchWriter.getStats());
+        stats.put("tagStatusWriter", tagStatusWriteBehind.getStats());
+        stats.put("liveness", tagLivenessTracker.getStats());
+        stats.put("alarmOutbox", alarmOutbox.getStats());
+        stats.put("trajectoryWriter", trajectoryWriteBehind.getStats());
+        stats.put("heatmap", heatmapService.getStats());
+        stats.put("fanout", positionFanout.getStats());
+        stats.put("binaryPush", binaryPositionSocketHandler.getStats());
+        stats.put("cluster", clusterRelay.getStats());
+        return stats;
+    }
+    
+    /**
+     * 存储阶段：检查标签登记状态并提交到Redis批量写入和轨迹数据写入
+     * @param slot 缓冲区槽位
+     */
+    private void persist(TrackingRingBuffer.Slot slot) {
+        TrackingData trackingData = slot.getData();
+        String deviceId = trackingData.getDeviceId();
+        
+        // 检查标签是否已登记，如果未登记则不存储但不影响前端显示
+        if (!isTagRegistered(deviceId)) {
+            log.debug("标签 {} 未在标签管理中登记，跳过存储操作", deviceId);
+            return;
         }
+        slot.setRegistered(true);
+        
+        // 最新位置、历史记录和活跃设备集合由批量写入统一通过管道提交
+        redisBatchWriter.write(trackingData);
+        
+        // 每个定位点按采样和去重策略写入轨迹表
+        trajectoryWriteBehind.offer(trackingData);
+        
+        // 累加到地图热力图（不受轨迹采样影响）
+        heatmapService.record(trackingData);
     }
     
     @Override
@@ -165,12 +187,9 @@ public class RealTimeTrackingServiceImpl implements RealTimeTrackingService {
                 deviceId = deviceId.toLowerCase();
             }
             
-            return (TrackingData) redisTemplate.opsForValue().get(DEVICE_LATEST_PREFIX + deviceId);
-        } catch (ClassCastException e) {
-            log.error("类型转换异常: {}", e.getMessage());
-            // 从Redis中获取原始数据
-            Object rawData = redisTemplate.opsForValue().get(DEVICE_LATEST_PREFIX + deviceId);
-            log.warn("原始数据类型: {}", rawData != null ? rawData.getClass().getName() : "null");
+            return trackingRedisTemplate.opsForValue().get(DEVICE_LATEST_PREFIX + deviceId);
+        } catch (SerializationException e) {
+            log.error("最新位置数据反序列化异常: {}", e.getMessage());
             return null;
         }
     }
@@ -182,7 +201,7 @@ public class RealTimeTrackingServiceImpl implements RealTimeTrackingService {
             deviceId = deviceId.toLowerCase();
         }
         
-        List<Object> history = redisTemplate.opsForList().range(
+        List<TrackingData> history = trackingRedisTemplate.opsForList().range(
             DEVICE_HISTORY_PREFIX + deviceId,
             0,
             limit - 1
@@ -190,11 +209,9 @@ public class RealTimeTrackingServiceImpl implements RealTimeTrackingService {
         
         List<TrackingData> result = new ArrayList<>();
         if (history != null) {
-            for (Object item : history) {
-                try {
-                    result.add((TrackingData) item);
-                } catch (ClassCastException e) {
-                    log.error("历史数据类型转换异常: {}", e.getMessage());
+            for (TrackingData item : history) {
+                if (item != null) {
+                    result.add(item);
                 }
             }
         }
@@ -230,13 +247,8 @@ public class RealTimeTrackingServiceImpl implements RealTimeTrackingService {
      */
     private boolean isTagRegistered(String macAddress) {
         try {
-            // 确保MAC地址统一为小写
-            if (macAddress != null) {
-                macAddress = macAddress.toLowerCase();
-            }
-            
-            // 通过TagMapper直接查询数据库
-            return tagMapper.selectTagByMacAddress(macAddress) != null;
+            // 查询内存中的已登记标签注册表（不区分大小写）
+            return tagRegistry.isRegistered(macAddress);
         } catch (Exception e) {
             log.error("检查标签登记状态异常: {}", e.getMessage(), e);
             return false;
@@ -245,40 +257,12 @@ public class RealTimeTrackingServiceImpl implements RealTimeTrackingService {
     
     /**
      * 根据跟踪数据更新标签状态
+     * 只记录每个标签的最新状态，由合并写入服务定时批量写入数据库
      * @param trackingData 跟踪数据
      */
     private void updateTagFromTrackingData(TrackingData trackingData) {
         try {
-            String macAddress = trackingData.getDeviceId(); // deviceId即为MAC地址
-            // 确保MAC地址统一为小写
-            if (macAddress != null) {
-                macAddress = macAddress.toLowerCase();
-            }
-            
-            Double positionX = trackingData.getX();
-            Double positionY = trackingData.getY();
-            Double positionZ = 0.0; // 默认Z坐标为0，如果需要可以扩展
-            Integer rssi = trackingData.getRssi();
-            Integer batteryLevel = trackingData.getBattery();
-            Integer mapId = trackingData.getMapId(); // 从JSON数据中获取地图ID
-            
-            // 调用标签服务更新标签状态
-            boolean updated = tagService.updateTagStatusByMac(
-                macAddress, 
-                rssi, 
-                positionX, 
-                positionY, 
-                positionZ, 
-                batteryLevel,
-                mapId
-            );
-            
-            if (updated) {
-                log.debug("成功更新标签状态: MAC={}, X={}, Y={}, RSSI={}, Battery={}, MapId={}", 
-                         macAddress, positionX, positionY, rssi, batteryLevel, mapId);
-            } else {
-                log.debug("标签不存在或更新失败: MAC={}", macAddress);
-            }
+            tagStatusWriteBehind.offer(trackingData);
         } catch (Exception e) {
             log.error("更新标签状态异常: {}", e.getMessage(), e);
         }
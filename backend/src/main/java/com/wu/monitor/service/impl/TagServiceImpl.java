@@ -3,12 +3,11 @@ package com.wu.monitor.service.impl;
 import com.wu.monitor.exception.ResourceNotFoundException;
 import com.wu.monitor.mapper.TagMapper;
 import com.wu.monitor.model.Tag;
-import com.wu.monitor.model.TaskConfig;
+import com.wu.monitor.service.TagLivenessListener;
+import com.wu.monitor.service.TagRegistry;
 import com.wu.monitor.service.TagService;
-import com.wu.monitor.service.TaskConfigService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -18,13 +17,16 @@ import java.util.List;
 
 @Service
 @Slf4j
-public class TagServiceImpl implements TagService {
+public class TagServiceImpl implements TagService, TagLivenessListener {
+
+    // 离线状态单条UPDATE语句包含的最大标签数
+    private static final int OFFLINE_UPDATE_BATCH_SIZE = 500;
 
     @Autowired
     private TagMapper tagMapper;
     
     @Autowired
-    private TaskConfigService taskConfigService;
+    private TagRegistry tagRegistry;
 
     @Override
     public List<Tag> getAllTags(String name, String macAddress, Integer status) {
@@ -67,6 +69,7 @@ public class TagServiceImpl implements TagService {
         }
         
         tagMapper.insertTag(tag);
+        tagRegistry.refresh();
         return getTagById(tag.getId());
     }
 
@@ -94,6 +97,9 @@ public class TagServiceImpl implements TagService {
         
         tag.setId(id);
         tagMapper.updateTag(tag);
+        if (tag.getMacAddress() != null && !tag.getMacAddress().equals(existingTag.getMacAddress())) {
+            tagRegistry.refresh();
+        }
         return getTagById(id);
     }
 
@@ -105,12 +111,14 @@ public class TagServiceImpl implements TagService {
             throw new ResourceNotFoundException("标签不存在");
         }
         tagMapper.deleteTagById(id);
+        tagRegistry.refresh();
     }
 
     @Override
     @Transactional
     public void batchDeleteTags(List<Long> ids) {
         tagMapper.batchDeleteTags(ids);
+        tagRegistry.refresh();
     }
 
     @Override
@@ -151,13 +159,7 @@ public class TagServiceImpl implements TagService {
                 macAddress = macAddress.toLowerCase();
             }
             
-            // 检查标签是否存在
-            Tag existingTag = tagMapper.selectTagByMacAddress(macAddress);
-            if (existingTag == null) {
-                return false; // 标签不存在，返回false
-            }
-            
-            // 根据MAC地址更新标签状态和位置信息
+            // 根据MAC地址更新标签状态和位置信息，标签不存在时影响行数为0
             int affected = tagMapper.updateTagStatusByMac(
                 macAddress,
                 1, // 状态设为在线
@@ -221,6 +223,10 @@ public class TagServiceImpl implements TagService {
             }
         }
         
+        if (!importedTags.isEmpty()) {
+            tagRegistry.refresh();
+        }
+        
         log.info("批量导入完成，成功导入 {} 个标签，跳过 {} 个标签", 
                 importedTags.size(), tags.size() - importedTags.size());
         
@@ -241,23 +247,19 @@ public class TagServiceImpl implements TagService {
         }
     }
     
-    // 定时检查离线标签 - 每3秒执行一次
-    @Scheduled(fixedRate = 3000) // 3秒 = 3000毫秒
-    public void scheduleOfflineCheck() {
+    /**
+     * 标签超时离线时只更新发生状态变化的标签
+     */
+    @Override
+    public void onTagsOffline(List<String> macAddresses) {
         try {
-            // 获取超时配置
-            TaskConfig config = taskConfigService.getTaskConfig();
-            if (config != null && config.getTimeoutTask() != null && config.getTimeoutTask().isEnabled()) {
-                // 使用配置的超时时间
-                long timeoutMs = config.getTimeoutTask().getTimeoutMs();
-                checkAndUpdateOfflineTags(timeoutMs);
-            } else {
-                // 如果超时管理未启用，使用默认的30秒
-                checkAndUpdateOfflineTags(30000);
+            for (int from = 0; from < macAddresses.size(); from += OFFLINE_UPDATE_BATCH_SIZE) {
+                int to = Math.min(from + OFFLINE_UPDATE_BATCH_SIZE, macAddresses.size());
+                tagMapper.updateTagsOfflineByMac(macAddresses.subList(from, to));
             }
+            log.debug("将 {} 个标签设置为离线状态", macAddresses.size());
         } catch (Exception e) {
-            log.error("获取超时配置异常，使用默认30秒超时: {}", e.getMessage());
-            checkAndUpdateOfflineTags(30000);
+            log.error("更新离线标签状态异常: {}", e.getMessage(), e);
         }
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,167 +1,34 @@
 package com.wu.monitor.service.impl;
 
 import com.wu.monitor.mapper.TrajectoryStorageMapper;
-import com.wu.monitor.model.TrackingData;
+import com.wu.monitor.model.DeviceMinuteRollup;
+import com.wu.monitor.model.MapHourRollup;
 import com.wu.monitor.model.TrajectoryRecord;
+import com.wu.monitor.service.TrajectoryArchiveService;
 import com.wu.monitor.service.TrajectoryStorageService;
-import com.wu.monitor.util.TimestampUtils;
+import com.wu.monitor.util.TrajectoryDownsampler;
+import com.wu.monitor.util.TrajectorySegmentWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.apache.ibatis.cursor.Cursor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class TrajectoryStorageServiceImpl implements TrajectoryStorageService {
     
-    private final RedisTemplate<String, Object> redisTemplate;
     private final TrajectoryStorageMapper trajectoryStorageMapper;
-    
-    // Redis key前缀
-    private static final String DEVICE_HISTORY_PREFIX = "device:history:";
-    
-    @Override
-    public void processAndStore() {
-        try {
-            // 获取所有活跃设备
-            Set<Object> activeDevices = redisTemplate.opsForSet().members("active:devices");
-            if (activeDevices == null || activeDevices.isEmpty()) {
-                return;
-            }
-            
-            List<TrajectoryRecord> records = new ArrayList<>();
-            
-            for (Object device : activeDevices) {
-                String deviceId = (String) device;
-                
-                // 处理设备最新数据
-                TrajectoryRecord record = processDeviceLatestData(deviceId);
-                if (record != null) {
-                    records.add(record);
-                }
-            }
-            
-            if (!records.isEmpty()) {
-                // 确保分区存在
-                records.forEach(record -> ensurePartitionExists(record.getTimestamp()));
-                
-                // 批量插入数据库
-                trajectoryStorageMapper.insertBatch(records);
-                log.info("成功存储 {} 条轨迹记录", records.size());
-            }
-            
-        } catch (Exception e) {
-            log.error("处理轨迹数据异常", e);
-        }
-    }
-    
-    /**
-     * 处理单个设备的最新数据
-     */
-    private TrajectoryRecord processDeviceLatestData(String deviceId) {
-        try {
-            // 从Redis获取最新数据（索引0是最新的）
-            Object latestData = redisTemplate.opsForList().index(
-                DEVICE_HISTORY_PREFIX + deviceId, 0);
-            
-            if (latestData == null || !(latestData instanceof TrackingData)) {
-                return null;
-            }
-            
-            TrackingData trackingData = (TrackingData) latestData;
-            
-            // 转换为TrajectoryRecord
-            TrajectoryRecord record = convertToTrajectoryRecord(deviceId, trackingData);
-            
-            // 处理完成后完全清空Redis历史数据
-            redisTemplate.delete(DEVICE_HISTORY_PREFIX + deviceId);
-            
-            // 记录日志
-            log.info("设备 {} 存储了一条最新轨迹数据，时间: {}", deviceId, LocalDateTime.now());
-            
-            return record;
-            
-        } catch (Exception e) {
-            log.error("处理设备 {} 数据异常", deviceId, e);
-            return null;
-        }
-    }
-    
-    /**
-     * 将单个TrackingData转换为TrajectoryRecord
-     */
-    private TrajectoryRecord convertToTrajectoryRecord(String deviceId, TrackingData data) {
-        if (data.getTimestamp() == null) {
-            log.warn("设备 {} 的时间戳为空，丢弃该条轨迹数据", deviceId);
-            return null;
-        }
-        
-        // 校验时间戳格式
-        if (!isValidTimestampFormat(data.getTimestamp())) {
-            log.error("设备 {} 的时间戳格式不正确: {}，丢弃该条轨迹数据", deviceId, data.getTimestamp());
-            return null;
-        }
-            
-        try {
-            LocalDateTime timestamp = TimestampUtils.parseTimestamp(data.getTimestamp());
-            TrajectoryRecord record = new TrajectoryRecord();
-            record.setDeviceId(TrajectoryRecord.macStringToBytes(deviceId));
-            record.setMapId(data.getMapId());
-            record.setTimestamp(timestamp);
-            record.setX(data.getX() != null ? data.getX().floatValue() : null);
-            record.setY(data.getY() != null ? data.getY().floatValue() : null);
-            
-            return record;
-                
-        } catch (Exception e) {
-            log.error("转换轨迹数据异常: {}", e.getMessage(), e);
-            return null;
-        }
-    }
-    
-    /**
-     * 校验时间戳格式是否正确
-     * @param timestamp 时间戳字符串
-     * @return 如果格式正确返回true，否则返回false
-     */
-    private boolean isValidTimestampFormat(String timestamp) {
-        if (timestamp == null || timestamp.trim().isEmpty()) {
-            return false;
-        }
-        
-        try {
-            // 检查是否为纯数字（Unix时间戳）
-            if (timestamp.matches("^\\d+(\\.\\d+)?$")) {
-                // 验证时间戳是否在合理范围内（1970年到2100年）
-                String[] parts = timestamp.split("\\.");
-                long seconds = Long.parseLong(parts[0]);
-                
-                // 1970年1月1日到2100年12月31日的时间范围
-                long minSeconds = 0L; // 1970-01-01 00:00:00
-                long maxSeconds = 4102444800L; // 2100-01-01 00:00:00
-                
-                if (seconds < minSeconds || seconds > maxSeconds) {
-                    log.warn("时间戳 {} 超出合理范围 ({} - {})", timestamp, minSeconds, maxSeconds);
-                    return false;
-                }
-                
-                return true;
-            }
-            
-            // 如果不是纯数字格式，记录警告并返回false
-            log.warn("时间戳 {} 不是有效的Unix时间戳格式", timestamp);
-            return false;
-            
-        } catch (Exception e) {
-            log.error("校验时间戳格式时发生异常: {}", e.getMessage(), e);
-            return false;
-        }
-    }
+    private final TrajectoryArchiveService trajectoryArchiveService;
     
     @Override
     public List<TrajectoryRecord> getDeviceTrajectory(String deviceId, 
@@ -177,9 +44,27 @@ public class TrajectoryStorageServiceImpl implements TrajectoryStorageService {
         // 将MAC地址字符串转换为字节数组
         byte[] deviceIdBytes = TrajectoryRecord.macStringToBytes(deviceId);
         
-        // 直接使用传入的原始时间，不做任何转换处理
-        List<TrajectoryRecord> records = trajectoryStorageMapper.selectByDeviceId(deviceIdBytes, mapId, startTime, endTime, offset, size);
-        log.info("数据库查询结果: 找到{}条记录", records.size());
+        // 归档数据早于数据库中的数据，先从归档中跳过偏移量并取数
+        List<TrajectoryRecord> records = new ArrayList<>();
+        int[] archived = {0};
+        trajectoryArchiveService.forEach(deviceId, mapId, startTime, endTime, (id, pointMapId, second, x, y) -> {
+            if (archived[0] >= offset) {
+                if (records.size() == size) {
+                    return false;
+                }
+                records.add(toRecord(deviceIdBytes, id, pointMapId, second, x, y));
+            }
+            archived[0]++;
+            return true;
+        });
+        
+        // 归档不足一页时，从数据库补齐（偏移量扣除归档中已匹配的条数）
+        if (records.size() < size) {
+            // 直接使用传入的原始时间，不做任何转换处理
+            records.addAll(trajectoryStorageMapper.selectByDeviceId(deviceIdBytes, mapId, startTime, endTime,
+                Math.max(0, offset - archived[0]), size - records.size()));
+        }
+        log.info("查询结果: 找到{}条记录", records.size());
         
         // 查询后输出第一条和最后一条记录的时间，便于调试
         if (!records.isEmpty()) {
@@ -189,35 +74,274 @@ public class TrajectoryStorageServiceImpl implements TrajectoryStorageService {
                     first.getTimestamp(), last.getTimestamp());
         }
         
-        // 确保按时间戳正序排序（从最早到最晚）
-        records.sort((a, b) -> {
-            if (a.getTimestamp() == null && b.getTimestamp() == null) return 0;
-            if (a.getTimestamp() == null) return 1;
-            if (b.getTimestamp() == null) return -1;
-            return a.getTimestamp().compareTo(b.getTimestamp());
+        // SQL已按 (timestamp, id) 升序返回，无需再排序
+        return records;
+    }
+    
+    @Override
+    public Map<String, Object> getDeviceTrajectoryPage(String deviceId,
+                                                       Integer mapId,
+                                                       LocalDateTime startTime,
+                                                       LocalDateTime endTime,
+                                                       String cursor,
+                                                       int size) {
+        byte[] deviceIdBytes = TrajectoryRecord.macStringToBytes(deviceId);
+        
+        // 解析游标：上一页最后一条记录的 "时间_ID"
+        LocalDateTime afterTimestamp = null;
+        Long afterId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.lastIndexOf('_');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("无效的分页游标: " + cursor);
+            }
+            try {
+                afterTimestamp = LocalDateTime.parse(cursor.substring(0, separator));
+                afterId = Long.parseLong(cursor.substring(separator + 1));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("无效的分页游标: " + cursor);
+            }
+        }
+        
+        // 多查一条用于判断是否还有下一页，归档数据在前，不足时从数据库补齐
+        List<TrajectoryRecord> records = new ArrayList<>(Math.min(size + 1, 1024));
+        long afterSecond = afterTimestamp != null ? afterTimestamp.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE;
+        long afterRecordId = afterId != null ? afterId : Long.MIN_VALUE;
+        // 从游标位置开始读归档，跳过已翻过的日期；游标已超过最新归档日期时不再读归档
+        LocalDateTime archiveStart = afterTimestamp != null && (startTime == null || afterTimestamp.isAfter(startTime))
+            ? afterTimestamp : startTime;
+        LocalDate latestArchived = trajectoryArchiveService.getLatestArchivedDate();
+        if (latestArchived != null && (archiveStart == null || !archiveStart.toLocalDate().isAfter(latestArchived))) {
+            trajectoryArchiveService.forEach(deviceId, mapId, archiveStart, endTime, (id, pointMapId, second, x, y) -> {
+                if (second > afterSecond || (second == afterSecond && id > afterRecordId)) {
+                    records.add(toRecord(deviceIdBytes, id, pointMapId, second, x, y));
+                }
+                return records.size() <= size;
+            });
+        }
+        if (records.size() <= size) {
+            records.addAll(trajectoryStorageMapper.selectByDeviceIdAfter(
+                deviceIdBytes, mapId, startTime, endTime, afterTimestamp, afterId, size + 1 - records.size()));
+        }
+        boolean hasMore = records.size() > size;
+        if (hasMore) {
+            records.remove(size);
+        }
+        
+        String nextCursor = null;
+        if (hasMore) {
+            TrajectoryRecord last = records.get(records.size() - 1);
+            nextCursor = last.getTimestamp() + "_" + last.getId();
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("records", records);
+        result.put("hasMore", hasMore);
+        result.put("nextCursor", nextCursor);
+        return result;
+    }
+    
+    @Override
+    @Transactional(readOnly = true)
+    public long streamDeviceTrajectory(String deviceId,
+                                       Integer mapId,
+                                       LocalDateTime startTime,
+                                       LocalDateTime endTime,
+                                       Consumer<TrajectoryRecord> consumer) {
+        byte[] deviceIdBytes = TrajectoryRecord.macStringToBytes(deviceId);
+        long[] archived = {0};
+        trajectoryArchiveService.forEach(deviceId, mapId, startTime, endTime, (id, pointMapId, second, x, y) -> {
+            consumer.accept(toRecord(deviceIdBytes, id, pointMapId, second, x, y));
+            archived[0]++;
+            return true;
         });
+        long count = archived[0];
+        // 游标依赖事务内的数据库连接，逐行读取并交给调用方输出，不在内存中缓存结果集
+        try (Cursor<TrajectoryRecord> records = trajectoryStorageMapper.selectCursorByDeviceId(
+                deviceIdBytes, mapId, startTime, endTime)) {
+            for (TrajectoryRecord record : records) {
+                consumer.accept(record);
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("流式输出设备历史轨迹: 设备ID={}, 记录数={}", deviceId, count);
+        return count;
+    }
+    
+    @Override
+    @Transactional(readOnly = true)
+    public Map<String, Object> getDeviceTrajectoryPlayback(String deviceId,
+                                                           Integer mapId,
+                                                           LocalDateTime startTime,
+                                                           LocalDateTime endTime,
+                                                           int maxPoints,
+                                                           String method) {
+        TrajectoryDownsampler.Method downsampleMethod = TrajectoryDownsampler.Method.of(method);
+        int limit = Math.max(2, maxPoints);
+        byte[] deviceIdBytes = TrajectoryRecord.macStringToBytes(deviceId);
         
-        return records;
+        // 逐行读取到列式数组，不保留每行的记录对象
+        PointColumns points = new PointColumns();
+        trajectoryArchiveService.forEach(deviceId, mapId, startTime, endTime, (id, pointMapId, second, x, y) -> {
+            if (!Float.isNaN(x) && !Float.isNaN(y)) {
+                points.add(id, pointMapId, second, x, y);
+            }
+            return true;
+        });
+        try (Cursor<TrajectoryRecord> records = trajectoryStorageMapper.selectCursorByDeviceId(
+                deviceIdBytes, mapId, startTime, endTime)) {
+            for (TrajectoryRecord record : records) {
+                if (record.getX() != null && record.getY() != null && record.getTimestamp() != null) {
+                    points.add(record);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        
+        // 按地图拆分为连续的段，每段按点数比例分配配额，地图切换处的点不会被合并
+        List<TrajectoryRecord> result = new ArrayList<>(Math.min(points.size, limit));
+        int segments = 0;
+        for (int from = 0; from < points.size; ) {
+            int to = from + 1;
+            while (to < points.size && points.mapIds[to] == points.mapIds[from]) {
+                to++;
+            }
+            segments++;
+            int quota = Math.max(2, (int) ((long) limit * (to - from) / Math.max(1, points.size)));
+            appendSegment(points, from, to, quota, downsampleMethod, deviceIdBytes, result);
+            from = to;
+        }
+        
+        // 分段过多时各段的最少点数可能使总数超过上限，按等间隔再抽取一次
+        if (result.size() > limit) {
+            List<TrajectoryRecord> strided = new ArrayList<>(limit);
+            for (int k = 0; k < limit; k++) {
+                strided.add(result.get((int) ((long) k * (result.size() - 1) / (limit - 1))));
+            }
+            result = strided;
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("records", result);
+        response.put("method", downsampleMethod.name().toLowerCase());
+        response.put("totalPoints", points.size);
+        response.put("returnedPoints", result.size());
+        log.info("降采样轨迹回放: 设备ID={}, 方法={}, 原始点数={}, 返回点数={}, 分段数={}",
+                deviceId, downsampleMethod, points.size, result.size(), segments);
+        return response;
     }
     
     @Override
-    public void ensurePartitionExists(LocalDateTime timestamp) {
-        try {
-            java.time.LocalDate date = timestamp.toLocalDate();
-            
-            String partitionName = String.format("p%d%02d%02d", 
-                date.getYear(), date.getMonthValue(), date.getDayOfMonth());
-            
-            // 检查分区是否存在
-            int exists = trajectoryStorageMapper.checkPartitionExists(partitionName);
-            if (exists == 0) {
-                // 创建分区
-                trajectoryStorageMapper.createPartition(date);
-                log.info("自动创建分区: {}", partitionName);
+    public List<DeviceMinuteRollup> getDeviceMinuteRollup(String deviceId,
+                                                          Integer mapId,
+                                                          LocalDateTime startTime,
+                                                          LocalDateTime endTime,
+                                                          int limit) {
+        return trajectoryStorageMapper.selectDeviceMinuteRollup(
+            TrajectoryRecord.macStringToBytes(deviceId), mapId, startTime, endTime, limit);
+    }
+    
+    @Override
+    public List<MapHourRollup> getMapHourRollup(Integer mapId,
+                                                LocalDateTime startTime,
+                                                LocalDateTime endTime) {
+        return trajectoryStorageMapper.selectMapHourRollup(mapId, startTime, endTime);
+    }
+    
+    /**
+     * 将归档中的轨迹点转换为记录，空值标记还原为null
+     */
+    private static TrajectoryRecord toRecord(byte[] deviceIdBytes, long id, int mapId, long second, float x, float y) {
+        TrajectoryRecord record = new TrajectoryRecord();
+        record.setId(id);
+        record.setDeviceId(deviceIdBytes);
+        record.setMapId(mapId != TrajectorySegmentWriter.NO_MAP ? mapId : null);
+        record.setTimestamp(LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC));
+        record.setX(Float.isNaN(x) ? null : x);
+        record.setY(Float.isNaN(y) ? null : y);
+        return record;
+    }
+    
+    /**
+     * 对 [from, to) 区间降采样并追加到结果
+     */
+    private void appendSegment(PointColumns points, int from, int to, int quota,
+                               TrajectoryDownsampler.Method method, byte[] deviceIdBytes,
+                               List<TrajectoryRecord> result) {
+        if (method == TrajectoryDownsampler.Method.BUCKET) {
+            int[] starts = TrajectoryDownsampler.timeBuckets(points.seconds, from, to, quota);
+            for (int k = 0; k < starts.length; k++) {
+                int start = starts[k];
+                int end = k + 1 < starts.length ? starts[k + 1] : to;
+                // 桶内位置和时间取平均值，ID取桶内第一条记录
+                double sumX = 0;
+                double sumY = 0;
+                long sumSeconds = 0;
+                for (int i = start; i < end; i++) {
+                    sumX += points.xs[i];
+                    sumY += points.ys[i];
+                    sumSeconds += points.seconds[i] - points.seconds[start];
+                }
+                int count = end - start;
+                result.add(points.toRecord(start, deviceIdBytes,
+                    points.seconds[start] + sumSeconds / count, (float) (sumX / count), (float) (sumY / count)));
+            }
+            return;
+        }
+        int[] indexes = method == TrajectoryDownsampler.Method.VISVALINGAM
+            ? TrajectoryDownsampler.visvalingam(points.xs, points.ys, from, to, quota)
+            : TrajectoryDownsampler.douglasPeucker(points.xs, points.ys, from, to, quota);
+        for (int i : indexes) {
+            result.add(points.toRecord(i, deviceIdBytes, points.seconds[i], points.xs[i], points.ys[i]));
+        }
+    }
+    
+    /**
+     * 列式轨迹点缓冲，时间以UTC秒保存（与入库时一致）
+     */
+    private static class PointColumns {
+        long[] ids = new long[1024];
+        int[] mapIds = new int[1024];
+        long[] seconds = new long[1024];
+        float[] xs = new float[1024];
+        float[] ys = new float[1024];
+        int size;
+        
+        void add(TrajectoryRecord record) {
+            add(record.getId() != null ? record.getId() : 0,
+                record.getMapId() != null ? record.getMapId() : TrajectorySegmentWriter.NO_MAP,
+                record.getTimestamp().toEpochSecond(ZoneOffset.UTC), record.getX(), record.getY());
+        }
+        
+        void add(long id, int mapId, long second, float x, float y) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                mapIds = Arrays.copyOf(mapIds, capacity);
+                seconds = Arrays.copyOf(seconds, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
             }
-            
-        } catch (Exception e) {
-            log.error("创建分区异常", e);
+            ids[size] = id;
+            mapIds[size] = mapId;
+            seconds[size] = second;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+        
+        TrajectoryRecord toRecord(int index, byte[] deviceIdBytes, long second, float x, float y) {
+            TrajectoryRecord record = new TrajectoryRecord();
+            record.setId(ids[index]);
+            record.setDeviceId(deviceIdBytes);
+            record.setMapId(mapIds[index] != TrajectorySegmentWriter.NO_MAP ? mapIds[index] : null);
+            record.setTimestamp(LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC));
+            record.setX(x);
+            record.setY(y);
+            return record;
         }
     }
-} 
\ No newline at end of file
+}
@@ -2,19 +2,28 @@ package com.wu.monitor.task;
 
 import com.wu.monitor.mapper.TrajectoryStorageMapper;
 import com.wu.monitor.service.TaskConfigService;
+import com.wu.monitor.service.TrajectoryArchiveService;
+import com.wu.monitor.service.TrajectoryPartitionManager;
 import com.wu.monitor.model.TaskConfig;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 /**
  * 轨迹数据清理定时任务
  * 功能1：每天定时清理过期的轨迹数据（按保留天数）
  * 功能2：检查磁盘空间，当剩余空间低于阈值时清理最旧的数据
+ * 启用归档时，分区删除前先导出为压缩段文件，归档失败的分区不删除；
+ * 磁盘空间不足时，如果归档目录与被检查的磁盘是同一文件系统，直接删除分区而不归档，避免归档加剧空间不足。
+ * 每个分区删除后立即更新分区缓存，按天查询随即改读归档文件。
  */
 @Component
 @RequiredArgsConstructor
@@ -23,6 +32,12 @@ public class TrajectoryCleanupTask {
     
     private final TrajectoryStorageMapper trajectoryStorageMapper;
     private final TaskConfigService taskConfigService;
+    private final TrajectoryPartitionManager trajectoryPartitionManager;
+    private final TrajectoryArchiveService trajectoryArchiveService;
+    
+    // 分钟汇总保留天数，0表示不清理（小时汇总不清理）
+    @Value("${tracking.trajectory.rollup.minute-retention-days:90}")
+    private int minuteRollupRetentionDays;
     
     /**
      * 每天凌晨2点清理过期数据
@@ -58,9 +73,10 @@ public class TrajectoryCleanupTask {
             LocalDate currentDate = oldestPartitionDate;
             while (currentDate.isBefore(cutoffDate)) {
                 try {
-                    trajectoryStorageMapper.dropPartition(currentDate);
-                    log.info("已删除过期分区: {}", currentDate);
-                    deletedPartitions++;
+                    if (trajectoryPartitionManager.hasPartition(currentDate) && archiveAndDrop(currentDate, true)) {
+                        log.info("已删除过期分区: {}", currentDate);
+                        deletedPartitions++;
+                    }
                 } catch (Exception e) {
                     log.error("删除分区 {} 失败: {}", currentDate, e.getMessage());
                 }
@@ -68,11 +84,38 @@ public class TrajectoryCleanupTask {
                 currentDate = currentDate.plusDays(1);
             }
             
+            if (deletedPartitions > 0) {
+                trajectoryPartitionManager.reload();
+            }
             log.info("过期数据清理完成，共删除 {} 个分区", deletedPartitions);
             
         } catch (Exception e) {
             log.error("清理过期数据异常", e);
         }
+        cleanupMinuteRollup();
+    }
+    
+    /**
+     * 分批删除过期的分钟汇总，避免长时间锁表
+     */
+    private void cleanupMinuteRollup() {
+        if (minuteRollupRetentionDays <= 0) {
+            return;
+        }
+        try {
+            LocalDateTime before = LocalDate.now(ZoneOffset.UTC).minusDays(minuteRollupRetentionDays).atStartOfDay();
+            long deleted = 0;
+            int rows;
+            do {
+                rows = trajectoryStorageMapper.deleteMinuteRollupBefore(before, 10000);
+                deleted += rows;
+            } while (rows > 0);
+            if (deleted > 0) {
+                log.info("已清理 {} 之前的分钟汇总 {} 条", before, deleted);
+            }
+        } catch (Exception e) {
+            log.error("清理分钟汇总异常", e);
+        }
     }
     
     /**
@@ -114,6 +157,12 @@ public class TrajectoryCleanupTask {
             
             int deletedPartitions = 0;
             
+            // 归档目录在空间不足的磁盘上时，归档只会继续占用该磁盘
+            boolean archive = !trajectoryArchiveService.isOnSameFileStore(diskInfo.getPath());
+            if (trajectoryArchiveService.isEnabled() && !archive) {
+                log.warn("归档目录与空间不足的磁盘位于同一文件系统，本次清理的分区不归档直接删除");
+            }
+            
             // 循环删除最旧的分区，直到磁盘空间满足条件
             while (freePercentage < threshold) {
                 LocalDate oldestPartitionDate = trajectoryStorageMapper.getOldestPartitionDate();
@@ -124,7 +173,9 @@ public class TrajectoryCleanupTask {
                 }
                 
                 try {
-                    trajectoryStorageMapper.dropPartition(oldestPartitionDate);
+                    if (!archiveAndDrop(oldestPartitionDate, archive)) {
+                        break;
+                    }
                     log.info("已删除最旧分区: {}", oldestPartitionDate);
                     deletedPartitions++;
                     
@@ -153,6 +204,7 @@ public class TrajectoryCleanupTask {
             }
             
             if (deletedPartitions > 0) {
+                trajectoryPartitionManager.reload();
                 log.info("基于磁盘空间的清理完成，共删除 {} 个分区", deletedPartitions);
             }
             
@@ -161,6 +213,25 @@ public class TrajectoryCleanupTask {
         }
     }
     
+    /**
+     * 归档（启用时）并删除分区
+     * @param archive 是否归档，为false时直接删除
+     * @return 是否已删除，归档失败时保留分区并返回false
+     */
+    private boolean archiveAndDrop(LocalDate date, boolean archive) {
+        if (archive && trajectoryArchiveService.isEnabled()) {
+            if (!trajectoryArchiveService.archivePartition(date)) {
+                log.warn("分区 {} 归档失败，暂不删除", date);
+                return false;
+            }
+            // 归档已完整，先从分区缓存移除，删除分区期间的查询已改读归档文件
+            trajectoryPartitionManager.removePartition(date);
+        }
+        trajectoryStorageMapper.dropPartition(date);
+        trajectoryPartitionManager.removePartition(date);
+        return true;
+    }
+    
     /**
      * 获取磁盘空间信息
      * 优先使用数据库存储路径，如果无法获取则使用系统根目录
@@ -170,6 +241,7 @@ public class TrajectoryCleanupTask {
             // 尝试获取MySQL数据目录
             String dataDir = System.getProperty("user.dir");
             File diskPartition = new File(dataDir);
+            Path path = diskPartition.toPath();
             
             long totalSpace = diskPartition.getTotalSpace();
             long freeSpace = diskPartition.getFreeSpace();
@@ -181,7 +253,7 @@ public class TrajectoryCleanupTask {
             
             double usedPercentage = (usedSpace * 100.0) / totalSpace;
             
-            return new DiskSpaceInfo(totalSpace, usedSpace, freeSpace, usedPercentage);
+            return new DiskSpaceInfo(path, totalSpace, usedSpace, freeSpace, usedPercentage);
             
         } catch (Exception e) {
             log.error("获取磁盘空间信息失败", e);
@@ -193,18 +265,24 @@ public class TrajectoryCleanupTask {
      * 磁盘空间信息类
      */
     private static class DiskSpaceInfo {
+        private final Path path;
         private final long totalSpace;
         private final long usedSpace;
         private final long freeSpace;
         private final double usedPercentage;
         
-        public DiskSpaceInfo(long totalSpace, long usedSpace, long freeSpace, double usedPercentage) {
+        public DiskSpaceInfo(Path path, long totalSpace, long usedSpace, long freeSpace, double usedPercentage) {
+            this.path = path;
             this.totalSpace = totalSpace;
             this.usedSpace = usedSpace;
             this.freeSpace = freeSpace;
             this.usedPercentage = usedPercentage;
         }
         
+        public Path getPath() {
+            return path;
+        }
+        
         public double getUsedPercentage() {
             return usedPercentage;
         }
@@ -0,0 +1,243 @@
+package com.wu.monitor.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 围栏空间索引（均匀网格）
+ * 在所有围栏边界框的外包矩形上划分网格，每个网格记录与其相交的围栏序号，
+ * 查询时只需对点所在网格内的候选围栏做精确判断。
+ * 多边形预先编译为double数组，查询过程不创建对象。构建后只读，可被多线程共享。
+ */
+public class GeofenceSpatialIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    // 网格数与围栏数的目标比例，及单方向最大网格数
+    private static final int CELLS_PER_FENCE = 4;
+    private static final int MAX_CELLS_PER_AXIS = 256;
+
+    // 多边形顶点，xs[i]/ys[i]为第i个围栏的顶点坐标
+    private final double[][] xs;
+    private final double[][] ys;
+    // 每个围栏的边界框
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+
+    // 网格
+    private final double gridMinX;
+    private final double gridMinY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int cellsX;
+    private final int cellsY;
+    // 每个网格内的候选围栏序号，按升序排列
+    private final int[][] cells;
+
+    /**
+     * @param polygons 围栏多边形，每个数组依次存放 x0, y0, x1, y1, ...；顶点数少于3的围栏永远不包含任何点
+     */
+    public GeofenceSpatialIndex(List<double[]> polygons) {
+        int n = polygons.size();
+        xs = new double[n][];
+        ys = new double[n][];
+        minX = new double[n];
+        minY = new double[n];
+        maxX = new double[n];
+        maxY = new double[n];
+
+        double allMinX = Double.POSITIVE_INFINITY;
+        double allMinY = Double.POSITIVE_INFINITY;
+        double allMaxX = Double.NEGATIVE_INFINITY;
+        double allMaxY = Double.NEGATIVE_INFINITY;
+        int valid = 0;
+        for (int i = 0; i < n; i++) {
+            double[] polygon = polygons.get(i);
+            int count = polygon != null ? polygon.length / 2 : 0;
+            if (count < 3) {
+                xs[i] = new double[0];
+                ys[i] = new double[0];
+                // 空边界框，不会命中任何查询
+                minX[i] = Double.POSITIVE_INFINITY;
+                minY[i] = Double.POSITIVE_INFINITY;
+                maxX[i] = Double.NEGATIVE_INFINITY;
+                maxY[i] = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            double[] px = new double[count];
+            double[] py = new double[count];
+            double bMinX = Double.POSITIVE_INFINITY;
+            double bMinY = Double.POSITIVE_INFINITY;
+            double bMaxX = Double.NEGATIVE_INFINITY;
+            double bMaxY = Double.NEGATIVE_INFINITY;
+            for (int k = 0; k < count; k++) {
+                double x = polygon[k * 2];
+                double y = polygon[k * 2 + 1];
+                px[k] = x;
+                py[k] = y;
+                bMinX = Math.min(bMinX, x);
+                bMinY = Math.min(bMinY, y);
+                bMaxX = Math.max(bMaxX, x);
+                bMaxY = Math.max(bMaxY, y);
+            }
+            xs[i] = px;
+            ys[i] = py;
+            minX[i] = bMinX;
+            minY[i] = bMinY;
+            maxX[i] = bMaxX;
+            maxY[i] = bMaxY;
+            allMinX = Math.min(allMinX, bMinX);
+            allMinY = Math.min(allMinY, bMinY);
+            allMaxX = Math.max(allMaxX, bMaxX);
+            allMaxY = Math.max(allMaxY, bMaxY);
+            valid++;
+        }
+
+        if (valid == 0) {
+            gridMinX = 0;
+            gridMinY = 0;
+            cellWidth = 1;
+            cellHeight = 1;
+            cellsX = 0;
+            cellsY = 0;
+            cells = new int[0][];
+            return;
+        }
+
+        // 按外包矩形的长宽比划分网格，使网格接近正方形
+        double width = Math.max(allMaxX - allMinX, 1e-9);
+        double height = Math.max(allMaxY - allMinY, 1e-9);
+        double cellSize = Math.sqrt(width * height / Math.max(1, valid * CELLS_PER_FENCE));
+        gridMinX = allMinX;
+        gridMinY = allMinY;
+        cellsX = clamp((int) Math.ceil(width / cellSize));
+        cellsY = clamp((int) Math.ceil(height / cellSize));
+        cellWidth = width / cellsX;
+        cellHeight = height / cellsY;
+
+        List<List<Integer>> buckets = new ArrayList<>(cellsX * cellsY);
+        for (int c = 0; c < cellsX * cellsY; c++) {
+            buckets.add(null);
+        }
+        for (int i = 0; i < n; i++) {
+            if (xs[i].length == 0) {
+                continue;
+            }
+            int cx0 = cellX(minX[i]);
+            int cx1 = cellX(maxX[i]);
+            int cy0 = cellY(minY[i]);
+            int cy1 = cellY(maxY[i]);
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    int c = cy * cellsX + cx;
+                    List<Integer> bucket = buckets.get(c);
+                    if (bucket == null) {
+                        bucket = new ArrayList<>(2);
+                        buckets.set(c, bucket);
+                    }
+                    bucket.add(i);
+                }
+            }
+        }
+        cells = new int[cellsX * cellsY][];
+        for (int c = 0; c < cells.length; c++) {
+            List<Integer> bucket = buckets.get(c);
+            if (bucket == null) {
+                cells[c] = EMPTY;
+            } else {
+                int[] indexes = new int[bucket.size()];
+                for (int k = 0; k < indexes.length; k++) {
+                    indexes[k] = bucket.get(k);
+                }
+                cells[c] = indexes;
+            }
+        }
+    }
+
+    /**
+     * 围栏数量
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    /**
+     * 获取点所在网格的候选围栏序号（升序），返回的数组为内部数据，调用方不得修改
+     * @param x X坐标
+     * @param y Y坐标
+     * @return 候选围栏序号，点在所有围栏外包矩形之外时为空数组
+     */
+    public int[] candidates(double x, double y) {
+        if (cellsX == 0 || x < gridMinX || y < gridMinY
+                || x > gridMinX + cellWidth * cellsX || y > gridMinY + cellHeight * cellsY) {
+            return EMPTY;
+        }
+        return cells[cellY(y) * cellsX + cellX(x)];
+    }
+
+    /**
+     * 精确判断点是否在指定围栏内（先比较边界框，再用射线法）
+     * @param index 围栏序号
+     * @param x X坐标
+     * @param y Y坐标
+     * @return 是否在围栏内
+     */
+    public boolean contains(int index, double x, double y) {
+        if (x < minX[index] || x > maxX[index] || y < minY[index] || y > maxY[index]) {
+            return false;
+        }
+        double[] px = xs[index];
+        double[] py = ys[index];
+        boolean inside = false;
+        for (int i = 0, j = px.length - 1; i < px.length; j = i++) {
+            double xi = px[i];
+            double yi = py[i];
+            double xj = px[j];
+            double yj = py[j];
+            if (((yi > y) != (yj > y)) && (x < (xj - xi) * (y - yi) / (yj - yi) + xi)) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * 点到围栏边界的最短距离
+     * @param index 围栏序号
+     * @param x X坐标
+     * @param y Y坐标
+     * @return 距离，围栏无效时为正无穷
+     */
+    public double distanceToEdge(int index, double x, double y) {
+        double[] px = xs[index];
+        double[] py = ys[index];
+        double min2 = Double.POSITIVE_INFINITY;
+        for (int i = 0, j = px.length - 1; i < px.length; j = i++) {
+            double dx = px[i] - px[j];
+            double dy = py[i] - py[j];
+            double length2 = dx * dx + dy * dy;
+            double t = length2 > 0 ? ((x - px[j]) * dx + (y - py[j]) * dy) / length2 : 0;
+            t = t < 0 ? 0 : (t > 1 ? 1 : t);
+            double ex = px[j] + t * dx - x;
+            double ey = py[j] + t * dy - y;
+            min2 = Math.min(min2, ex * ex + ey * ey);
+        }
+        return Math.sqrt(min2);
+    }
+
+    private int cellX(double x) {
+        int cx = (int) ((x - gridMinX) / cellWidth);
+        return cx < 0 ? 0 : (cx >= cellsX ? cellsX - 1 : cx);
+    }
+
+    private int cellY(double y) {
+        int cy = (int) ((y - gridMinY) / cellHeight);
+        return cy < 0 ? 0 : (cy >= cellsY ? cellsY - 1 : cy);
+    }
+
+    private static int clamp(int cells) {
+        return Math.max(1, Math.min(MAX_CELLS_PER_AXIS, cells));
+    }
+}
@@ -0,0 +1,306 @@
+package com.wu.monitor.util;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 热力图网格
+ * 按地图像素坐标划分的等大单元格，每个单元格记录定位点数（int）和停留时长（秒，float），
+ * 多个时间段的网格逐元素相加即可合并。非线程安全，由调用方加锁。
+ *
+ * 文件格式（整体deflate压缩，只保存非零单元格）：
+ * 魔数(4) 版本(4) 列数(4) 行数(4) 单元格边长像素(4) 非零单元格数(4)，之后每个单元格：序号(4) 点数(4) 时长(4)
+ */
+public class HeatmapGrid {
+
+    // 文件魔数 "HEAT"
+    private static final int MAGIC = 0x48454154;
+    private static final int VERSION = 1;
+
+    /**
+     * 热力图指标
+     */
+    public enum Metric {
+        // 停留时长
+        DWELL,
+        // 定位点数
+        COUNT;
+
+        /**
+         * 按名称解析，不区分大小写
+         */
+        public static Metric of(String name) {
+            if (name == null || name.isEmpty() || "dwell".equalsIgnoreCase(name)) {
+                return DWELL;
+            }
+            if ("count".equalsIgnoreCase(name)) {
+                return COUNT;
+            }
+            throw new IllegalArgumentException("不支持的热力图指标: " + name);
+        }
+    }
+
+    private final int cols;
+    private final int rows;
+    private final float cellSize;
+    private final int[] counts;
+    private final float[] seconds;
+
+    /**
+     * @param cols 列数
+     * @param rows 行数
+     * @param cellSize 单元格边长（像素）
+     */
+    public HeatmapGrid(int cols, int rows, float cellSize) {
+        if (cols <= 0 || rows <= 0 || cellSize <= 0) {
+            throw new IllegalArgumentException("无效的热力图网格: " + cols + "x" + rows + ", " + cellSize);
+        }
+        this.cols = cols;
+        this.rows = rows;
+        this.cellSize = cellSize;
+        this.counts = new int[cols * rows];
+        this.seconds = new float[cols * rows];
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * 像素坐标所在单元格的序号
+     * @return 单元格序号，超出网格范围时返回-1
+     */
+    public int cellIndex(double pixelX, double pixelY) {
+        if (!(pixelX >= 0) || !(pixelY >= 0)) {
+            return -1;
+        }
+        int col = (int) (pixelX / cellSize);
+        int row = (int) (pixelY / cellSize);
+        if (col >= cols || row >= rows) {
+            return -1;
+        }
+        return row * cols + col;
+    }
+
+    public void addCount(int cell) {
+        counts[cell]++;
+    }
+
+    public void addSeconds(int cell, float value) {
+        seconds[cell] += value;
+    }
+
+    /**
+     * 判断与另一网格的尺寸是否一致
+     */
+    public boolean isCompatible(HeatmapGrid other) {
+        return cols == other.cols && rows == other.rows && cellSize == other.cellSize;
+    }
+
+    /**
+     * 逐单元格累加另一网格
+     * @return 尺寸不一致时不合并并返回false
+     */
+    public boolean merge(HeatmapGrid other) {
+        if (!isCompatible(other)) {
+            return false;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+            seconds[i] += other.seconds[i];
+        }
+        return true;
+    }
+
+    public HeatmapGrid copy() {
+        HeatmapGrid copy = new HeatmapGrid(cols, rows, cellSize);
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        System.arraycopy(seconds, 0, copy.seconds, 0, seconds.length);
+        return copy;
+    }
+
+    /**
+     * 写入压缩文件格式
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(output, deflater, 1 << 16);
+            DataOutputStream out = new DataOutputStream(deflated);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(cols);
+            out.writeInt(rows);
+            out.writeFloat(cellSize);
+            out.writeInt(nonZeroCells());
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0 || seconds[i] != 0) {
+                    out.writeInt(i);
+                    out.writeInt(counts[i]);
+                    out.writeFloat(seconds[i]);
+                }
+            }
+            out.flush();
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 读取压缩文件格式
+     */
+    public static HeatmapGrid readFrom(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new InflaterInputStream(input));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("无效的热力图文件");
+        }
+        HeatmapGrid grid = new HeatmapGrid(in.readInt(), in.readInt(), in.readFloat());
+        int n = in.readInt();
+        for (int k = 0; k < n; k++) {
+            int i = in.readInt();
+            if (i < 0 || i >= grid.counts.length) {
+                throw new IOException("无效的热力图单元格: " + i);
+            }
+            grid.counts[i] = in.readInt();
+            grid.seconds[i] = in.readFloat();
+        }
+        return grid;
+    }
+
+    /**
+     * 编码为紧凑二进制（大端，不压缩）：列数(4) 行数(4) 单元格边长(4) 最大值(4) 非零单元格数(4)，
+     * 之后每个单元格：序号(4) 值(4)
+     */
+    public byte[] toBinary(Metric metric) {
+        int n = nonZeroCells(metric);
+        ByteBuffer buffer = ByteBuffer.allocate(20 + n * 8);
+        buffer.putInt(cols).putInt(rows).putFloat(cellSize).putFloat(max(metric)).putInt(n);
+        for (int i = 0; i < counts.length; i++) {
+            float value = value(metric, i);
+            if (value != 0) {
+                buffer.putInt(i).putFloat(value);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 渲染为PNG，每个单元格一个像素，零值透明
+     * @param tileX 起始列
+     * @param tileY 起始行
+     * @param width 宽度（单元格数），超出网格部分裁剪
+     * @param height 高度（单元格数），超出网格部分裁剪
+     */
+    public byte[] toPng(Metric metric, int tileX, int tileY, int width, int height) {
+        int x0 = Math.max(0, Math.min(tileX, cols));
+        int y0 = Math.max(0, Math.min(tileY, rows));
+        int w = Math.max(1, Math.min(width, cols - x0));
+        int h = Math.max(1, Math.min(height, rows - y0));
+        // 平方根缩放，避免少数高值单元格使其余部分全部接近透明
+        double scale = Math.sqrt(max(metric));
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = new int[w * h];
+        for (int y = 0; y < h && y0 + y < rows; y++) {
+            for (int x = 0; x < w && x0 + x < cols; x++) {
+                float value = value(metric, (y0 + y) * cols + x0 + x);
+                if (value > 0 && scale > 0) {
+                    pixels[y * w + x] = color(Math.sqrt(value) / scale);
+                }
+            }
+        }
+        image.setRGB(0, 0, w, h, pixels, 0, w);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public float max(Metric metric) {
+        float max = 0;
+        for (int i = 0; i < counts.length; i++) {
+            max = Math.max(max, value(metric, i));
+        }
+        return max;
+    }
+
+    public boolean isEmpty() {
+        return nonZeroCells() == 0;
+    }
+
+    private float value(Metric metric, int cell) {
+        return metric == Metric.COUNT ? counts[cell] : seconds[cell];
+    }
+
+    private int nonZeroCells() {
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0 || seconds[i] != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private int nonZeroCells(Metric metric) {
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (value(metric, i) != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 蓝-青-绿-黄-红色阶，透明度随数值增加
+     * @param t 归一化值 (0, 1]
+     */
+    private static int color(double t) {
+        t = Math.max(0, Math.min(1, t));
+        double r;
+        double g;
+        double b;
+        if (t < 0.25) {
+            r = 0;
+            g = t / 0.25;
+            b = 1;
+        } else if (t < 0.5) {
+            r = 0;
+            g = 1;
+            b = 1 - (t - 0.25) / 0.25;
+        } else if (t < 0.75) {
+            r = (t - 0.5) / 0.25;
+            g = 1;
+            b = 0;
+        } else {
+            r = 1;
+            g = 1 - (t - 0.75) / 0.25;
+            b = 0;
+        }
+        int alpha = (int) (96 + 144 * t);
+        return alpha << 24 | (int) (r * 255) << 16 | (int) (g * 255) << 8 | (int) (b * 255);
+    }
+}
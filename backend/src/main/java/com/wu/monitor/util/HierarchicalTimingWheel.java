@@ -0,0 +1,178 @@
+package com.wu.monitor.util;
+
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮
+ * 每层64个槽位，第0层每槽一个刻度，第n层每槽覆盖64^n个刻度；定时项按到期刻度放入能容纳的最低层，
+ * 上层槽位在时间轮转到时整体下沉到低层，到达第0层当前槽位即到期。
+ * 定时项本身就是链表节点，调度和取消都是O(1)且不创建对象。
+ * 非线程安全，所有方法必须由同一线程调用。
+ */
+public class HierarchicalTimingWheel<T extends HierarchicalTimingWheel.Node> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /**
+     * 定时项，使用方继承该类附加自己的数据
+     */
+    public static class Node {
+        Node prev;
+        Node next;
+        long deadlineTick;
+        boolean scheduled;
+
+        public boolean isScheduled() {
+            return scheduled;
+        }
+    }
+
+    private final long tickMs;
+    private final int levels;
+    // 每个槽位是带哨兵节点的双向循环链表
+    private final Node[][] wheels;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMs 刻度长度（毫秒）
+     * @param levels 层数，可覆盖的最长定时为 tickMs * 64^levels
+     * @param startMs 起始时间（毫秒）
+     */
+    public HierarchicalTimingWheel(long tickMs, int levels, long startMs) {
+        if (tickMs <= 0 || levels <= 0 || levels * SLOT_BITS >= 63) {
+            throw new IllegalArgumentException("时间轮参数不正确");
+        }
+        this.tickMs = tickMs;
+        this.levels = levels;
+        this.wheels = new Node[levels][SLOTS];
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Node head = new Node();
+                head.prev = head;
+                head.next = head;
+                wheels[level][slot] = head;
+            }
+        }
+        this.currentTick = startMs / tickMs;
+    }
+
+    /**
+     * 调度定时项，已调度的定时项会先取消再按新时间调度
+     * @param node 定时项
+     * @param deadlineMs 到期时间（毫秒）
+     */
+    public void schedule(T node, long deadlineMs) {
+        if (node.scheduled) {
+            unlink(node);
+        }
+        // 向上取整到刻度，保证不会提前到期
+        long tick = deadlineMs / tickMs;
+        if (tick * tickMs < deadlineMs) {
+            tick++;
+        }
+        node.deadlineTick = tick;
+        place(node, false);
+        size++;
+    }
+
+    /**
+     * 取消定时项
+     * @return 定时项原先是否已调度
+     */
+    public boolean cancel(T node) {
+        if (!node.scheduled) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    /**
+     * 推进时间轮到指定时间，依次回调到期的定时项
+     * 回调中可以重新调度该定时项
+     * @param nowMs 当前时间（毫秒）
+     * @param expired 到期回调
+     */
+    @SuppressWarnings("unchecked")
+    public void advance(long nowMs, Consumer<T> expired) {
+        long targetTick = nowMs / tickMs;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // 从高层到低层依次下沉，上层下沉的定时项可能继续落入本刻度要下沉的低层槽位
+            for (int level = levels - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (level * SLOT_BITS)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (level * SLOT_BITS)) & SLOT_MASK));
+                }
+            }
+            Node head = wheels[0][(int) (currentTick & SLOT_MASK)];
+            while (head.next != head) {
+                Node node = head.next;
+                unlink(node);
+                if (node.deadlineTick <= currentTick) {
+                    expired.accept((T) node);
+                } else {
+                    // 超出最高层范围的定时项，重新放置
+                    place(node, false);
+                    size++;
+                }
+            }
+        }
+    }
+
+    /**
+     * 已调度的定时项数量
+     */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Node head = wheels[level][slot];
+        while (head.next != head) {
+            Node node = head.next;
+            unlink(node);
+            place(node, true);
+            size++;
+        }
+    }
+
+    /**
+     * @param inAdvance 是否在推进过程中下沉，此时第0层当前槽位尚未处理，已到期的定时项可以直接放入
+     */
+    private void place(Node node, boolean inAdvance) {
+        long delta = node.deadlineTick - currentTick;
+        Node head;
+        if (delta <= 0) {
+            // 已到期，放入尚未处理的最近槽位
+            head = wheels[0][(int) ((inAdvance ? currentTick : currentTick + 1) & SLOT_MASK)];
+        } else {
+            int level = 0;
+            while (level < levels - 1 && delta >= (1L << ((level + 1) * SLOT_BITS))) {
+                level++;
+            }
+            long tick = node.deadlineTick;
+            if (delta >= (1L << ((level + 1) * SLOT_BITS))) {
+                // 超出最高层范围，先放在最高层最远的槽位，下沉时再重新放置
+                tick = currentTick + (1L << ((level + 1) * SLOT_BITS)) - 1;
+            }
+            head = wheels[level][(int) ((tick >>> (level * SLOT_BITS)) & SLOT_MASK)];
+        }
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        node.scheduled = true;
+    }
+
+    private void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        node.scheduled = false;
+        size--;
+    }
+}
@@ -0,0 +1,82 @@
+package com.wu.monitor.util;
+
+import java.util.Arrays;
+
+/**
+ * long集合（开放寻址、线性探测）
+ * 元素直接存放在long数组中，查询不装箱、不创建对象。
+ * 不支持删除，变更时整体重建后替换引用，多线程只读访问是安全的。
+ */
+public class LongHashSet {
+
+    // 空槽位标记，集合中的元素不能为该值
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long[] table;
+    private final int mask;
+    private int size;
+
+    /**
+     * @param expectedSize 预计元素个数，容量按负载因子0.5向上取2的幂
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /**
+     * 添加元素
+     * @return 元素原先不存在时返回true
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            throw new IllegalArgumentException("不支持的元素值: " + value);
+        }
+        if (size * 2 >= table.length) {
+            throw new IllegalStateException("超出集合容量: " + size);
+        }
+        int i = index(value);
+        while (table[i] != EMPTY) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * 判断元素是否存在
+     */
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return false;
+        }
+        int i = index(value);
+        long current;
+        while ((current = table[i]) != EMPTY) {
+            if (current == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int index(long value) {
+        // 混合高低位，避免MAC地址厂商前缀相同时聚集
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
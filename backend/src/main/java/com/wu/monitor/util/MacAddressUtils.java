@@ -0,0 +1,115 @@
+package com.wu.monitor.util;
+
+/**
+ * MAC地址工具类
+ * 将6字节MAC地址打包为long（低48位），解析过程不创建任何对象
+ */
+public class MacAddressUtils {
+
+    // 无效MAC地址
+    public static final long INVALID = -1L;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * 解析MAC地址为long，支持冒号、短横线、空格分隔或不带分隔符，不区分大小写
+     * @param mac MAC地址字符串
+     * @return 低48位为MAC地址的long，格式不正确时返回INVALID
+     */
+    public static long parse(CharSequence mac) {
+        if (mac == null) {
+            return INVALID;
+        }
+        long value = 0;
+        int digits = 0;
+        for (int i = 0, n = mac.length(); i < n; i++) {
+            char c = mac.charAt(i);
+            if (c == ':' || c == '-' || c == ' ') {
+                continue;
+            }
+            int d = hexValue(c);
+            if (d < 0 || digits == 12) {
+                return INVALID;
+            }
+            value = (value << 4) | d;
+            digits++;
+        }
+        return digits == 12 ? value : INVALID;
+    }
+
+    /**
+     * 仅解析12位小写十六进制的紧凑格式（系统内部统一的设备ID格式）
+     * @param mac MAC地址字符串
+     * @return 低48位为MAC地址的long，不是紧凑格式时返回INVALID
+     */
+    public static long parseCompact(CharSequence mac) {
+        if (mac == null || mac.length() != 12) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < 12; i++) {
+            char c = mac.charAt(i);
+            int d;
+            if (c >= '0' && c <= '9') {
+                d = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                d = c - 'a' + 10;
+            } else {
+                return INVALID;
+            }
+            value = (value << 4) | d;
+        }
+        return value;
+    }
+
+    /**
+     * 将long格式化为12位小写十六进制的紧凑格式
+     */
+    public static String formatCompact(long mac) {
+        char[] chars = new char[12];
+        for (int i = 11; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[(int) (mac & 0xF)];
+            mac >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 将6字节数组转换为long
+     */
+    public static long fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != 6) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < 6; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 将long转换为6字节数组
+     */
+    public static byte[] toBytes(long mac) {
+        byte[] bytes = new byte[6];
+        for (int i = 5; i >= 0; i--) {
+            bytes[i] = (byte) mac;
+            mac >>>= 8;
+        }
+        return bytes;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
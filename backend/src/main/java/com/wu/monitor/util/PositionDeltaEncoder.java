@@ -0,0 +1,170 @@
+package com.wu.monitor.util;
+
+import com.wu.monitor.model.TrackingData;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 实时位置二进制增量编码，每个WebSocket会话一个实例，非线程安全
+ * 会话内为每个MAC分配一个小整数ID，坐标按厘米量化，只发送相对该会话上一次发送值的差值（新ID相对0，即绝对坐标）。
+ * 关键帧重置ID表，帧内所有标签重新定义并发送绝对坐标；差值基于量化后的已发送值计算，不会累积误差。
+ *
+ * 帧格式（变长整数为无符号LEB128，有符号值先做zigzag编码）：
+ * 类型(1字节，1=关键帧 2=增量帧) 地图ID(变长)
+ * 新ID数(变长)，之后每项：ID(变长) MAC(6字节)
+ * 位置数(变长)，之后每项：ID(变长) X(有符号变长) Y(有符号变长)
+ */
+public class PositionDeltaEncoder {
+
+    public static final byte KEYFRAME = 1;
+    public static final byte DELTA = 2;
+
+    // 坐标量化：每米100个单位（厘米）
+    public static final double UNITS_PER_METER = 100.0;
+
+    /**
+     * 会话内单个标签的状态
+     */
+    private static class TagSlot {
+        final int id;
+        final long mac;
+        // 上一次发送的量化坐标，新ID为0
+        int x;
+        int y;
+        // 是否已发送ID定义
+        boolean defined;
+
+        TagSlot(int id, long mac) {
+            this.id = id;
+            this.mac = mac;
+        }
+    }
+
+    private final int keyframeInterval;
+    private LongObjectHashMap<TagSlot> slots = new LongObjectHashMap<>();
+    private int nextId;
+    private int framesSinceKeyframe = -1;
+
+    // 编码缓冲区，每帧复用
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    // 本帧用到的标签及坐标，避免对同一帧内的数据重复解析和查表
+    private TagSlot[] frameSlots = new TagSlot[16];
+    private int[] frameX = new int[16];
+    private int[] frameY = new int[16];
+
+    /**
+     * @param keyframeInterval 每隔多少帧发送一次关键帧，第一帧总是关键帧
+     */
+    public PositionDeltaEncoder(int keyframeInterval) {
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+    }
+
+    /**
+     * 编码一帧
+     * @return 帧数据，没有可发送的位置时返回null
+     */
+    public byte[] encode(int mapId, List<TrackingData> points) {
+        boolean keyframe = framesSinceKeyframe < 0 || framesSinceKeyframe + 1 >= keyframeInterval;
+        if (keyframe) {
+            slots = new LongObjectHashMap<>(Math.max(8, points.size()));
+            nextId = 0;
+        }
+
+        int n = 0;
+        int definitions = 0;
+        ensureFrameCapacity(points.size());
+        for (TrackingData data : points) {
+            if (data.getX() == null || data.getY() == null) {
+                continue;
+            }
+            long mac = MacAddressUtils.parse(data.getDeviceId());
+            if (mac == MacAddressUtils.INVALID) {
+                continue;
+            }
+            TagSlot slot = slots.get(mac);
+            if (slot == null) {
+                slot = new TagSlot(nextId++, mac);
+                slots.put(mac, slot);
+                definitions++;
+            }
+            frameSlots[n] = slot;
+            frameX[n] = quantize(data.getX());
+            frameY[n] = quantize(data.getY());
+            n++;
+        }
+        if (n == 0) {
+            return null;
+        }
+
+        length = 0;
+        writeByte(keyframe ? KEYFRAME : DELTA);
+        writeVarint(mapId);
+        writeVarint(definitions);
+        if (definitions > 0) {
+            for (int i = 0; i < n; i++) {
+                TagSlot slot = frameSlots[i];
+                if (!slot.defined) {
+                    slot.defined = true;
+                    writeVarint(slot.id);
+                    for (int shift = 40; shift >= 0; shift -= 8) {
+                        writeByte((byte) (slot.mac >>> shift));
+                    }
+                }
+            }
+        }
+        writeVarint(n);
+        for (int i = 0; i < n; i++) {
+            TagSlot slot = frameSlots[i];
+            writeVarint(slot.id);
+            writeZigzag(frameX[i] - slot.x);
+            writeZigzag(frameY[i] - slot.y);
+            slot.x = frameX[i];
+            slot.y = frameY[i];
+            frameSlots[i] = null;
+        }
+        framesSinceKeyframe = keyframe ? 0 : framesSinceKeyframe + 1;
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * 当前ID表中的标签数
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    private static int quantize(double meters) {
+        return (int) Math.round(meters * UNITS_PER_METER);
+    }
+
+    private void ensureFrameCapacity(int size) {
+        if (frameSlots.length < size) {
+            int capacity = Math.max(size, frameSlots.length * 2);
+            frameSlots = new TagSlot[capacity];
+            frameX = new int[capacity];
+            frameY = new int[capacity];
+        }
+    }
+
+    private void writeZigzag(int value) {
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            writeByte((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((byte) value);
+    }
+
+    private void writeByte(byte value) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = value;
+    }
+}
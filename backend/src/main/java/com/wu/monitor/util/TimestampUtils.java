@@ -7,6 +7,9 @@ import java.time.LocalDateTime;
  */
 public class TimestampUtils {
     
+    // 合理时间戳上限（2100-01-01 00:00:00）
+    private static final long MAX_EPOCH_SECONDS = 4102444800L;
+    
     /**
      * 解析Unix时间戳为LocalDateTime
      * @param timestamp 时间戳字符串
@@ -29,4 +32,50 @@ public class TimestampUtils {
             return LocalDateTime.now();
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 解析Unix时间戳（秒，可带小数）为毫秒
+     * @return 毫秒时间戳，格式不正确或超出1970-2100范围时返回-1
+     */
+    public static long parseEpochMillis(String timestamp) {
+        if (timestamp == null) {
+            return -1;
+        }
+        int n = timestamp.length();
+        int i = 0;
+        while (i < n && timestamp.charAt(i) == ' ') {
+            i++;
+        }
+        long seconds = 0;
+        int digits = 0;
+        for (; i < n; i++) {
+            char c = timestamp.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            seconds = seconds * 10 + (c - '0');
+            if (++digits > 10) {
+                return -1;
+            }
+        }
+        if (digits == 0 || seconds > MAX_EPOCH_SECONDS) {
+            return -1;
+        }
+        long millis = 0;
+        if (i < n && timestamp.charAt(i) == '.') {
+            int scale = 100;
+            for (i++; i < n; i++) {
+                char c = timestamp.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                millis += (c - '0') * scale;
+                scale /= 10;
+            }
+        }
+        while (i < n && timestamp.charAt(i) == ' ') {
+            i++;
+        }
+        return i == n ? seconds * 1000 + millis : -1;
+    }
+}
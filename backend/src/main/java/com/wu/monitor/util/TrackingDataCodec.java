@@ -0,0 +1,215 @@
+package com.wu.monitor.util;
+
+import com.wu.monitor.model.TrackingData;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 轨迹数据定长二进制编解码
+ * 格式（大端）：
+ * 魔数(1) 版本(1) 字段标志(2) 设备ID(6字节MAC，或2字节长度+UTF-8) X(double) Y(double)
+ * RSSI(short) 电量(short) 地图ID(int) 时间戳(epoch毫秒long，或2字节长度+原始字符串)
+ * 为空的字段不写入，由字段标志标识
+ * 版本1的坐标为float，会丢失精度（12.34 读回为 12.34000015258789），仅保留解码以读取已缓存的旧数据
+ */
+public class TrackingDataCodec {
+
+    // 魔数，取值不会出现在JSON文本的首字节，用于区分旧版JSON数据
+    public static final byte MAGIC = (byte) 0xA7;
+
+    private static final byte VERSION = 2;
+
+    // 坐标为float的旧版本
+    private static final byte VERSION_FLOAT_COORDS = 1;
+
+    private static final int HEADER_SIZE = 4;
+
+    // 字段标志
+    private static final int F_DEVICE_MAC = 1;
+    private static final int F_DEVICE_RAW = 1 << 1;
+    private static final int F_X = 1 << 2;
+    private static final int F_Y = 1 << 3;
+    private static final int F_RSSI = 1 << 4;
+    private static final int F_BATTERY = 1 << 5;
+    private static final int F_MAP_ID = 1 << 6;
+    private static final int F_TIMESTAMP_MILLIS = 1 << 7;
+    private static final int F_TIMESTAMP_RAW = 1 << 8;
+
+    /**
+     * 判断字节数组是否为本编码格式
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes != null && bytes.length >= HEADER_SIZE && bytes[0] == MAGIC;
+    }
+
+    /**
+     * 编码轨迹数据
+     * @param data 轨迹数据
+     * @return 编码后的字节数组
+     */
+    public static byte[] encode(TrackingData data) {
+        int flags = 0;
+        int size = HEADER_SIZE;
+
+        String deviceId = data.getDeviceId();
+        long mac = MacAddressUtils.parseCompact(deviceId);
+        byte[] rawDeviceId = null;
+        if (mac != MacAddressUtils.INVALID) {
+            flags |= F_DEVICE_MAC;
+            size += 6;
+        } else if (deviceId != null) {
+            flags |= F_DEVICE_RAW;
+            rawDeviceId = deviceId.getBytes(StandardCharsets.UTF_8);
+            size += 2 + rawDeviceId.length;
+        }
+        if (data.getX() != null) {
+            flags |= F_X;
+            size += 8;
+        }
+        if (data.getY() != null) {
+            flags |= F_Y;
+            size += 8;
+        }
+        if (data.getRssi() != null) {
+            flags |= F_RSSI;
+            size += 2;
+        }
+        if (data.getBattery() != null) {
+            flags |= F_BATTERY;
+            size += 2;
+        }
+        if (data.getMapId() != null) {
+            flags |= F_MAP_ID;
+            size += 4;
+        }
+
+        String timestamp = data.getTimestamp();
+        long millis = TimestampUtils.parseEpochMillis(timestamp);
+        byte[] rawTimestamp = null;
+        if (millis >= 0) {
+            flags |= F_TIMESTAMP_MILLIS;
+            size += 8;
+        } else if (timestamp != null) {
+            flags |= F_TIMESTAMP_RAW;
+            rawTimestamp = timestamp.getBytes(StandardCharsets.UTF_8);
+            size += 2 + rawTimestamp.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC).put(VERSION).putShort((short) flags);
+        if ((flags & F_DEVICE_MAC) != 0) {
+            putMac(buffer, mac);
+        } else if (rawDeviceId != null) {
+            buffer.putShort((short) rawDeviceId.length).put(rawDeviceId);
+        }
+        if ((flags & F_X) != 0) {
+            buffer.putDouble(data.getX());
+        }
+        if ((flags & F_Y) != 0) {
+            buffer.putDouble(data.getY());
+        }
+        if ((flags & F_RSSI) != 0) {
+            buffer.putShort(data.getRssi().shortValue());
+        }
+        if ((flags & F_BATTERY) != 0) {
+            buffer.putShort(data.getBattery().shortValue());
+        }
+        if ((flags & F_MAP_ID) != 0) {
+            buffer.putInt(data.getMapId());
+        }
+        if ((flags & F_TIMESTAMP_MILLIS) != 0) {
+            buffer.putLong(millis);
+        } else if (rawTimestamp != null) {
+            buffer.putShort((short) rawTimestamp.length).put(rawTimestamp);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 解码轨迹数据
+     * @param bytes 编码后的字节数组
+     * @return 轨迹数据
+     */
+    public static TrackingData decode(byte[] bytes) {
+        if (!isEncoded(bytes)) {
+            throw new IllegalArgumentException("不是有效的轨迹数据二进制格式");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get();
+        byte version = buffer.get();
+        if (version != VERSION && version != VERSION_FLOAT_COORDS) {
+            throw new IllegalArgumentException("不支持的轨迹数据编码版本: " + version);
+        }
+        int flags = buffer.getShort() & 0xFFFF;
+
+        TrackingData data = new TrackingData();
+        if ((flags & F_DEVICE_MAC) != 0) {
+            data.setDeviceId(MacAddressUtils.formatCompact(getMac(buffer)));
+        } else if ((flags & F_DEVICE_RAW) != 0) {
+            data.setDeviceId(getString(buffer));
+        }
+        if ((flags & F_X) != 0) {
+            data.setX(getCoordinate(buffer, version));
+        }
+        if ((flags & F_Y) != 0) {
+            data.setY(getCoordinate(buffer, version));
+        }
+        if ((flags & F_RSSI) != 0) {
+            data.setRssi((int) buffer.getShort());
+        }
+        if ((flags & F_BATTERY) != 0) {
+            data.setBattery((int) buffer.getShort());
+        }
+        if ((flags & F_MAP_ID) != 0) {
+            data.setMapId(buffer.getInt());
+        }
+        if ((flags & F_TIMESTAMP_MILLIS) != 0) {
+            data.setTimestamp(formatTimestampMillis(buffer.getLong()));
+        } else if ((flags & F_TIMESTAMP_RAW) != 0) {
+            data.setTimestamp(getString(buffer));
+        }
+        return data;
+    }
+
+    private static double getCoordinate(ByteBuffer buffer, byte version) {
+        return version == VERSION_FLOAT_COORDS ? buffer.getFloat() : buffer.getDouble();
+    }
+
+    /**
+     * 将毫秒格式化为Unix时间戳字符串，整秒时不带小数部分
+     */
+    static String formatTimestampMillis(long millis) {
+        long seconds = millis / 1000;
+        int fraction = (int) (millis % 1000);
+        if (fraction == 0) {
+            return Long.toString(seconds);
+        }
+        StringBuilder sb = new StringBuilder(24).append(seconds).append('.');
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction).toString();
+    }
+
+    private static void putMac(ByteBuffer buffer, long mac) {
+        buffer.putShort((short) (mac >>> 32));
+        buffer.putInt((int) mac);
+    }
+
+    private static long getMac(ByteBuffer buffer) {
+        long high = buffer.getShort() & 0xFFFFL;
+        long low = buffer.getInt() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,436 @@
+package com.wu.monitor.util;
+
+import com.wu.monitor.model.TrackingData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 轨迹数据环形缓冲区
+ * 启动时预分配全部槽位并复用其中的TrackingData对象，多个写入线程以CAS认领序号，认领前确认槽位已被所有阶段释放，
+ * 写满时在不持有任何锁的情况下等待，不会阻塞其他写入线程；写入槽位后按序号顺序依次发布。
+ * 多个消费阶段各自维护消费序号，按依赖关系顺序处理同一批槽位。
+ * 每个阶段可拆分为多条工作通道，按设备ID哈希固定分配通道，同一设备的数据始终由同一线程按序处理，
+ * 不同设备之间完全并行。
+ * 缓冲区写满时每次发布最多等待publishTimeoutMs，超时后丢弃并计数；批量发布在第一次超时后直接丢弃剩余数据，
+ * 单次调用的等待时间有界。
+ */
+public class TrackingRingBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(TrackingRingBuffer.class);
+
+    // 消费阶段空闲时的休眠时间（纳秒）
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    // 写入端等待空位时的休眠时间（纳秒）
+    private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * 缓冲区槽位，除轨迹数据外还携带各阶段之间传递的处理结果
+     */
+    public static class Slot {
+        private final TrackingData data = new TrackingData();
+        private int hash;
+        private boolean registered;
+
+        public TrackingData getData() {
+            return data;
+        }
+
+        public boolean isRegistered() {
+            return registered;
+        }
+
+        public void setRegistered(boolean registered) {
+            this.registered = registered;
+        }
+
+        void reset(TrackingData source) {
+            data.copyFrom(source);
+            String deviceId = source.getDeviceId();
+            int h = deviceId != null ? deviceId.hashCode() : 0;
+            hash = h ^ (h >>> 16);
+            registered = false;
+        }
+    }
+
+    /**
+     * 消费阶段处理器
+     * 槽位在所有阶段处理完成后会被复用，处理器不能在onSlot返回后继续持有槽位或其中的数据对象。
+     * 多通道阶段中同一处理器会被多个线程调用，但同一设备的数据只会出现在同一线程中。
+     */
+    public interface SlotHandler {
+        /**
+         * 处理一个槽位
+         * @param slot 槽位
+         * @param sequence 序号
+         * @param endOfBatch 是否为本次可处理批次中的最后一个
+         */
+        void onSlot(Slot slot, long sequence, boolean endOfBatch) throws Exception;
+
+        /**
+         * 没有可处理数据时回调，可用于刷新暂存数据
+         */
+        default void onIdle() {
+        }
+    }
+
+    /**
+     * 消费阶段，由一条或多条工作通道组成
+     */
+    public final class Stage {
+        private final String name;
+        private final SlotHandler handler;
+        private final Lane[] lanes;
+
+        private Stage(String name, SlotHandler handler, int laneCount, AtomicLong[] barrier) {
+            this.name = name;
+            this.handler = handler;
+            this.lanes = new Lane[laneCount];
+            for (int i = 0; i < laneCount; i++) {
+                lanes[i] = new Lane(this, i, barrier);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getLaneCount() {
+            return lanes.length;
+        }
+    }
+
+    /**
+     * 工作通道，单线程按序号顺序处理分配给本通道的槽位，其余槽位直接跳过
+     */
+    private final class Lane implements Runnable {
+        private final Stage stage;
+        private final int index;
+        private final AtomicLong sequence = new AtomicLong(-1);
+        private final AtomicLong[] barrier;
+        private final AtomicLong processedCount = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private Thread thread;
+
+        private Lane(Stage stage, int index, AtomicLong[] barrier) {
+            this.stage = stage;
+            this.index = index;
+            this.barrier = barrier;
+        }
+
+        @Override
+        public void run() {
+            int laneCount = stage.lanes.length;
+            SlotHandler handler = stage.handler;
+            long next = sequence.get() + 1;
+            while (true) {
+                long available = minimumOf(barrier);
+                if (available >= next) {
+                    long processed = 0;
+                    long pending = -1;
+                    for (long s = next; s <= available; s++) {
+                        if (laneCount > 1 && Math.floorMod(slots[(int) (s & mask)].hash, laneCount) != index) {
+                            continue;
+                        }
+                        // 延后一个处理，保证本通道批次中的最后一个槽位收到endOfBatch
+                        if (pending >= 0) {
+                            dispatch(handler, pending, false);
+                        }
+                        pending = s;
+                        processed++;
+                    }
+                    if (pending >= 0) {
+                        dispatch(handler, pending, true);
+                    }
+                    processedCount.addAndGet(processed);
+                    sequence.set(available);
+                    next = available + 1;
+                } else {
+                    try {
+                        handler.onIdle();
+                    } catch (Exception e) {
+                        log.error("轨迹处理阶段 {}[{}] 空闲回调异常: {}", stage.name, index, e.getMessage(), e);
+                    }
+                    // 已停止且所有已发布数据都处理完毕时退出
+                    if (!running && next > cursor.get() && claimed.get() == cursor.get()) {
+                        return;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        }
+
+        private void dispatch(SlotHandler handler, long s, boolean endOfBatch) {
+            try {
+                handler.onSlot(slots[(int) (s & mask)], s, endOfBatch);
+            } catch (Exception e) {
+                errorCount.incrementAndGet();
+                log.error("轨迹处理阶段 {}[{}] 处理序号 {} 异常: {}", stage.name, index, s, e.getMessage(), e);
+            }
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final long publishTimeoutNanos;
+
+    // 已发布的最大序号，之前的序号都已发布
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    // 写入端已认领的最大序号
+    private final AtomicLong claimed = new AtomicLong(-1);
+
+    // 写入端缓存的最慢消费序号，只会增大，读到旧值时重新计算
+    private volatile long cachedGatingSequence = -1;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private AtomicLong[] gatingSequences = new AtomicLong[0];
+    private volatile boolean running;
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @param bufferSize 槽位数量，会向上取整为2的幂
+     * @param publishTimeoutMs 缓冲区满时写入端最长等待时间（毫秒），为0时立即丢弃
+     */
+    public TrackingRingBuffer(int bufferSize, long publishTimeoutMs) {
+        if (bufferSize < 2) {
+            throw new IllegalArgumentException("环形缓冲区大小至少为2");
+        }
+        int size = Integer.highestOneBit(bufferSize - 1) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.publishTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, publishTimeoutMs));
+    }
+
+    /**
+     * 添加单通道消费阶段，必须在start之前调用
+     * @param name 阶段名称
+     * @param handler 处理器
+     * @param dependsOn 依赖的上游阶段，为空时直接消费写入端发布的数据
+     * @return 新增的阶段
+     */
+    public Stage addStage(String name, SlotHandler handler, Stage... dependsOn) {
+        return addStage(name, handler, 1, dependsOn);
+    }
+
+    /**
+     * 添加按设备分通道的消费阶段，必须在start之前调用
+     * @param name 阶段名称
+     * @param handler 处理器，会被各通道线程并发调用
+     * @param laneCount 通道数量
+     * @param dependsOn 依赖的上游阶段，为空时直接消费写入端发布的数据
+     * @return 新增的阶段
+     */
+    public synchronized Stage addStage(String name, SlotHandler handler, int laneCount, Stage... dependsOn) {
+        if (running) {
+            throw new IllegalStateException("环形缓冲区已启动，不能再添加处理阶段");
+        }
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("处理阶段通道数量至少为1");
+        }
+        List<AtomicLong> barrier = new ArrayList<>();
+        if (dependsOn == null || dependsOn.length == 0) {
+            barrier.add(cursor);
+        } else {
+            for (Stage upstream : dependsOn) {
+                for (Lane lane : upstream.lanes) {
+                    barrier.add(lane.sequence);
+                }
+            }
+        }
+        Stage stage = new Stage(name, handler, laneCount, barrier.toArray(new AtomicLong[0]));
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * 启动所有消费阶段
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        List<AtomicLong> gating = new ArrayList<>();
+        for (Stage stage : stages) {
+            for (Lane lane : stage.lanes) {
+                gating.add(lane.sequence);
+            }
+        }
+        gatingSequences = gating.toArray(new AtomicLong[0]);
+        running = true;
+        for (Stage stage : stages) {
+            for (Lane lane : stage.lanes) {
+                String threadName = stage.lanes.length > 1
+                        ? "tracking-" + stage.name + "-" + lane.index
+                        : "tracking-" + stage.name;
+                Thread thread = new Thread(lane, threadName);
+                thread.setDaemon(true);
+                lane.thread = thread;
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * 发布一条轨迹数据，数据会被复制到槽位中，调用方可以继续复用原对象
+     * @param data 轨迹数据
+     * @return 是否发布成功，缓冲区持续满载时返回false
+     */
+    public boolean publish(TrackingData data) {
+        // 认领序号后必须发布，否则后续写入线程会一直等待该序号
+        if (!running || data == null) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        long next = claim();
+        if (next < 0) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        slots[(int) (next & mask)].reset(data);
+        // 按序号顺序发布，前一个序号的写入线程只需复制一个槽位，等待时间很短
+        while (cursor.get() != next - 1) {
+            Thread.yield();
+        }
+        cursor.set(next);
+        publishedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 批量发布轨迹数据，第一次等待超时后剩余数据直接丢弃，不再逐条等待
+     * @param dataList 轨迹数据列表
+     * @return 发布成功的条数
+     */
+    public int publishAll(List<TrackingData> dataList) {
+        int published = 0;
+        int attempted = 0;
+        for (TrackingData data : dataList) {
+            attempted++;
+            if (!publish(data)) {
+                break;
+            }
+            published++;
+        }
+        if (attempted < dataList.size()) {
+            droppedCount.addAndGet(dataList.size() - attempted);
+        }
+        return published;
+    }
+
+    /**
+     * 认领下一个序号，槽位被所有消费阶段释放后才认领，缓冲区满时不持有锁等待
+     * @return 认领的序号，等待超时返回-1
+     */
+    private long claim() {
+        long deadline = 0;
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            long wrapPoint = next - slots.length;
+            if (wrapPoint > cachedGatingSequence) {
+                long gating = minimumOf(gatingSequences);
+                cachedGatingSequence = gating;
+                if (wrapPoint > gating) {
+                    if (deadline == 0) {
+                        overflowCount.incrementAndGet();
+                        deadline = System.nanoTime() + publishTimeoutNanos;
+                    }
+                    if (publishTimeoutNanos == 0 || System.nanoTime() >= deadline) {
+                        return -1;
+                    }
+                    LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+                    continue;
+                }
+            }
+            if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 停止接收新数据，等待各阶段处理完已发布的数据
+     * @param timeoutMs 最长等待时间（毫秒）
+     */
+    public void shutdown(long timeoutMs) {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Stage stage : stages) {
+            for (Lane lane : stage.lanes) {
+                try {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining > 0 && lane.thread != null) {
+                        lane.thread.join(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取缓冲区运行统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long published = cursor.get();
+        stats.put("bufferSize", slots.length);
+        stats.put("published", publishedCount.get());
+        stats.put("overflow", overflowCount.get());
+        stats.put("dropped", droppedCount.get());
+        stats.put("backlog", published - minimumOf(gatingSequences));
+
+        Map<String, Object> stageStats = new LinkedHashMap<>();
+        for (Stage stage : stages) {
+            long processed = 0;
+            long errors = 0;
+            long slowest = Long.MAX_VALUE;
+            for (Lane lane : stage.lanes) {
+                processed += lane.processedCount.get();
+                errors += lane.errorCount.get();
+                slowest = Math.min(slowest, lane.sequence.get());
+            }
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("lanes", stage.lanes.length);
+            item.put("processed", processed);
+            item.put("errors", errors);
+            item.put("lag", published - slowest);
+            stageStats.put(stage.name, item);
+        }
+        stats.put("stages", stageStats);
+        return stats;
+    }
+
+    private long minimumOf(AtomicLong[] sequences) {
+        long minimum = Long.MAX_VALUE;
+        for (AtomicLong sequence : sequences) {
+            long value = sequence.get();
+            if (value < minimum) {
+                minimum = value;
+            }
+        }
+        return minimum == Long.MAX_VALUE ? cursor.get() : minimum;
+    }
+}
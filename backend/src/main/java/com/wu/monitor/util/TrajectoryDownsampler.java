@@ -0,0 +1,261 @@
+package com.wu.monitor.util;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * 轨迹降采样算法
+ * 输入为按时间升序的列式坐标数组及区间 [from, to)，输出保留点的下标（升序）或时间分桶的起始下标，
+ * 数量不超过 maxPoints（不小于2）；RDP和Visvalingam的结果总是包含区间的首尾点。
+ */
+public class TrajectoryDownsampler {
+
+    /**
+     * 降采样方法
+     */
+    public enum Method {
+        // Ramer-Douglas-Peucker：保留偏离首尾连线最远的点，适合保持轨迹形状
+        RDP,
+        // Visvalingam-Whyatt：依次删除与相邻点构成三角形面积最小的点，适合平滑轨迹
+        VISVALINGAM,
+        // 固定时间分桶平均：每个时间桶输出一个平均位置，适合均匀回放
+        BUCKET;
+
+        /**
+         * 按名称解析，不区分大小写
+         */
+        public static Method of(String name) {
+            if (name == null || name.isEmpty()) {
+                return RDP;
+            }
+            switch (name.toLowerCase()) {
+                case "rdp":
+                case "douglas-peucker":
+                    return RDP;
+                case "vw":
+                case "visvalingam":
+                    return VISVALINGAM;
+                case "bucket":
+                    return BUCKET;
+                default:
+                    throw new IllegalArgumentException("不支持的降采样方法: " + name);
+            }
+        }
+    }
+
+    private TrajectoryDownsampler() {
+    }
+
+    /**
+     * Ramer-Douglas-Peucker降采样，按点数上限自顶向下逐次拆分偏离最大的子段
+     * @return 保留点的下标（升序）
+     */
+    public static int[] douglasPeucker(float[] xs, float[] ys, int from, int to, int maxPoints) {
+        int n = to - from;
+        if (n <= maxPoints || n <= 2) {
+            return range(from, to);
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int kept = 2;
+
+        // 按子段内最大偏离距离降序拆分
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(b[0], a[0]));
+        offerSegment(queue, xs, ys, from, to - 1);
+        while (kept < maxPoints && !queue.isEmpty()) {
+            double[] segment = queue.poll();
+            int split = (int) segment[3];
+            keep[split - from] = true;
+            kept++;
+            offerSegment(queue, xs, ys, (int) segment[1], split);
+            offerSegment(queue, xs, ys, split, (int) segment[2]);
+        }
+        return collect(keep, from, kept);
+    }
+
+    /**
+     * Visvalingam-Whyatt降采样，依次删除有效面积最小的点直到满足点数上限
+     * @return 保留点的下标（升序）
+     */
+    public static int[] visvalingam(float[] xs, float[] ys, int from, int to, int maxPoints) {
+        int n = to - from;
+        if (n <= maxPoints || n <= 2) {
+            return range(from, to);
+        }
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        double[] area = new double[n];
+        boolean[] removed = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            prev[i] = i - 1;
+            next[i] = i + 1;
+        }
+        // 以面积为键的索引最小堆，只包含中间点，更新面积时原地调整
+        int[] heap = new int[n - 2];
+        int[] position = new int[n];
+        int heapSize = 0;
+        for (int i = 1; i < n - 1; i++) {
+            area[i] = triangleArea(xs, ys, from + i - 1, from + i, from + i + 1);
+            heap[heapSize] = i;
+            position[i] = heapSize++;
+        }
+        for (int k = heapSize / 2 - 1; k >= 0; k--) {
+            siftDown(heap, position, area, heapSize, k);
+        }
+
+        int remaining = n;
+        while (remaining > maxPoints && heapSize > 0) {
+            int i = heap[0];
+            heap[0] = heap[--heapSize];
+            position[heap[0]] = 0;
+            siftDown(heap, position, area, heapSize, 0);
+            removed[i] = true;
+            remaining--;
+            int p = prev[i];
+            int q = next[i];
+            next[p] = q;
+            prev[q] = p;
+            // 相邻点的有效面积不小于被删除点的面积，保证删除顺序单调
+            if (p > 0) {
+                area[p] = Math.max(area[i], triangleArea(xs, ys, from + prev[p], from + p, from + q));
+                update(heap, position, area, heapSize, position[p]);
+            }
+            if (q < n - 1) {
+                area[q] = Math.max(area[i], triangleArea(xs, ys, from + p, from + q, from + next[q]));
+                update(heap, position, area, heapSize, position[q]);
+            }
+        }
+
+        boolean[] keep = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            keep[i] = !removed[i];
+        }
+        return collect(keep, from, remaining);
+    }
+
+    /**
+     * 固定时间分桶，将 [times[from], times[to-1]] 等分为不超过 maxPoints 个时间桶
+     * @return 每个非空桶的起始下标（升序），最后一个桶结束于 to
+     */
+    public static int[] timeBuckets(long[] times, int from, int to, int maxPoints) {
+        int n = to - from;
+        if (n <= maxPoints || n <= 2) {
+            return range(from, to);
+        }
+        long start = times[from];
+        long span = times[to - 1] - start + 1;
+        int[] starts = new int[maxPoints];
+        int count = 0;
+        int lastBucket = -1;
+        for (int i = from; i < to; i++) {
+            int bucket = (int) ((times[i] - start) * maxPoints / span);
+            if (bucket != lastBucket) {
+                starts[count++] = i;
+                lastBucket = bucket;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * 计算子段 [start, end] 内偏离首尾连线最远的点并加入队列，队列元素为 {距离, 起点, 终点, 最远点}
+     */
+    private static void offerSegment(PriorityQueue<double[]> queue, float[] xs, float[] ys, int start, int end) {
+        if (end - start < 2) {
+            return;
+        }
+        double ax = xs[start];
+        double ay = ys[start];
+        double dx = xs[end] - ax;
+        double dy = ys[end] - ay;
+        double length2 = dx * dx + dy * dy;
+        double max = -1;
+        int index = start + 1;
+        for (int i = start + 1; i < end; i++) {
+            double px = xs[i] - ax;
+            double py = ys[i] - ay;
+            double distance2;
+            if (length2 == 0) {
+                // 首尾重合时使用到起点的距离
+                distance2 = px * px + py * py;
+            } else {
+                double cross = px * dy - py * dx;
+                distance2 = cross * cross / length2;
+            }
+            if (distance2 > max) {
+                max = distance2;
+                index = i;
+            }
+        }
+        queue.add(new double[] {max, start, end, index});
+    }
+
+    /**
+     * 键值变化后调整堆中位置 k 的元素
+     */
+    private static void update(int[] heap, int[] position, double[] key, int size, int k) {
+        int node = heap[k];
+        siftUp(heap, position, key, k);
+        siftDown(heap, position, key, size, position[node]);
+    }
+
+    private static void siftUp(int[] heap, int[] position, double[] key, int k) {
+        int node = heap[k];
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (key[heap[parent]] <= key[node]) {
+                break;
+            }
+            heap[k] = heap[parent];
+            position[heap[k]] = k;
+            k = parent;
+        }
+        heap[k] = node;
+        position[node] = k;
+    }
+
+    private static void siftDown(int[] heap, int[] position, double[] key, int size, int k) {
+        int node = heap[k];
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) {
+                child++;
+            }
+            if (key[node] <= key[heap[child]]) {
+                break;
+            }
+            heap[k] = heap[child];
+            position[heap[k]] = k;
+            k = child;
+        }
+        heap[k] = node;
+        position[node] = k;
+    }
+
+    private static double triangleArea(float[] xs, float[] ys, int a, int b, int c) {
+        return Math.abs((xs[b] - xs[a]) * (double) (ys[c] - ys[a]) - (xs[c] - xs[a]) * (double) (ys[b] - ys[a])) / 2;
+    }
+
+    private static int[] collect(boolean[] keep, int from, int count) {
+        int[] result = new int[count];
+        int k = 0;
+        for (int i = 0; i < keep.length && k < count; i++) {
+            if (keep[i]) {
+                result[k++] = from + i;
+            }
+        }
+        return result;
+    }
+
+    private static int[] range(int from, int to) {
+        int[] result = new int[Math.max(0, to - from)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = from + i;
+        }
+        return result;
+    }
+}
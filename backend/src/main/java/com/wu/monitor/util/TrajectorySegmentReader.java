@@ -0,0 +1,218 @@
+package com.wu.monitor.util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 轨迹归档段文件读取
+ * 以内存映射方式只读打开 TrajectorySegmentWriter 生成的文件，按MAC二分查找设备目录并解码该设备的数据块。
+ * 只使用绝对位置读取，可被多个线程同时使用。
+ */
+public class TrajectorySegmentReader {
+
+    /**
+     * 轨迹点回调
+     */
+    public interface PointVisitor {
+        /**
+         * @param mapId 地图ID，为空时为 TrajectorySegmentWriter.NO_MAP
+         * @param x X坐标，为空时为 NaN
+         * @param y Y坐标，为空时为 NaN
+         * @return 是否继续遍历
+         */
+        boolean visit(long id, int mapId, long second, float x, float y);
+    }
+
+    private final MappedByteBuffer buffer;
+    private final long directoryOffset;
+    private final int deviceCount;
+    private final long pointCount;
+    private final long minSecond;
+    private final long maxSecond;
+
+    public TrajectorySegmentReader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TrajectorySegmentWriter.TRAILER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("无效的轨迹归档文件: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int trailer = buffer.capacity() - TrajectorySegmentWriter.TRAILER_SIZE;
+        if (buffer.getInt(trailer + 40) != TrajectorySegmentWriter.MAGIC
+                || buffer.getInt(trailer + 36) != TrajectorySegmentWriter.VERSION) {
+            throw new IOException("无效的轨迹归档文件: " + file);
+        }
+        directoryOffset = buffer.getLong(trailer);
+        deviceCount = buffer.getInt(trailer + 8);
+        pointCount = buffer.getLong(trailer + 12);
+        minSecond = buffer.getLong(trailer + 20);
+        maxSecond = buffer.getLong(trailer + 28);
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    public long getMinSecond() {
+        return minSecond;
+    }
+
+    public long getMaxSecond() {
+        return maxSecond;
+    }
+
+    /**
+     * 按时间顺序遍历设备在 [fromSecond, toSecond] 内的轨迹点
+     * @return 是否遍历完成（回调未要求停止）
+     */
+    public boolean forEach(long mac, long fromSecond, long toSecond, PointVisitor visitor) {
+        int entry = find(mac);
+        if (entry < 0) {
+            return true;
+        }
+        int base = (int) (directoryOffset + (long) entry * TrajectorySegmentWriter.DIRECTORY_ENTRY_SIZE);
+        int count = buffer.getInt(base + 6);
+        long dataOffset = buffer.getLong(base + 10);
+        long first = buffer.getLong(base + 22);
+        long last = buffer.getLong(base + 30);
+        if (last < fromSecond || first > toSecond) {
+            return true;
+        }
+
+        BitReader bits = new BitReader(buffer, dataOffset);
+        long second = bits.read(64);
+        long id = bits.read(64);
+        int mapId = (int) bits.read(32);
+        XorState xState = new XorState();
+        XorState yState = new XorState();
+        int x = xState.first(bits);
+        int y = yState.first(bits);
+        long secondDelta = 0;
+        long idDelta = 0;
+        for (int i = 0; ; ) {
+            if (second > toSecond) {
+                return true;
+            }
+            if (second >= fromSecond
+                    && !visitor.visit(id, mapId, second, Float.intBitsToFloat(x), Float.intBitsToFloat(y))) {
+                return false;
+            }
+            if (++i == count) {
+                return true;
+            }
+            secondDelta += readDeltaOfDelta(bits);
+            second += secondDelta;
+            idDelta += readDeltaOfDelta(bits);
+            id += idDelta;
+            if (bits.read(1) != 0) {
+                mapId = (int) bits.read(32);
+            }
+            x = xState.next(bits);
+            y = yState.next(bits);
+        }
+    }
+
+    /**
+     * 二分查找设备目录
+     * @return 目录项序号，不存在时返回-1
+     */
+    private int find(long mac) {
+        int low = 0;
+        int high = deviceCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = readMac((int) (directoryOffset + (long) mid * TrajectorySegmentWriter.DIRECTORY_ENTRY_SIZE));
+            if (value < mac) {
+                low = mid + 1;
+            } else if (value > mac) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private long readMac(int position) {
+        long mac = 0;
+        for (int i = 0; i < 6; i++) {
+            mac = (mac << 8) | (buffer.get(position + i) & 0xFF);
+        }
+        return mac;
+    }
+
+    private static long readDeltaOfDelta(BitReader bits) {
+        if (bits.read(1) == 0) {
+            return 0;
+        }
+        if (bits.read(1) == 0) {
+            return bits.read(7) - 63;
+        }
+        if (bits.read(1) == 0) {
+            return bits.read(9) - 255;
+        }
+        if (bits.read(1) == 0) {
+            return bits.read(12) - 2047;
+        }
+        return bits.read(64);
+    }
+
+    /**
+     * 单列浮点数的Gorilla异或解码状态
+     */
+    private static class XorState {
+        int prev;
+        int leading;
+        int trailing;
+
+        int first(BitReader bits) {
+            prev = (int) bits.read(32);
+            return prev;
+        }
+
+        int next(BitReader bits) {
+            if (bits.read(1) == 0) {
+                return prev;
+            }
+            if (bits.read(1) != 0) {
+                leading = (int) bits.read(5);
+                int significant = (int) bits.read(5) + 1;
+                trailing = 32 - leading - significant;
+            }
+            int xor = (int) bits.read(32 - leading - trailing) << trailing;
+            prev ^= xor;
+            return prev;
+        }
+    }
+
+    /**
+     * 高位在前的位读取
+     */
+    private static class BitReader {
+        private final MappedByteBuffer buffer;
+        private long bitPosition;
+
+        BitReader(MappedByteBuffer buffer, long byteOffset) {
+            this.buffer = buffer;
+            this.bitPosition = byteOffset << 3;
+        }
+
+        long read(int n) {
+            long value = 0;
+            for (int i = 0; i < n; i++) {
+                int b = buffer.get((int) (bitPosition >>> 3));
+                value = (value << 1) | ((b >>> (7 - (int) (bitPosition & 7))) & 1);
+                bitPosition++;
+            }
+            return value;
+        }
+    }
+}
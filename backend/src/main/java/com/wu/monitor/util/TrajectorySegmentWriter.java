@@ -0,0 +1,271 @@
+package com.wu.monitor.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 轨迹归档段文件写入
+ * 输入必须按设备（MAC升序）、时间、ID排序，每个设备的数据编码为一个连续的位流数据块：
+ * 时间和ID使用二阶差分（delta-of-delta）变长编码，坐标使用Gorilla异或编码，地图ID只在变化时写入。
+ * 文件结构：[设备数据块...][设备目录][尾部]，目录按MAC升序，可二分查找。
+ *
+ * 目录项（38字节）：MAC(6) 点数(4) 数据偏移(8) 数据长度(4) 首点时间(8) 末点时间(8)
+ * 尾部（44字节）：目录偏移(8) 设备数(4) 总点数(8) 最早时间(8) 最晚时间(8) 版本(4) 魔数(4)
+ */
+public class TrajectorySegmentWriter implements Closeable {
+
+    // 文件魔数 "TRJS"
+    public static final int MAGIC = 0x54524A53;
+    public static final int VERSION = 1;
+    public static final int DIRECTORY_ENTRY_SIZE = 38;
+    public static final int TRAILER_SIZE = 44;
+
+    // 地图ID为空的标记
+    public static final int NO_MAP = Integer.MIN_VALUE;
+
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    private long offset;
+
+    private final List<long[]> directory = new ArrayList<>();
+    private long pointCount;
+    private long minSecond = Long.MAX_VALUE;
+    private long maxSecond = Long.MIN_VALUE;
+
+    // 当前设备的编码状态
+    private long currentMac = -1;
+    private final BitBuffer bits = new BitBuffer();
+    private int count;
+    private long firstSecond;
+    private long prevSecond;
+    private long prevSecondDelta;
+    private long prevId;
+    private long prevIdDelta;
+    private int prevMapId;
+    private final XorState xState = new XorState();
+    private final XorState yState = new XorState();
+
+    public TrajectorySegmentWriter(Path file) throws IOException {
+        fileOut = new FileOutputStream(file.toFile());
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+    }
+
+    /**
+     * 追加一个轨迹点
+     * @param mac 设备MAC地址（低48位）
+     * @param mapId 地图ID，为空时传 NO_MAP
+     * @param second UTC秒
+     * @param x X坐标，为空时传 NaN
+     * @param y Y坐标，为空时传 NaN
+     */
+    public void append(long mac, long id, int mapId, long second, float x, float y) throws IOException {
+        if (mac != currentMac) {
+            if (mac < currentMac) {
+                throw new IllegalStateException("轨迹点未按设备排序");
+            }
+            finishDevice();
+            currentMac = mac;
+        }
+
+        if (count == 0) {
+            bits.write(second, 64);
+            bits.write(id, 64);
+            bits.write(mapId, 32);
+            xState.first(bits, Float.floatToRawIntBits(x));
+            yState.first(bits, Float.floatToRawIntBits(y));
+            firstSecond = second;
+            prevSecondDelta = 0;
+            prevIdDelta = 0;
+        } else {
+            long secondDelta = second - prevSecond;
+            writeDeltaOfDelta(secondDelta - prevSecondDelta);
+            prevSecondDelta = secondDelta;
+
+            long idDelta = id - prevId;
+            writeDeltaOfDelta(idDelta - prevIdDelta);
+            prevIdDelta = idDelta;
+
+            if (mapId == prevMapId) {
+                bits.write(0, 1);
+            } else {
+                bits.write(1, 1);
+                bits.write(mapId, 32);
+            }
+            xState.next(bits, Float.floatToRawIntBits(x));
+            yState.next(bits, Float.floatToRawIntBits(y));
+        }
+        prevSecond = second;
+        prevId = id;
+        prevMapId = mapId;
+        count++;
+        pointCount++;
+        minSecond = Math.min(minSecond, second);
+        maxSecond = Math.max(maxSecond, second);
+    }
+
+    public int getDeviceCount() {
+        return directory.size() + (count > 0 ? 1 : 0);
+    }
+
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * 写入目录和尾部并同步到磁盘
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finishDevice();
+            long directoryOffset = offset;
+            for (long[] entry : directory) {
+                long mac = entry[0];
+                for (int shift = 40; shift >= 0; shift -= 8) {
+                    out.writeByte((int) (mac >>> shift));
+                }
+                out.writeInt((int) entry[1]);
+                out.writeLong(entry[2]);
+                out.writeInt((int) entry[3]);
+                out.writeLong(entry[4]);
+                out.writeLong(entry[5]);
+            }
+            out.writeLong(directoryOffset);
+            out.writeInt(directory.size());
+            out.writeLong(pointCount);
+            out.writeLong(pointCount > 0 ? minSecond : 0);
+            out.writeLong(pointCount > 0 ? maxSecond : 0);
+            out.writeInt(VERSION);
+            out.writeInt(MAGIC);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void finishDevice() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        int length = bits.length();
+        out.write(bits.bytes(), 0, length);
+        directory.add(new long[] {currentMac, count, offset, length, firstSecond, prevSecond});
+        offset += length;
+        bits.clear();
+        count = 0;
+        xState.reset();
+        yState.reset();
+    }
+
+    /**
+     * 二阶差分变长编码：0 | 10+7位 | 110+9位 | 1110+12位 | 1111+64位
+     */
+    private void writeDeltaOfDelta(long value) {
+        if (value == 0) {
+            bits.write(0, 1);
+        } else if (value >= -63 && value <= 64) {
+            bits.write(0b10, 2);
+            bits.write(value + 63, 7);
+        } else if (value >= -255 && value <= 256) {
+            bits.write(0b110, 3);
+            bits.write(value + 255, 9);
+        } else if (value >= -2047 && value <= 2048) {
+            bits.write(0b1110, 4);
+            bits.write(value + 2047, 12);
+        } else {
+            bits.write(0b1111, 4);
+            bits.write(value, 64);
+        }
+    }
+
+    /**
+     * 单列浮点数的Gorilla异或编码状态
+     */
+    private static class XorState {
+        int prev;
+        int leading = -1;
+        int trailing;
+
+        void reset() {
+            leading = -1;
+            trailing = 0;
+        }
+
+        void first(BitBuffer bits, int value) {
+            bits.write(value & 0xFFFFFFFFL, 32);
+            prev = value;
+        }
+
+        void next(BitBuffer bits, int value) {
+            int xor = value ^ prev;
+            prev = value;
+            if (xor == 0) {
+                bits.write(0, 1);
+                return;
+            }
+            bits.write(1, 1);
+            int lead = Math.min(31, Integer.numberOfLeadingZeros(xor));
+            int trail = Integer.numberOfTrailingZeros(xor);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                // 有效位落在上一次的窗口内，沿用窗口
+                bits.write(0, 1);
+                bits.write((xor >>> trailing) & 0xFFFFFFFFL, 32 - leading - trailing);
+            } else {
+                int significant = 32 - lead - trail;
+                bits.write(1, 1);
+                bits.write(lead, 5);
+                bits.write(significant - 1, 5);
+                bits.write((xor >>> trail) & 0xFFFFFFFFL, significant);
+                leading = lead;
+                trailing = trail;
+            }
+        }
+    }
+
+    /**
+     * 高位在前的位缓冲区
+     */
+    private static class BitBuffer {
+        private byte[] buffer = new byte[4096];
+        private long bitLength;
+
+        void write(long value, int n) {
+            ensureCapacity(bitLength + n);
+            for (int i = n - 1; i >= 0; i--) {
+                if (((value >>> i) & 1) != 0) {
+                    int index = (int) (bitLength >>> 3);
+                    buffer[index] |= (byte) (0x80 >>> (int) (bitLength & 7));
+                }
+                bitLength++;
+            }
+        }
+
+        int length() {
+            return (int) ((bitLength + 7) >>> 3);
+        }
+
+        byte[] bytes() {
+            return buffer;
+        }
+
+        void clear() {
+            Arrays.fill(buffer, 0, length(), (byte) 0);
+            bitLength = 0;
+        }
+
+        private void ensureCapacity(long bits) {
+            int required = (int) ((bits + 7) >>> 3);
+            if (required > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+            }
+        }
+    }
+}
@@ -114,8 +114,10 @@ export function createGeofenceManager(mapStore, coordinateUtils, t) {
     if (stompClient) {
       stompClient.subscribe('/topic/alarmNotification', (message) => {
         try {
-          const notification = JSON.parse(message.body)
-          handleWebSocketAlarmNotification(notification)
+          const payload = JSON.parse(message.body)
+          // 后端将同一时段的告警开启和关闭通知合并为数组推送
+          const notifications = Array.isArray(payload) ? payload : [payload]
+          notifications.forEach(notification => handleWebSocketAlarmNotification(notification))
         } catch (error) {
           console.error(translationFunction ? translationFunction('geofenceAlarm.handleNotificationFailed') : 'Failed to handle notification', error)
         }
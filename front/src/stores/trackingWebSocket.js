@@ -1,4 +1,4 @@
-import { ref } from 'vue'
+import { ref, watch } from 'vue'
 import { Client } from '@stomp/stompjs'
 
 export function createWebSocketManager(mapStore, sensorManager, geofenceManager) {
@@ -7,6 +7,10 @@ export function createWebSocketManager(mapStore, sensorManager, geofenceManager)
   const stompClient = ref(null)
   const receivedDataCount = ref(0)
   
+  // 当前地图的轨迹订阅，切换地图时重新订阅
+  let pathDataSubscription = null
+  let subscribedMapId = null
+  
   // 数据处理优化相关变量
   const dataBuffer = ref([]) // 存储接收到的数据
   const processingData = ref(false) // 标记是否正在处理数据
@@ -37,22 +41,9 @@ export function createWebSocketManager(mapStore, sensorManager, geofenceManager)
         console.log('WebSocket连接成功')
         wsConnected.value = true
         
-        // 订阅轨迹数据 - 实现批量处理
-        stompClient.value.subscribe('/topic/pathData', message => {
-          try {
-            const data = JSON.parse(message.body)
-            receivedDataCount.value++
-            
-            // 不再输出详细日志，减少性能开销
-            // console.debug('接收轨迹:', data.mac, data.x, data.y)
-            
-            // 添加到数据缓冲区
-            enqueueData(data)
-            
-          } catch (error) {
-            console.error('处理WebSocket数据时出错:', error)
-          }
-        })
+        // 订阅当前地图的轨迹数据 - 实现批量处理
+        pathDataSubscription = null
+        subscribePathData(mapStore.selectedMap?.mapId)
         
         // 订阅围栏告警通知
         if (geofenceManager) {
@@ -73,6 +64,44 @@ export function createWebSocketManager(mapStore, sensorManager, geofenceManager)
     stompClient.value.activate()
   }
   
+  // 只订阅当前地图的主题，服务端不再推送其他地图的数据
+  function subscribePathData(mapId) {
+    if (pathDataSubscription) {
+      pathDataSubscription.unsubscribe()
+      pathDataSubscription = null
+    }
+    subscribedMapId = mapId ?? null
+    if (subscribedMapId === null || !stompClient.value?.connected) {
+      return
+    }
+    pathDataSubscription = stompClient.value.subscribe(`/topic/pathData/${subscribedMapId}`, message => {
+      try {
+        const data = JSON.parse(message.body)
+        
+        // 服务端按帧合并时一条消息是该帧内的位置数组
+        if (Array.isArray(data)) {
+          receivedDataCount.value += data.length
+          for (let i = 0; i < data.length; i++) {
+            enqueueData(data[i])
+          }
+        } else {
+          receivedDataCount.value++
+          enqueueData(data)
+        }
+        
+      } catch (error) {
+        console.error('处理WebSocket数据时出错:', error)
+      }
+    })
+  }
+  
+  // 切换地图时重新订阅
+  watch(() => mapStore.selectedMap?.mapId, mapId => {
+    if ((mapId ?? null) !== subscribedMapId) {
+      subscribePathData(mapId)
+    }
+  })
+  
   // 将数据添加到缓冲区并触发处理
   function enqueueData(data) {
     // 快速验证数据格式是否正确
@@ -150,6 +179,8 @@ export function createWebSocketManager(mapStore, sensorManager, geofenceManager)
   
   // 断开WebSocket连接
   function disconnect() {
+    pathDataSubscription = null
+    subscribedMapId = null
     if (stompClient.value?.active) {
       stompClient.value.deactivate()
     }
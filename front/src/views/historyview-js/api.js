@@ -107,12 +107,13 @@ export function createHistoryAPI(data, mapStore, t, uiHandlers = {}) {
         mapId: data.selectedMapId.value,
         startTime: startTime,
         endTime: endTime,
-        page: 0,
-        size: 1000 // 获取足够多的数据点
+        maxPoints: 5000, // 服务端降采样，长时间范围回放时限制点数
+        method: 'rdp'
       }
       
-      const response = await axios.get(`/api/trajectory/device/${data.searchForm.deviceId}/history`, { params })
-      const rawData = response.data || []
+      const response = await axios.get(`/api/trajectory/device/${data.searchForm.deviceId}/history/playback`, { params })
+      // 服务端已按时间正序返回
+      const rawData = (response.data && response.data.records) || []
       
       console.log('查询结果:', rawData.length, '条数据')
       if (rawData.length > 0) {
@@ -120,12 +121,7 @@ export function createHistoryAPI(data, mapStore, t, uiHandlers = {}) {
         console.log('最后一条数据时间:', rawData[rawData.length - 1].timestamp)
       }
       
-      // 按时间戳正序排序
-      data.trajectoryData.value = rawData.sort((a, b) => {
-        const timeA = new Date(a.timestamp).getTime()
-        const timeB = new Date(b.timestamp).getTime()
-        return timeA - timeB // 正序：最早的在前面
-      })
+      data.trajectoryData.value = rawData
       
       // 设置选中的标签信息
       data.selectedTag.value = data.tagList.value.find(tag => tag.macAddress === data.searchForm.deviceId)
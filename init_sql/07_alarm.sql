@@ -17,4 +17,11 @@ CREATE TABLE IF NOT EXISTS `alarm` (
   KEY `idx_geofence_id` (`geofence_id`),
   KEY `idx_map_id` (`map_id`),
   KEY `idx_alarm_tag` (`alarm_tag`)
-) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='报警记录表'; 
\ No newline at end of file
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='报警记录表'; 
+
+-- 报警ID序列，各节点按块预留ID，报警在写入数据库前即可分配不冲突的ID
+CREATE TABLE IF NOT EXISTS `id_sequence` (
+  `name` varchar(64) NOT NULL COMMENT '序列名称',
+  `next_id` bigint(20) NOT NULL COMMENT '下一个可分配的ID',
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='ID序列表';
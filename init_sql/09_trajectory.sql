@@ -52,26 +52,15 @@ BEGIN
     
     -- 如果分区不存在则创建
     IF @partition_exists = 0 THEN
-        -- 先删除p_future分区
-        SET @sql = 'ALTER TABLE trajectory_data DROP PARTITION p_future';
-        PREPARE stmt FROM @sql;
-        EXECUTE stmt;
-        DEALLOCATE PREPARE stmt;
-        
-        -- 创建新分区
-        SET sql_text = CONCAT('ALTER TABLE trajectory_data ADD PARTITION (PARTITION ', 
-                             partition_name, ' VALUES LESS THAN (', partition_value, '))');
+        -- 从p_future中拆分出新分区，不删除p_future
+        SET sql_text = CONCAT('ALTER TABLE trajectory_data REORGANIZE PARTITION p_future INTO (PARTITION ', 
+                             partition_name, ' VALUES LESS THAN (', partition_value, '), ',
+                             'PARTITION p_future VALUES LESS THAN MAXVALUE)');
         SET @sql = sql_text;
         PREPARE stmt FROM @sql;
         EXECUTE stmt;
         DEALLOCATE PREPARE stmt;
         
-        -- 重新创建p_future分区
-        SET @sql = 'ALTER TABLE trajectory_data ADD PARTITION (PARTITION p_future VALUES LESS THAN MAXVALUE)';
-        PREPARE stmt FROM @sql;
-        EXECUTE stmt;
-        DEALLOCATE PREPARE stmt;
-        
         SELECT CONCAT('分区 ', partition_name, ' 创建成功') AS result;
     ELSE
         SELECT CONCAT('分区 ', partition_name, ' 已存在') AS result;
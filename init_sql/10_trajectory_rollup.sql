@@ -0,0 +1,36 @@
+USE aoa;
+
+-- 设备按分钟轨迹汇总（由轨迹写入线程增量维护，时间与轨迹表一致按UTC）
+CREATE TABLE IF NOT EXISTS `trajectory_rollup_minute` (
+  `device_id` BINARY(6) NOT NULL COMMENT '设备ID（MAC地址，6字节二进制）',
+  `bucket` datetime NOT NULL COMMENT '分钟起始时间',
+  `map_id` int(11) NOT NULL COMMENT '地图ID',
+  `point_count` int(11) NOT NULL DEFAULT 0 COMMENT '轨迹点数',
+  `first_time` datetime NOT NULL COMMENT '第一个点时间',
+  `first_x` float NOT NULL COMMENT '第一个点X坐标',
+  `first_y` float NOT NULL COMMENT '第一个点Y坐标',
+  `last_time` datetime NOT NULL COMMENT '最后一个点时间',
+  `last_x` float NOT NULL COMMENT '最后一个点X坐标',
+  `last_y` float NOT NULL COMMENT '最后一个点Y坐标',
+  `min_x` float NOT NULL COMMENT '包围盒最小X',
+  `min_y` float NOT NULL COMMENT '包围盒最小Y',
+  `max_x` float NOT NULL COMMENT '包围盒最大X',
+  `max_y` float NOT NULL COMMENT '包围盒最大Y',
+  `distance` double NOT NULL DEFAULT 0 COMMENT '移动距离（米）',
+  PRIMARY KEY (`device_id`, `bucket`, `map_id`),
+  KEY `idx_bucket` (`bucket`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='设备按分钟轨迹汇总';
+
+-- 地图按小时轨迹汇总
+CREATE TABLE IF NOT EXISTS `trajectory_rollup_map_hour` (
+  `map_id` int(11) NOT NULL COMMENT '地图ID',
+  `bucket` datetime NOT NULL COMMENT '小时起始时间',
+  `point_count` bigint(20) NOT NULL DEFAULT 0 COMMENT '轨迹点数',
+  `device_count` int(11) NOT NULL DEFAULT 0 COMMENT '出现过的设备数',
+  `min_x` float NOT NULL COMMENT '包围盒最小X',
+  `min_y` float NOT NULL COMMENT '包围盒最小Y',
+  `max_x` float NOT NULL COMMENT '包围盒最大X',
+  `max_y` float NOT NULL COMMENT '包围盒最大Y',
+  `distance` double NOT NULL DEFAULT 0 COMMENT '所有设备移动距离之和（米）',
+  PRIMARY KEY (`map_id`, `bucket`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='地图按小时轨迹汇总';